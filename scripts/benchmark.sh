@@ -0,0 +1,4 @@
+cd ..
+# Results are written to target/jmh-result.json, to compare between versions.
+# Extra JMH arguments go in jmh.args, e.g. sh benchmark.sh "MovieMapperBenchmark -prof gc"
+mvn -P benchmarks clean test-compile exec:exec -Djmh.args="$1"
@@ -0,0 +1,100 @@
+package co.je.movies.benchmarks;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import co.je.movies.domain.entities.FilmRating;
+import co.je.movies.domain.entities.Movie;
+import co.je.movies.persistence.daos.MovieDAO;
+
+/**
+ * Synthetic, reproducible movies for the benchmarks.
+ */
+public class BenchmarkData {
+
+    private static final String[] WORDS = { "matrix", "reloaded", "inception", "django", "arrival", "dream", "alien",
+            "linguist", "hacker", "rebel", "bounty", "hunter", "slave", "wife", "plantation", "secret", "corporate", "idea" };
+    private static final String[] GENRES = { "Action, Sci-Fi", "Drama, Western", "Drama, Mystery, Sci-Fi", "Comedy",
+            "Action, Adventure, Sci-Fi" };
+    private static final String[] SEARCH_INDEXED_COLUMNS = { "lowerTitle", "runtimeInMinutes", "metascore", "imdbRatingInTenths",
+            "imdbVotes" };
+
+    public static String imdbId(int index) {
+        return String.format("tt%07d", index);
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    public static Movie movie(Random random, int index) {
+        FilmRating[] filmRatings = FilmRating.values();
+        return new Movie(
+                imdbId(index),
+                words(random, 3),
+                60 + random.nextInt(120),
+                LocalDateTime.of(1950 + random.nextInt(70), 1 + random.nextInt(12), 1 + random.nextInt(28), 0, 0),
+                filmRatings[random.nextInt(filmRatings.length)],
+                GENRES[random.nextInt(GENRES.length)],
+                words(random, 2),
+                words(random, 25),
+                random.nextInt(101),
+                BigDecimal.valueOf(random.nextInt(100), 1),
+                random.nextInt(2_000_000));
+    }
+
+    public static List<Movie> movies(int count) {
+        Random random = new Random(42);
+        List<Movie> movies = new ArrayList<Movie>(count);
+        for (int i = 0; i < count; i++) {
+            movies.add(movie(random, i));
+        }
+        return movies;
+    }
+
+    /**
+     * Opens a connection to a new in memory H2 database holding count synthetic
+     * movies, created with the same DAO the service uses.
+     */
+    public static Connection seededConnection(String databaseName, int count) throws SQLException {
+        Connection dbConnection = DriverManager.getConnection("jdbc:h2:mem:" + databaseName + ";DB_CLOSE_DELAY=-1");
+        MovieDAO movieDAO = new MovieDAO();
+        movieDAO.createTableIfNotExists(dbConnection);
+        dbConnection.setAutoCommit(false);
+        movieDAO.createMovies(dbConnection, movies(count));
+        dbConnection.commit();
+        dbConnection.setAutoCommit(true);
+        return dbConnection;
+    }
+
+    /**
+     * Drops the indexes the schema migrations create for GET /movies, so
+     * searches scan the movies table.
+     */
+    public static void dropSearchIndexes(Connection dbConnection) throws SQLException {
+        try (Statement statement = dbConnection.createStatement()) {
+            for (String column : SEARCH_INDEXED_COLUMNS) {
+                statement.execute("DROP INDEX IF EXISTS movies_" + column + "_idx");
+            }
+        }
+    }
+
+    public static void drop(Connection dbConnection) throws SQLException {
+        dbConnection.createStatement().execute("DROP ALL OBJECTS");
+        dbConnection.close();
+    }
+}
@@ -0,0 +1,34 @@
+package co.je.movies.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.je.movies.domain.entities.FilmRating;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilmRatingBenchmark {
+
+    // First and last ratings, in the case stored in the DB and in lower case.
+    @Param({ "G", "NC-17", "nc-17" })
+    private String plainName;
+
+    @Benchmark
+    public FilmRating createFilmRatingFromPlainName() {
+        return FilmRating.createFilmRatingFromPlainName(plainName);
+    }
+}
@@ -0,0 +1,70 @@
+package co.je.movies.benchmarks;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.je.movies.domain.entities.Movie;
+import co.je.movies.domain.search.MovieColumnIndex;
+import co.je.movies.persistence.daos.MovieDAO;
+
+/**
+ * The same numeric range filter answered by MovieDAO and by MovieColumnIndex,
+ * to compare both GET /movies paths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovieColumnIndexBenchmark {
+
+    private static final BigDecimal IMDB_RATING = new BigDecimal("9.0");
+
+    @Param({ "10000", "100000" })
+    private int rows;
+
+    private Connection dbConnection;
+    private MovieDAO movieDAO;
+    private MovieColumnIndex movieColumnIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        dbConnection = BenchmarkData.seededConnection("columns" + rows, rows);
+        movieDAO = new MovieDAO();
+        movieColumnIndex = new MovieColumnIndex();
+        movieColumnIndex.putAll(BenchmarkData.movies(rows));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        BenchmarkData.drop(dbConnection);
+    }
+
+    @Benchmark
+    public List<Movie> numericRanges_SQL() throws SQLException {
+        return movieDAO.getMoviesByParams(dbConnection, null, 150, 90, IMDB_RATING, 1_000_000, null, 50);
+    }
+
+    @Benchmark
+    public List<String> numericRanges_ColumnIndex() {
+        return movieColumnIndex.search(null, 150, 90, IMDB_RATING, 1_000_000, null, 50);
+    }
+}
@@ -0,0 +1,75 @@
+package co.je.movies.benchmarks;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.je.movies.domain.entities.Movie;
+import co.je.movies.persistence.daos.MovieDAO;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovieDAOBenchmark {
+
+    @Param({ "10000", "100000" })
+    private int rows;
+
+    // false drops the search indexes of the schema migrations: the baseline they are measured against.
+    @Param({ "true", "false" })
+    private boolean indexed;
+
+    private Connection dbConnection;
+    private MovieDAO movieDAO;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        dbConnection = BenchmarkData.seededConnection("dao" + rows + indexed, rows);
+        if (!indexed) {
+            BenchmarkData.dropSearchIndexes(dbConnection);
+        }
+        movieDAO = new MovieDAO();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        BenchmarkData.drop(dbConnection);
+    }
+
+    @Benchmark
+    public Optional<Movie> getMovieByImdbId() throws SQLException {
+        String imdbId = BenchmarkData.imdbId(ThreadLocalRandom.current().nextInt(rows));
+        return movieDAO.getMovieByImdbId(dbConnection, imdbId);
+    }
+
+    @Benchmark
+    public List<Movie> getMoviesByParams_Title() throws SQLException {
+        return movieDAO.getMoviesByParams(dbConnection, "hacker", 0, 0, null, 0, null, 50);
+    }
+
+    @Benchmark
+    public List<Movie> getMoviesByParams_NumericRanges() throws SQLException {
+        return movieDAO.getMoviesByParams(dbConnection, null, 150, 90, new BigDecimal("9.0"), 1_000_000, null, 50);
+    }
+}
@@ -0,0 +1,63 @@
+package co.je.movies.benchmarks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.je.movies.domain.entities.Movie;
+import co.je.movies.persistence.mappers.MovieMapper;
+
+/**
+ * Maps pages of rows read from an in memory H2 table. Run it with
+ * -prof gc to get the bytes allocated per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovieMapperBenchmark {
+
+    @Param({ "1000" })
+    private int rows;
+
+    private Connection dbConnection;
+    private PreparedStatement prepareStatement;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        dbConnection = BenchmarkData.seededConnection("mapper" + rows, rows);
+        prepareStatement = dbConnection.prepareStatement("SELECT " + MovieMapper.COLUMNS + " FROM movies;");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        prepareStatement.close();
+        BenchmarkData.drop(dbConnection);
+    }
+
+    @Benchmark
+    public List<Movie> getMultipleMovies() throws SQLException {
+        try (ResultSet resultSet = prepareStatement.executeQuery()) {
+            return MovieMapper.getMultipleMovies(resultSet);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package co.je.movies.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.je.movies.domain.entities.Movie;
+import co.je.movies.domain.search.MovieSearchIndex;
+
+/**
+ * Text searches answered by MovieSearchIndex: a whole word, a prefix, a token
+ * too short to expand and several words, plus replacing an indexed movie.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovieSearchIndexBenchmark {
+
+    private static final int LIMIT = 50;
+
+    @Param({ "100000", "1000000" })
+    private int rows;
+
+    private MovieSearchIndex movieSearchIndex;
+    private List<Movie> movies;
+    private int nextMovie;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        movies = BenchmarkData.movies(rows);
+        movieSearchIndex = new MovieSearchIndex();
+        for (Movie movie : movies) {
+            movieSearchIndex.put(movie);
+        }
+    }
+
+    @Benchmark
+    public List<String> word() {
+        return movieSearchIndex.search("inception", LIMIT);
+    }
+
+    @Benchmark
+    public List<String> prefix() {
+        return movieSearchIndex.search("rel", LIMIT);
+    }
+
+    @Benchmark
+    public List<String> shortToken() {
+        return movieSearchIndex.search("re", LIMIT);
+    }
+
+    @Benchmark
+    public List<String> multipleWords() {
+        return movieSearchIndex.search("matrix hacker rebel", LIMIT);
+    }
+
+    @Benchmark
+    public void replace() {
+        movieSearchIndex.put(movies.get(nextMovie));
+        nextMovie = (nextMovie + 1) % movies.size();
+    }
+}
@@ -0,0 +1,51 @@
+package co.je.movies.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.je.movies.Movies;
+import co.je.movies.domain.entities.Movie;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Serializes lists of movies with the ObjectMapper configured as in the service.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovieSerializationBenchmark {
+
+    @Param({ "1", "50", "500" })
+    private int size;
+
+    private ObjectMapper objectMapper;
+    private List<Movie> movies;
+
+    @Setup
+    public void setUp() {
+        objectMapper = Movies.configureObjectMapper(new ObjectMapper());
+        movies = BenchmarkData.movies(size);
+    }
+
+    @Benchmark
+    public byte[] writeMovies() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(movies);
+    }
+}
@@ -0,0 +1,59 @@
+package co.je.movies.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.je.movies.domain.search.MovieColumnIndex;
+
+/**
+ * A selective search scanning the whole column index, with a growing number of
+ * fork join threads, to show how the parallel scan scales with the cores.
+ * Parallelism 1 is the sequential scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ParallelSearchBenchmark {
+
+    private static final BigDecimal IMDB_RATING = new BigDecimal("9.5");
+
+    @Param({ "1000000" })
+    private int rows;
+
+    @Param({ "1", "2", "4", "8", "16", "32" })
+    private int parallelism;
+
+    private MovieColumnIndex movieColumnIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        movieColumnIndex = (parallelism == 1) ? new MovieColumnIndex() : new MovieColumnIndex(parallelism, 1);
+        Random random = new Random(42);
+        for (int i = 0; i < rows; i++) {
+            movieColumnIndex.put(BenchmarkData.movie(random, i));
+        }
+    }
+
+    @Benchmark
+    public List<String> selectiveSearch() {
+        return movieColumnIndex.search("hacker", 170, 95, IMDB_RATING, 1_900_000, null, 50);
+    }
+}
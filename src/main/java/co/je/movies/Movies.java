@@ -1,12 +1,15 @@
 package co.je.movies;
 
 import io.dropwizard.Application;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
 
 import javax.servlet.DispatcherType;
 import javax.servlet.FilterRegistration.Dynamic;
@@ -18,15 +21,31 @@ import org.slf4j.LoggerFactory;
 
 import co.je.movies.api.resources.MovieResource;
 import co.je.movies.domain.business.MovieBusiness;
+import co.je.movies.domain.business.MovieChangeLogPruner;
+import co.je.movies.domain.business.MovieStatsBuffer;
+import co.je.movies.domain.search.MovieColumnIndex;
+import co.je.movies.domain.search.MovieSearchIndex;
+import co.je.movies.infrastructure.cache.MovieCache;
+import co.je.movies.infrastructure.config.AsyncConfig;
+import co.je.movies.infrastructure.config.ChangeLogConfig;
 import co.je.movies.infrastructure.config.MoviesConfig;
 import co.je.movies.infrastructure.config.SQLConfig;
+import co.je.movies.infrastructure.config.SearchConfig;
+import co.je.movies.infrastructure.config.WriteBufferConfig;
+import co.je.movies.infrastructure.datasource.InstrumentedDataSource;
+import co.je.movies.infrastructure.datasource.ReplicaRouter;
+import co.je.movies.infrastructure.execution.RequestExecutor;
+import co.je.movies.infrastructure.health.DataSourceHealthCheck;
+import co.je.movies.infrastructure.logging.QueryLogger;
 import co.je.movies.persistence.daos.MovieDAO;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.datatype.jsr310.JSR310Module;
+import com.fasterxml.jackson.jaxrs.smile.JacksonSmileProvider;
 import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
 
 public class Movies extends Application<MoviesConfig> {
@@ -44,12 +63,19 @@ public class Movies extends Application<MoviesConfig> {
         filter.setInitParameter(CrossOriginFilter.ALLOWED_METHODS_PARAM, "GET,PUT,POST,DELETE,OPTIONS,PATCH");
         filter.setInitParameter(CrossOriginFilter.ALLOWED_ORIGINS_PARAM, "*");
         filter.setInitParameter(CrossOriginFilter.ACCESS_CONTROL_ALLOW_ORIGIN_HEADER, "*");
-        filter.setInitParameter("allowedHeaders", "Content-Type,Authorization,X-Requested-With,Content-Length,Accept,Origin");
+        filter.setInitParameter("allowedHeaders", "Content-Type,Authorization,X-Requested-With,Content-Length,Accept,Origin,"
+                + "If-None-Match,If-Modified-Since," + MovieResource.WRITTEN_AT_HEADER);
+        // Without them a browser client can't read the headers it has to send back.
+        filter.setInitParameter(CrossOriginFilter.EXPOSED_HEADERS_PARAM, "ETag,Last-Modified,Retry-After,"
+                + MovieResource.NEXT_CURSOR_HEADER + "," + MovieResource.WRITTEN_AT_HEADER);
         filter.setInitParameter("allowCredentials", "true");
     }
 
     private ObjectMapper configureJackson(Environment environment) {
-        ObjectMapper objectMapper = environment.getObjectMapper();
+        return configureObjectMapper(environment.getObjectMapper());
+    }
+
+    public static ObjectMapper configureObjectMapper(ObjectMapper objectMapper) {
         objectMapper.registerModule(new ParameterNamesModule());
         objectMapper.registerModule(new JSR310Module());
         objectMapper.registerModule(new Jdk8Module());
@@ -64,25 +90,121 @@ public class Movies extends Application<MoviesConfig> {
         return objectMapper;
     }
 
-    private BasicDataSource getInitializedDataSource(SQLConfig sqlConfig) {
-        BasicDataSource basicDataSource = new BasicDataSource();
-        basicDataSource.setDriverClassName(sqlConfig.getDriverClass());
-        basicDataSource.setUrl(sqlConfig.getUrl());
-        basicDataSource.setUsername(sqlConfig.getUsername());
-        basicDataSource.setPassword(sqlConfig.getPassword());
-        return basicDataSource;
+    /**
+     * Lets clients ask for Smile, Jackson's binary JSON, instead of JSON. It is
+     * configured like the JSON one.
+     */
+    private void addSmileSupport(Environment environment) {
+        ObjectMapper smileObjectMapper = configureObjectMapper(new ObjectMapper(new SmileFactory()));
+        environment.jersey().register(new JacksonSmileProvider(smileObjectMapper));
+    }
+
+    private BasicDataSource getInitializedDataSource(SQLConfig sqlConfig, Environment environment) {
+        BasicDataSource dataSource = manageDataSource(new InstrumentedDataSource(sqlConfig), environment);
+        environment.healthChecks().register("database", new DataSourceHealthCheck(dataSource));
+        return dataSource;
+    }
+
+    private BasicDataSource manageDataSource(InstrumentedDataSource dataSource, Environment environment) {
+        dataSource.registerMetrics(environment.metrics());
+        environment.lifecycle().manage(new Managed() {
+
+            @Override
+            public void start() throws Exception {
+            }
+
+            @Override
+            public void stop() throws Exception {
+                dataSource.close();
+            }
+        });
+        return dataSource;
+    }
+
+    /**
+     * Routes reads to the replicas in sqlConfig, or to the primary data source
+     * when there are none. Each replica has its own pool. The replicas have
+     * no health check: the reads of a replica that is down go to the others,
+     * or to the primary, so it does not make the service unhealthy. They are
+     * watched through the pool metrics and the healthyReplicas gauge.
+     */
+    private ReplicaRouter getReplicaRouter(SQLConfig sqlConfig, BasicDataSource dataSource, Environment environment) {
+        List<BasicDataSource> replicas = new ArrayList<BasicDataSource>();
+        List<String> replicaUrls = sqlConfig.getReplicaUrls();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            String name = "replica-" + i;
+            replicas.add(manageDataSource(new InstrumentedDataSource(sqlConfig, replicaUrls.get(i), name), environment));
+        }
+        ReplicaRouter replicaRouter = new ReplicaRouter(dataSource, replicas, sqlConfig.getReplicaRetryIntervalInMillis(),
+                sqlConfig.getReadYourWritesWindowInMillis());
+        replicaRouter.registerMetrics(environment.metrics());
+        return replicaRouter;
+    }
+
+    private void createTablesIfNeeded(BasicDataSource dataSource, MovieDAO movieDAO) throws SQLException {
+        try (Connection dbConnection = dataSource.getConnection()) {
+            movieDAO.createTableIfNotExists(dbConnection);
+        }
+    }
+
+    private MovieCache getMovieCache(MoviesConfig moviesConfig, Environment environment) {
+        MovieCache movieCache = new MovieCache(moviesConfig.getCacheConfig());
+        movieCache.registerMetrics(environment.metrics());
+        return movieCache;
+    }
+
+    private RequestExecutor getRequestExecutor(String name, AsyncConfig asyncConfig, int threads, Environment environment) {
+        if (!asyncConfig.isEnabled()) {
+            return RequestExecutor.direct();
+        }
+        RequestExecutor requestExecutor = new RequestExecutor(name, threads, asyncConfig.getQueueSize(), asyncConfig.getTimeoutInMillis());
+        requestExecutor.registerMetrics(environment.metrics());
+        environment.lifecycle().manage(requestExecutor);
+        return requestExecutor;
+    }
+
+    /**
+     * Managed after the data source, so it is stopped, and flushed, before the
+     * data source is closed.
+     */
+    private MovieStatsBuffer getMovieStatsBuffer(WriteBufferConfig writeBufferConfig, MovieBusiness movieBusiness,
+            Environment environment) {
+        if (!writeBufferConfig.isEnabled()) {
+            return null;
+        }
+        MovieStatsBuffer movieStatsBuffer = new MovieStatsBuffer(movieBusiness, writeBufferConfig);
+        movieStatsBuffer.registerMetrics(environment.metrics());
+        environment.lifecycle().manage(movieStatsBuffer);
+        return movieStatsBuffer;
     }
 
-    private void createTablesIfNeeded(BasicDataSource dataSource) throws SQLException {
-        Connection dbConnection = dataSource.getConnection();
-        MovieDAO movieDAO = new MovieDAO();
-        movieDAO.createTableIfNotExists(dbConnection);
+    /**
+     * Not managed when changes are kept forever.
+     */
+    private void manageMovieChangeLogPruner(ChangeLogConfig changeLogConfig, MovieBusiness movieBusiness, Environment environment) {
+        if (changeLogConfig.getRetentionInMillis() <= 0) {
+            return;
+        }
+        MovieChangeLogPruner movieChangeLogPruner = new MovieChangeLogPruner(movieBusiness, changeLogConfig);
+        movieChangeLogPruner.registerMetrics(environment.metrics());
+        environment.lifecycle().manage(movieChangeLogPruner);
     }
 
-    private MovieResource getMovieResource(BasicDataSource dataSource) {
-        MovieDAO movieDAO = new MovieDAO();
-        MovieBusiness movieBusiness = new MovieBusiness(dataSource, movieDAO);
-        MovieResource movieResource = new MovieResource(movieBusiness);
+    private MovieResource getMovieResource(MoviesConfig moviesConfig, BasicDataSource dataSource, ReplicaRouter replicaRouter,
+            MovieDAO movieDAO, MovieCache movieCache, ObjectMapper objectMapper, Environment environment) {
+        SearchConfig searchConfig = moviesConfig.getSearchConfig();
+        MovieColumnIndex movieColumnIndex = searchConfig.isColumnIndexEnabled()
+                ? new MovieColumnIndex(searchConfig.getParallelism(), searchConfig.getParallelThresholdInRows()) : null;
+        MovieBusiness movieBusiness = new MovieBusiness(dataSource, movieDAO, movieCache, new MovieSearchIndex(), movieColumnIndex,
+                replicaRouter);
+        movieBusiness.buildSearchIndex();
+        AsyncConfig asyncConfig = moviesConfig.getAsyncConfig();
+        RequestExecutor lookupExecutor = getRequestExecutor("lookups", asyncConfig, asyncConfig.getLookupThreads(), environment);
+        RequestExecutor queryExecutor = getRequestExecutor("queries", asyncConfig, asyncConfig.getQueryThreads(), environment);
+        MovieStatsBuffer movieStatsBuffer = getMovieStatsBuffer(moviesConfig.getWriteBufferConfig(), movieBusiness, environment);
+        manageMovieChangeLogPruner(moviesConfig.getChangeLogConfig(), movieBusiness, environment);
+        MovieResource movieResource = new MovieResource(movieBusiness, objectMapper, lookupExecutor, queryExecutor, movieStatsBuffer);
+        movieResource.registerMetrics(environment.metrics());
         return movieResource;
     }
 
@@ -92,13 +214,26 @@ public class Movies extends Application<MoviesConfig> {
         addCORSSupport(environment);
 
         // Configure Jackson serialization and deserialization.
-        configureJackson(environment);
+        ObjectMapper objectMapper = configureJackson(environment);
+        addSmileSupport(environment);
 
         // Get initialized data source.
-        BasicDataSource dataSource = getInitializedDataSource(moviesConfig.getSqlConfig());
-        createTablesIfNeeded(dataSource);
-
-        MovieResource movieResource = getMovieResource(dataSource);
+        SQLConfig sqlConfig = moviesConfig.getSqlConfig();
+        BasicDataSource dataSource = getInitializedDataSource(sqlConfig, environment);
+        QueryLogger queryLogger = new QueryLogger(moviesConfig.getQueryLogConfig());
+        queryLogger.registerMetrics(environment.metrics());
+        environment.lifecycle().manage(queryLogger);
+        MovieDAO movieDAO = new MovieDAO(sqlConfig.getBatchSize(), sqlConfig.getFetchSize(), queryLogger);
+        createTablesIfNeeded(dataSource, movieDAO);
+
+        // Route movie reads to the read replicas, if any.
+        ReplicaRouter replicaRouter = getReplicaRouter(sqlConfig, dataSource, environment);
+
+        // Cache movies by imdbId in front of the DB.
+        MovieCache movieCache = getMovieCache(moviesConfig, environment);
+
+        MovieResource movieResource = getMovieResource(moviesConfig, dataSource, replicaRouter, movieDAO, movieCache,
+                objectMapper, environment);
         environment.jersey().register(movieResource);
     }
 
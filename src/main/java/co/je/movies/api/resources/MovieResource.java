@@ -1,85 +1,685 @@
 package co.je.movies.api.resources;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.NotNull;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.commons.lang3.StringUtils;
 
 import co.je.movies.domain.business.MovieBusiness;
+import co.je.movies.domain.business.MovieStatsBuffer;
+import co.je.movies.domain.entities.CreationStatus;
 import co.je.movies.domain.entities.Movie;
+import co.je.movies.domain.entities.MovieChangePage;
+import co.je.movies.domain.entities.MovieCreationResult;
+import co.je.movies.domain.entities.MovieField;
+import co.je.movies.domain.entities.MovieLookupResult;
+import co.je.movies.domain.entities.MoviePage;
+import co.je.movies.domain.entities.MovieProjection;
+import co.je.movies.domain.entities.MovieStats;
+import co.je.movies.infrastructure.execution.RequestExecutor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
-import com.codahale.metrics.annotation.Timed;
+import io.dropwizard.jersey.PATCH;
 
+/**
+ * The work of every endpoint runs on a RequestExecutor: single movie lookups
+ * and writes on lookupExecutor, and searches and bulk operations, which may
+ * take longer, on queryExecutor, so they can't starve the former. Each
+ * endpoint is timed until its response is resumed, not just until the
+ * request is suspended, as @Timed would.
+ */
 @Path("/movies")
 @Consumes(MediaType.APPLICATION_JSON)
 @Produces(MediaType.APPLICATION_JSON)
 public class MovieResource {
     
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    // Sent with the answer to every write, and sent back by clients that want to read it right away.
+    public static final String WRITTEN_AT_HEADER = "X-Written-At";
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+    public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+    // Smile is only sent when asked for: JSON has a higher quality for */* clients.
+    private static final String APPLICATION_SMILE_WITH_QUALITY = APPLICATION_SMILE + ";qs=0.5";
+    
+    // Like the answer of Dropwizard to a body that is not valid.
+    private static final int UNPROCESSABLE_ENTITY = 422;
+    
+    public static final int DEFAULT_CHANGES_PAGE_SIZE = 500;
+    public static final long MAX_CHANGES_WAIT_IN_MILLIS = 30000;
+    // A waiting request reads the changes again this often, to see the writes of other instances.
+    private static final long CHANGES_POLL_INTERVAL_IN_MILLIS = 1000;
+    
+    private static final String[] TIMED_METHODS = { "createMovie", "createMovies", "getMoviesByImdbIds", "updateMoviesStats",
+            "getMovieByImdbId", "getMoviesByParams", "streamMoviesByParams", "searchMovies", "getChanges", "updateMovie", "patchMovie",
+            "deleteMovie" };
+    
+    private static final Validator VALIDATOR = Validation.buildDefaultValidatorFactory().getValidator();
+    // The fields of a movie that can't hold null.
+    private static final Set<MovieField> PRIMITIVE_FIELDS = EnumSet.of(MovieField.RUNTIME_IN_MINUTES, MovieField.METASCORE,
+            MovieField.IMDB_VOTES);
+    
     private final MovieBusiness movieBusiness;
+    private final ObjectMapper objectMapper;
+    private final RequestExecutor lookupExecutor;
+    private final RequestExecutor queryExecutor;
+    private final Optional<MovieStatsBuffer> movieStatsBuffer;
+    private final Map<String, Timer> timers = new HashMap<String, Timer>();
+    
+    public MovieResource(MovieBusiness movieBusiness, ObjectMapper objectMapper) {
+        
+        this(movieBusiness, objectMapper, RequestExecutor.direct(), RequestExecutor.direct(), null);
+    }
     
-    public MovieResource(MovieBusiness movieBusiness) {
+    /**
+     * When movieStatsBuffer is null, the stats sent to POST /movies/_stats are
+     * written before answering.
+     */
+    public MovieResource(MovieBusiness movieBusiness, ObjectMapper objectMapper, RequestExecutor lookupExecutor,
+            RequestExecutor queryExecutor, MovieStatsBuffer movieStatsBuffer) {
         
         this.movieBusiness = movieBusiness;
+        this.objectMapper = objectMapper;
+        this.lookupExecutor = lookupExecutor;
+        this.queryExecutor = queryExecutor;
+        this.movieStatsBuffer = Optional.ofNullable(movieStatsBuffer);
+        for (String timedMethod : TIMED_METHODS) {
+            timers.put(timedMethod, new Timer());
+        }
+    }
+
+    /**
+     * Registers the timers of the endpoints, with the names @Timed gave them.
+     */
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        timers.forEach((timedMethod, timer) -> metricRegistry.register(MetricRegistry.name(MovieResource.class, timedMethod), timer));
+    }
+
+    // Times the request until it is resumed, whichever thread resumes it.
+    private void timed(AsyncResponse asyncResponse, String timedMethod) {
+        Timer.Context timerContext = timers.get(timedMethod).time();
+        asyncResponse.register((CompletionCallback) throwable -> timerContext.stop());
+    }
+
+    /**
+     * Tells the client when its write ended. Sent back in WRITTEN_AT_HEADER,
+     * its reads go to the primary until read replicas have surely caught up.
+     */
+    private static ResponseBuilder withWrittenAt(ResponseBuilder responseBuilder) {
+        return responseBuilder.header(WRITTEN_AT_HEADER, System.currentTimeMillis());
     }
 
     @POST
-    @Timed
-    public Response createMovie(@Valid Movie movie) {
-        String imdbId = movieBusiness.createMovie(movie);
-        Map<String, String> stringMessage = new HashMap<String, String>();
-        stringMessage.put("imdbId", imdbId);
-        return Response.status(Status.CREATED).entity(stringMessage).build();
+    public void createMovie(@Suspended AsyncResponse asyncResponse, @Valid Movie movie) {
+        timed(asyncResponse, "createMovie");
+        lookupExecutor.executeWrite(asyncResponse, () -> {
+            String imdbId = movieBusiness.createMovie(movie);
+            Map<String, String> stringMessage = new HashMap<String, String>();
+            stringMessage.put("imdbId", imdbId);
+            return withWrittenAt(Response.status(Status.CREATED).entity(stringMessage)).build();
+        });
+    }
+    
+    /**
+     * Creates every valid movie of the list in a single transaction. The response
+     * holds one result per movie, in the same order: created, duplicated or not
+     * valid (with its constraint violations). With upsert=true the movies that
+     * already exist are replaced and reported as updated instead.
+     */
+    @POST
+    @Path("/bulk")
+    @Consumes({ MediaType.APPLICATION_JSON, APPLICATION_SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, APPLICATION_SMILE_WITH_QUALITY })
+    public void createMovies(@Suspended AsyncResponse asyncResponse, @QueryParam("upsert") boolean upsert,
+            @NotNull List<Movie> movies) {
+        timed(asyncResponse, "createMovies");
+        List<String> readErrors = Collections.nCopies(movies.size(), null);
+        queryExecutor.executeWrite(asyncResponse, () -> createValidMovies(movies, readErrors, upsert));
+    }
+
+    /**
+     * Like createMovies, for a body with one movie per line. A line that is not
+     * a movie is reported as not valid, like a movie that breaks a constraint.
+     */
+    @POST
+    @Path("/bulk")
+    @Consumes(APPLICATION_NDJSON)
+    @Produces({ MediaType.APPLICATION_JSON, APPLICATION_SMILE_WITH_QUALITY })
+    public void createMoviesFromLines(@Suspended AsyncResponse asyncResponse, @QueryParam("upsert") boolean upsert,
+            InputStream body) throws IOException {
+        timed(asyncResponse, "createMovies");
+        List<Movie> movies = new ArrayList<Movie>();
+        List<String> readErrors = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+            try {
+                movies.add(objectMapper.readValue(line, Movie.class));
+                readErrors.add(null);
+            } catch (JsonProcessingException e) {
+                movies.add(null);
+                readErrors.add("movie is not valid JSON: " + e.getOriginalMessage());
+            }
+        }
+        queryExecutor.executeWrite(asyncResponse, () -> createValidMovies(movies, readErrors, upsert));
+    }
+
+    // readErrors holds, for each movie, why it could not be read, or null.
+    private Response createValidMovies(List<Movie> movies, List<String> readErrors, boolean upsert) {
+        List<List<String>> errorsPerMovie = new ArrayList<List<String>>(movies.size());
+        List<Movie> validMovies = new ArrayList<Movie>(movies.size());
+        for (int i = 0; i < movies.size(); i++) {
+            Movie movie = movies.get(i);
+            if (movie == null) {
+                String readError = readErrors.get(i);
+                errorsPerMovie.add(Collections.singletonList((readError != null) ? readError : "movie may not be null"));
+                continue;
+            }
+            Set<ConstraintViolation<Movie>> violations = VALIDATOR.validate(movie);
+            List<String> errors = violations.stream()
+                    .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.toList());
+            errorsPerMovie.add(errors);
+            if (errors.isEmpty()) {
+                validMovies.add(movie);
+            }
+        }
+
+        List<MovieCreationResult> validMovieResults = upsert ? movieBusiness.upsertMovies(validMovies)
+                : movieBusiness.createMovies(validMovies);
+        Iterator<MovieCreationResult> creationResults = validMovieResults.iterator();
+        List<MovieCreationResult> results = new ArrayList<MovieCreationResult>(movies.size());
+        for (int i = 0; i < movies.size(); i++) {
+            List<String> errors = errorsPerMovie.get(i);
+            Movie movie = movies.get(i);
+            MovieCreationResult result = (movie != null && errors.isEmpty()) ? creationResults.next()
+                    : new MovieCreationResult((movie != null) ? movie.getImdbId() : null, CreationStatus.NOT_VALID, errors);
+            results.add(result);
+        }
+        return withWrittenAt(Response.status(Status.OK).entity(results)).build();
+    }
+    
+    /**
+     * Returns the movies with the given imdbIds, in the same order, and the
+     * imdbIds that were not found, reading all of them in one DB round trip.
+     * At most MovieBusiness.MAX_PAGE_SIZE imdbIds can be requested at once.
+     * Like getMovieByImdbId, it reads from a read replica unless the
+     * WRITTEN_AT_HEADER tells the client wrote too recently.
+     */
+    @POST
+    @Path("/_mget")
+    @Consumes({ MediaType.APPLICATION_JSON, APPLICATION_SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, APPLICATION_SMILE_WITH_QUALITY })
+    public void getMoviesByImdbIds(@Suspended AsyncResponse asyncResponse, @NotNull List<String> imdbIds,
+            @HeaderParam(WRITTEN_AT_HEADER) Long writtenAtInMillis) {
+        timed(asyncResponse, "getMoviesByImdbIds");
+        if (imdbIds.size() > MovieBusiness.MAX_PAGE_SIZE) {
+            Map<String, String> stringMessage = new HashMap<String, String>();
+            stringMessage.put("error", "At most " + MovieBusiness.MAX_PAGE_SIZE + " imdbIds can be requested at once.");
+            asyncResponse.resume(Response.status(Status.BAD_REQUEST).entity(stringMessage).build());
+            return;
+        }
+        long clientWrittenAtInMillis = Objects.isNull(writtenAtInMillis) ? 0 : writtenAtInMillis;
+        queryExecutor.execute(asyncResponse, () -> {
+            List<Movie> movies = movieBusiness.getMoviesByImdbIds(imdbIds, clientWrittenAtInMillis);
+            Set<String> foundImdbIds = movies.stream().map(Movie::getImdbId).collect(Collectors.toSet());
+            List<String> missingImdbIds = imdbIds.stream()
+                    .distinct()
+                    .filter(imdbId -> !foundImdbIds.contains(imdbId))
+                    .collect(Collectors.toList());
+            return Response.status(Status.OK).entity(new MovieLookupResult(movies, missingImdbIds)).build();
+        });
+    }
+    
+    /**
+     * Takes new metascores, IMDB ratings and IMDB votes, meant for frequent
+     * updates of many movies. They are buffered and written in batches a bit
+     * later, so the answer is 202 Accepted. The stats of unknown movies are
+     * dropped. If the buffer is full, the answer is 503 with the imdbIds whose
+     * stats were not taken.
+     */
+    @POST
+    @Path("/_stats")
+    @Consumes({ MediaType.APPLICATION_JSON, APPLICATION_SMILE })
+    public void updateMoviesStats(@Suspended AsyncResponse asyncResponse, @NotNull @Valid List<MovieStats> moviesStats) {
+        timed(asyncResponse, "updateMoviesStats");
+        if (!movieStatsBuffer.isPresent()) {
+            queryExecutor.executeWrite(asyncResponse, () -> {
+                movieBusiness.updateMoviesStats(moviesStats);
+                return Response.status(Status.ACCEPTED).build();
+            });
+            return;
+        }
+        lookupExecutor.executeWrite(asyncResponse, () -> {
+            List<String> rejectedImdbIds = moviesStats.stream()
+                    .filter(movieStats -> !movieStatsBuffer.get().offer(movieStats))
+                    .map(MovieStats::getImdbId)
+                    .collect(Collectors.toList());
+            if (rejectedImdbIds.isEmpty()) {
+                return Response.status(Status.ACCEPTED).build();
+            }
+            Map<String, List<String>> rejectedMessage = new HashMap<String, List<String>>();
+            rejectedMessage.put("rejectedImdbIds", rejectedImdbIds);
+            return Response.status(Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, 1).entity(rejectedMessage).build();
+        });
     }
     
+    /**
+     * True if If-None-Match lists the given entity tag or, when there is no
+     * If-None-Match, if nothing changed after If-Modified-Since.
+     */
+    private static boolean isNotModified(String ifNoneMatch, Date ifModifiedSince, EntityTag eTag, Optional<Date> lastModified) {
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String candidateTag = StringUtils.removeStart(candidate.trim(), "W/");
+                if (candidateTag.equals("*") || candidateTag.equals(eTag.toString())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        // HTTP dates have no milliseconds.
+        return ifModifiedSince != null && lastModified.isPresent()
+                && lastModified.get().getTime() / 1000 <= ifModifiedSince.getTime() / 1000;
+    }
+
+    private static EntityTag getMovieEntityTag(Movie movie) {
+        return new EntityTag(movie.getVersion() + "-" + movie.getLastModifiedInMillis());
+    }
+
+    /**
+     * Answers with the movie, its ETag and Last-Modified headers, or with 304 Not
+     * Modified and no body if the client already has this version of it. A
+     * client sending back the WRITTEN_AT_HEADER of its last write reads it.
+     */
     @GET
-    @Timed
     @Path("/{imdbId}")
-    public Response getMovieByImdbId(@PathParam("imdbId") String imdbId) {
-        Optional<Movie> optionalMovie = movieBusiness.getMovieByImdbId(imdbId);
-        Status statusCode = optionalMovie.isPresent() ? Status.OK : Status.NOT_FOUND;
-        return Response.status(statusCode).entity(optionalMovie).build();
+    @Produces({ MediaType.APPLICATION_JSON, APPLICATION_SMILE_WITH_QUALITY })
+    public void getMovieByImdbId(@Suspended AsyncResponse asyncResponse, @PathParam("imdbId") String imdbId,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch, @HeaderParam(HttpHeaders.IF_MODIFIED_SINCE) Date ifModifiedSince,
+            @HeaderParam(WRITTEN_AT_HEADER) Long writtenAtInMillis) {
+        timed(asyncResponse, "getMovieByImdbId");
+        lookupExecutor.execute(asyncResponse, () -> {
+            long clientWrittenAtInMillis = Objects.isNull(writtenAtInMillis) ? 0 : writtenAtInMillis;
+            Optional<Movie> optionalMovie = movieBusiness.getMovieByImdbId(imdbId, clientWrittenAtInMillis);
+            if (!optionalMovie.isPresent()) {
+                return Response.status(Status.NOT_FOUND).entity(optionalMovie).build();
+            }
+            Movie movie = optionalMovie.get();
+            EntityTag eTag = getMovieEntityTag(movie);
+            Date lastModified = new Date(movie.getLastModifiedInMillis());
+            ResponseBuilder responseBuilder = isNotModified(ifNoneMatch, ifModifiedSince, eTag, Optional.of(lastModified))
+                    ? Response.notModified() : Response.status(Status.OK).entity(optionalMovie);
+            return responseBuilder.tag(eTag).lastModified(lastModified).build();
+        });
     }
     
+    /**
+     * Returns one page of movies ordered by imdbId. If there are more movies,
+     * the opaque cursor to request the next page is sent in the NEXT_CURSOR_HEADER.
+     * Its ETag is the collection version, so it is answered with 304 Not
+     * Modified, without searching, until a movie is written: the seq of the
+     * last stored change when searching the DB, or the version of the column
+     * index of this instance when there is one. With fields, a
+     * comma separated list of field names, only those fields (and imdbId) are
+     * read and sent. Like getMovieByImdbId, it reads from a read replica unless
+     * the WRITTEN_AT_HEADER tells the client wrote too recently.
+     */
     @GET
-    @Timed
-    public Response getMoviesByParams(@QueryParam("title") String title, @QueryParam("runtimeInMinutes") int runtimeInMinutes,
-            @QueryParam("metascore") int metascore, @QueryParam("imdbRating") BigDecimal imdbRating, @QueryParam("imdbVotes") long imdbVotes) {
-        List<Movie> movies = movieBusiness.getMoviesByParams(title, runtimeInMinutes, metascore, imdbRating, imdbVotes);
-        return Response.status(Status.OK).entity(movies).build();
+    @Produces({ MediaType.APPLICATION_JSON, APPLICATION_SMILE_WITH_QUALITY })
+    public void getMoviesByParams(@Suspended AsyncResponse asyncResponse, @QueryParam("title") String title,
+            @QueryParam("runtimeInMinutes") int runtimeInMinutes, @QueryParam("metascore") int metascore,
+            @QueryParam("imdbRating") @DecimalMin(Movie.MIN_IMDB_RATING) @DecimalMax(Movie.MAX_IMDB_RATING) BigDecimal imdbRating,
+            @QueryParam("imdbVotes") long imdbVotes,
+            @QueryParam("cursor") String cursor, @QueryParam("limit") Integer limit, @QueryParam("fields") String fields,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch, @HeaderParam(WRITTEN_AT_HEADER) Long writtenAtInMillis) {
+        timed(asyncResponse, "getMoviesByParams");
+        String afterImdbId = null;
+        try {
+            afterImdbId = StringUtils.isBlank(cursor) ? null : decodeCursor(cursor);
+        } catch (IllegalArgumentException e) {
+            Map<String, String> stringMessage = new HashMap<String, String>();
+            stringMessage.put("error", "The cursor is not valid.");
+            asyncResponse.resume(Response.status(Status.BAD_REQUEST).entity(stringMessage).build());
+            return;
+        }
+        Optional<Set<MovieField>> movieFields;
+        try {
+            movieFields = parseMovieFields(fields);
+        } catch (IllegalArgumentException e) {
+            asyncResponse.resume(getBadFieldsResponse(e));
+            return;
+        }
+        String pageAfterImdbId = afterImdbId;
+        int pageSize = Objects.isNull(limit) ? MovieBusiness.DEFAULT_PAGE_SIZE : limit;
+        long clientWrittenAtInMillis = Objects.isNull(writtenAtInMillis) ? 0 : writtenAtInMillis;
+        queryExecutor.execute(asyncResponse, () -> {
+            EntityTag collectionETag = new EntityTag(movieBusiness.getCollectionVersion(clientWrittenAtInMillis));
+            if (isNotModified(ifNoneMatch, null, collectionETag, Optional.empty())) {
+                return Response.notModified(collectionETag).build();
+            }
+            MoviePage moviePage = movieBusiness.getMoviesByParams(title, runtimeInMinutes, metascore, imdbRating, imdbVotes,
+                    pageAfterImdbId, pageSize, movieFields.orElse(EnumSet.allOf(MovieField.class)), clientWrittenAtInMillis);
+            Object entity = movieFields.isPresent() ? toMovieProjections(moviePage.getMovies(), movieFields.get())
+                    : moviePage.getMovies();
+            // The version read with the page, which may be newer than the one just checked.
+            EntityTag eTag = new EntityTag(moviePage.getCollectionVersion());
+            ResponseBuilder responseBuilder = Response.status(Status.OK).entity(entity).tag(eTag);
+            moviePage.getLastImdbId().ifPresent(lastImdbId -> responseBuilder.header(NEXT_CURSOR_HEADER, encodeCursor(lastImdbId)));
+            return responseBuilder.build();
+        });
+    }
+
+    /**
+     * Writes every movie matching the given params as newline delimited JSON,
+     * one movie per line, while the DB result set is being read. Selected with
+     * Accept: application/x-ndjson. The response is written by the thread of
+     * queryExecutor that resumes it. fields and the WRITTEN_AT_HEADER work as
+     * in getMoviesByParams.
+     */
+    @GET
+    @Produces(APPLICATION_NDJSON)
+    public void streamMoviesByParams(@Suspended AsyncResponse asyncResponse, @QueryParam("title") String title,
+            @QueryParam("runtimeInMinutes") int runtimeInMinutes, @QueryParam("metascore") int metascore,
+            @QueryParam("imdbRating") @DecimalMin(Movie.MIN_IMDB_RATING) @DecimalMax(Movie.MAX_IMDB_RATING) BigDecimal imdbRating,
+            @QueryParam("imdbVotes") long imdbVotes,
+            @QueryParam("fields") String fields, @HeaderParam(WRITTEN_AT_HEADER) Long writtenAtInMillis) {
+        timed(asyncResponse, "streamMoviesByParams");
+        Optional<Set<MovieField>> movieFields;
+        try {
+            movieFields = parseMovieFields(fields);
+        } catch (IllegalArgumentException e) {
+            asyncResponse.resume(getBadFieldsResponse(e));
+            return;
+        }
+        long clientWrittenAtInMillis = Objects.isNull(writtenAtInMillis) ? 0 : writtenAtInMillis;
+        StreamingOutput streamingOutput = output -> {
+            ObjectWriter movieWriter = objectMapper.writerFor(movieFields.isPresent() ? MovieProjection.class : Movie.class)
+                    .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            Set<MovieField> streamedFields = movieFields.orElse(EnumSet.allOf(MovieField.class));
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(output);
+            generator.setRootValueSeparator(null);
+            try {
+                movieBusiness.streamMoviesByParams(title, runtimeInMinutes, metascore, imdbRating, imdbVotes, streamedFields,
+                        clientWrittenAtInMillis, movie -> {
+                    try {
+                        movieWriter.writeValue(generator, movieFields.isPresent() ? new MovieProjection(movie, streamedFields) : movie);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                generator.flush();
+            }
+        };
+        queryExecutor.execute(asyncResponse, () -> Response.status(Status.OK).entity(streamingOutput).build());
+    }
+
+    /**
+     * Returns the fields named in the fields param, or empty if it is blank
+     * and whole movies must be sent.
+     * 
+     * @throws IllegalArgumentException if a name is not the one of a field.
+     */
+    private static Optional<Set<MovieField>> parseMovieFields(String fields) {
+        return StringUtils.isBlank(fields) ? Optional.empty() : Optional.of(MovieField.createMovieFieldsFromPlainNames(fields));
+    }
+
+    private static Response getBadFieldsResponse(IllegalArgumentException e) {
+        Map<String, String> stringMessage = new HashMap<String, String>();
+        stringMessage.put("error", e.getMessage());
+        return Response.status(Status.BAD_REQUEST).entity(stringMessage).build();
+    }
+
+    private static List<MovieProjection> toMovieProjections(List<Movie> movies, Set<MovieField> movieFields) {
+        return movies.stream().map(movie -> new MovieProjection(movie, movieFields)).collect(Collectors.toList());
+    }
+
+    private static String encodeCursor(String imdbId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(imdbId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Its ETag is the version of the search indexes of this instance, read
+     * before searching. It reads from a read replica like getMoviesByParams.
+     */
+    @GET
+    @Path("/search")
+    @Produces({ MediaType.APPLICATION_JSON, APPLICATION_SMILE_WITH_QUALITY })
+    public void searchMovies(@Suspended AsyncResponse asyncResponse, @QueryParam("q") String query,
+            @QueryParam("limit") Integer limit, @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+            @HeaderParam(WRITTEN_AT_HEADER) Long writtenAtInMillis) {
+        timed(asyncResponse, "searchMovies");
+        int pageSize = Objects.isNull(limit) ? MovieBusiness.DEFAULT_PAGE_SIZE : limit;
+        long clientWrittenAtInMillis = Objects.isNull(writtenAtInMillis) ? 0 : writtenAtInMillis;
+        queryExecutor.execute(asyncResponse, () -> {
+            EntityTag eTag = new EntityTag(movieBusiness.getIndexVersion());
+            if (isNotModified(ifNoneMatch, null, eTag, Optional.empty())) {
+                return Response.notModified(eTag).build();
+            }
+            List<Movie> movies = movieBusiness.searchMovies(query, pageSize, clientWrittenAtInMillis);
+            return Response.status(Status.OK).entity(movies).tag(eTag).build();
+        });
+    }
+    
+    /**
+     * Returns the changes committed after the one with seq since, oldest
+     * first. When there are none yet, it waits up to waitInMillis (at most
+     * MAX_CHANGES_WAIT_IN_MILLIS) for a write before answering. It is woken
+     * right away by the writes of this instance only; the ones of other
+     * instances are seen within CHANGES_POLL_INTERVAL_IN_MILLIS. Answers 410,
+     * with the last seq, if some of those changes were pruned.
+     */
+    @GET
+    @Path("/changes")
+    @Produces({ MediaType.APPLICATION_JSON, APPLICATION_SMILE_WITH_QUALITY })
+    public void getChanges(@Suspended AsyncResponse asyncResponse, @QueryParam("since") Long since,
+            @QueryParam("limit") Integer limit, @QueryParam("waitInMillis") Long waitInMillis) {
+        timed(asyncResponse, "getChanges");
+        long afterSeq = Objects.isNull(since) ? 0 : since;
+        int pageSize = Objects.isNull(limit) ? DEFAULT_CHANGES_PAGE_SIZE : limit;
+        long waitForInMillis = Objects.isNull(waitInMillis) ? 0 : Math.max(0, Math.min(waitInMillis, MAX_CHANGES_WAIT_IN_MILLIS));
+        long deadlineInMillis = System.currentTimeMillis() + waitForInMillis;
+        // The same waiter for every read of this request, removed once it is answered, however it is.
+        Runnable changeWaiter = new Runnable() {
+            @Override
+            public void run() {
+                pollChanges(asyncResponse, afterSeq, pageSize, deadlineInMillis, this);
+            }
+        };
+        asyncResponse.register((CompletionCallback) throwable -> movieBusiness.removeChangeWaiter(changeWaiter));
+        pollChanges(asyncResponse, afterSeq, pageSize, deadlineInMillis, changeWaiter);
     }
     
+    /**
+     * Reads the changes on queryExecutor. If there are none and the deadline has
+     * not passed, leaves the request suspended and reads them again after the
+     * next write of this instance, after CHANGES_POLL_INTERVAL_IN_MILLIS or at
+     * the deadline, whichever comes first. No thread waits.
+     */
+    private void pollChanges(AsyncResponse asyncResponse, long afterSeq, int pageSize, long deadlineInMillis,
+            Runnable changeWaiter) {
+        // Added before reading, so a change committed while reading is not missed.
+        movieBusiness.addChangeWaiter(changeWaiter);
+        // Already answered by the other of the two ways of waking up.
+        if (asyncResponse.isDone()) {
+            movieBusiness.removeChangeWaiter(changeWaiter);
+            return;
+        }
+        queryExecutor.executeOrWait(asyncResponse, () -> {
+            Optional<MovieChangePage> optionalChangePage = movieBusiness.getChanges(afterSeq, pageSize);
+            if (!optionalChangePage.isPresent()) {
+                return Optional.of(getChangesGoneResponse());
+            }
+            MovieChangePage changePage = optionalChangePage.get();
+            long waitLeftInMillis = deadlineInMillis - System.currentTimeMillis();
+            if (!changePage.getChanges().isEmpty() || waitLeftInMillis <= 0) {
+                return Optional.of(Response.status(Status.OK).entity(changePage).build());
+            }
+            asyncResponse.setTimeoutHandler(timedOutResponse -> pollChanges(timedOutResponse, afterSeq, pageSize, deadlineInMillis,
+                    changeWaiter));
+            asyncResponse.setTimeout(Math.min(waitLeftInMillis, CHANGES_POLL_INTERVAL_IN_MILLIS), TimeUnit.MILLISECONDS);
+            return Optional.empty();
+        });
+    }
+    
+    /**
+     * The changes asked for were pruned: the client must read every movie
+     * again, and then ask for the changes after lastSeq.
+     */
+    private Response getChangesGoneResponse() {
+        Map<String, Object> message = new HashMap<String, Object>();
+        message.put("error", "Some of the changes asked for were pruned, read every movie again.");
+        message.put("lastSeq", movieBusiness.getLastChangeSeq());
+        return Response.status(Status.GONE).entity(message).build();
+    }
+    
+    /**
+     * Replaces the stored movie, or answers 404 if there is none. With
+     * upsert=true a missing movie is created instead, and answered with 201.
+     */
     @PUT
-    @Timed
     @Path("/{imdbId}")
-    public Response updateMovie(@PathParam("imdbId") String imdbId, @Valid Movie movieToUpdate) {
-        Optional<Movie> optionalUpdatedMovie = movieBusiness.updateMovie(imdbId, movieToUpdate);
-        Status statusCode = optionalUpdatedMovie.isPresent() ? Status.OK : Status.NOT_FOUND;
-        return Response.status(statusCode).entity(optionalUpdatedMovie).build();
+    public void updateMovie(@Suspended AsyncResponse asyncResponse, @PathParam("imdbId") String imdbId,
+            @QueryParam("upsert") boolean upsert, @Valid Movie movieToUpdate) {
+        timed(asyncResponse, "updateMovie");
+        lookupExecutor.executeWrite(asyncResponse, () -> {
+            if (upsert) {
+                Movie upsertedMovie = movieBusiness.upsertMovie(imdbId, movieToUpdate);
+                Status statusCode = (upsertedMovie.getVersion() == 1) ? Status.CREATED : Status.OK;
+                return withWrittenAt(Response.status(statusCode).entity(upsertedMovie).tag(getMovieEntityTag(upsertedMovie))).build();
+            }
+            Optional<Movie> optionalUpdatedMovie = movieBusiness.updateMovie(imdbId, movieToUpdate);
+            Status statusCode = optionalUpdatedMovie.isPresent() ? Status.OK : Status.NOT_FOUND;
+            return withWrittenAt(Response.status(statusCode).entity(optionalUpdatedMovie)).build();
+        });
+    }
+    
+    /**
+     * Changes only the fields present in the body, writing only their columns,
+     * and returns the whole patched movie. The imdbId can't be changed.
+     */
+    @PATCH
+    @Path("/{imdbId}")
+    public void patchMovie(@Suspended AsyncResponse asyncResponse, @PathParam("imdbId") String imdbId,
+            @NotNull ObjectNode changes) {
+        timed(asyncResponse, "patchMovie");
+        Set<MovieField> changedFields = EnumSet.noneOf(MovieField.class);
+        Movie movieChanges;
+        try {
+            changes.fieldNames().forEachRemaining(fieldName -> changedFields.add(MovieField.createMovieFieldFromPlainName(fieldName)));
+            if (changedFields.isEmpty() || changedFields.contains(MovieField.IMDB_ID)) {
+                throw new IllegalArgumentException("The body must have the fields to change, which can't include imdbId.");
+            }
+            movieChanges = objectMapper.treeToValue(changes, Movie.class);
+        } catch (IllegalArgumentException | JsonProcessingException e) {
+            Map<String, String> stringMessage = new HashMap<String, String>();
+            stringMessage.put("error", e.getMessage());
+            asyncResponse.resume(Response.status(Status.BAD_REQUEST).entity(stringMessage).build());
+            return;
+        }
+        List<String> errors = changedFields.stream()
+                .flatMap(changedField -> VALIDATOR.validateProperty(movieChanges, changedField.getPlainName()).stream())
+                .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                .sorted()
+                .collect(Collectors.toList());
+        if (changedFields.contains(MovieField.FILM_RATING) && movieChanges.getFilmRating() == null) {
+            errors.add("filmRating may not be null");
+        }
+        // Jackson reads null as 0 for them.
+        for (MovieField primitiveField : PRIMITIVE_FIELDS) {
+            if (changedFields.contains(primitiveField) && changes.get(primitiveField.getPlainName()).isNull()) {
+                errors.add(primitiveField.getPlainName() + " may not be null");
+            }
+        }
+        if (!errors.isEmpty()) {
+            Map<String, List<String>> errorsMessage = new HashMap<String, List<String>>();
+            errorsMessage.put("errors", errors);
+            asyncResponse.resume(Response.status(UNPROCESSABLE_ENTITY).entity(errorsMessage).build());
+            return;
+        }
+        lookupExecutor.executeWrite(asyncResponse, () -> {
+            Optional<Movie> optionalPatchedMovie = movieBusiness.patchMovie(imdbId, movieChanges, changedFields);
+            Status statusCode = optionalPatchedMovie.isPresent() ? Status.OK : Status.NOT_FOUND;
+            return withWrittenAt(Response.status(statusCode).entity(optionalPatchedMovie)).build();
+        });
     }
     
     @DELETE
-    @Timed
     @Path("/{imdbId}")
-    public Response deleteMovie(@PathParam("imdbId") String imdbId) {
-        boolean movieWasDeleted = movieBusiness.deleteMovie(imdbId);
-        Status statusCode = movieWasDeleted ? Status.OK : Status.NOT_FOUND;
-        Map<String, Boolean> booleanMessage = new HashMap<String, Boolean>();
-        booleanMessage.put("The movie was deleted?", movieWasDeleted);
-        return Response.status(statusCode).entity(booleanMessage).build();
+    public void deleteMovie(@Suspended AsyncResponse asyncResponse, @PathParam("imdbId") String imdbId) {
+        timed(asyncResponse, "deleteMovie");
+        lookupExecutor.executeWrite(asyncResponse, () -> {
+            boolean movieWasDeleted = movieBusiness.deleteMovie(imdbId);
+            Status statusCode = movieWasDeleted ? Status.OK : Status.NOT_FOUND;
+            Map<String, Boolean> booleanMessage = new HashMap<String, Boolean>();
+            booleanMessage.put("The movie was deleted?", movieWasDeleted);
+            return withWrittenAt(Response.status(statusCode).entity(booleanMessage)).build();
+        });
     }
 }
\ No newline at end of file
@@ -4,72 +4,714 @@ import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.apache.commons.dbcp2.BasicDataSource;
 
+import co.je.movies.domain.entities.CreationStatus;
 import co.je.movies.domain.entities.Movie;
+import co.je.movies.domain.entities.MovieChange;
+import co.je.movies.domain.entities.MovieChangePage;
+import co.je.movies.domain.entities.MovieCreationResult;
+import co.je.movies.domain.entities.MovieField;
+import co.je.movies.domain.entities.MoviePage;
+import co.je.movies.domain.entities.MovieStats;
+import co.je.movies.domain.search.MovieColumnIndex;
+import co.je.movies.domain.search.MovieSearchIndex;
+import co.je.movies.infrastructure.cache.MovieCache;
+import co.je.movies.infrastructure.datasource.ReplicaRouter;
 import co.je.movies.persistence.daos.MovieDAO;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
+
 public class MovieBusiness {
     
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 500;
+    public static final int MAX_CHANGES_PAGE_SIZE = 1000;
+    private static final int MOVIE_LOCK_STRIPES = 64;
+    private static final long RETRY_PAUSE_IN_MILLIS = 5;
+    private static final long MAX_RETRY_PAUSE_IN_MILLIS = 100;
+    // Movies read from the DB per bulk put into the indexes while building them.
+    private static final int INDEX_BUILD_BATCH_SIZE = 10000;
+    
     private final BasicDataSource dataSource;
+    private final ReplicaRouter replicaRouter;
     private final MovieDAO movieDAO;
+    private final MovieCache movieCache;
+    private final MovieSearchIndex movieSearchIndex;
+    private final Optional<MovieColumnIndex> movieColumnIndex;
+    // Bumped after every update of the indexes, unique to this instance since
+    // the indexes only hold the writes it made.
+    private final String indexId = UUID.randomUUID().toString();
+    private final AtomicLong indexVersion = new AtomicLong();
+    // Updates, patches and deletes of one movie run one at a time, so a patch
+    // merges its changes into the last written version of the movie.
+    private final Striped<Lock> movieLocks = Striped.lock(MOVIE_LOCK_STRIPES);
+    // imdbIds written during the last read your writes window, read from the primary when not cached.
+    private final Optional<Cache<String, Boolean>> recentlyWrittenImdbIds;
+    // Run once, and removed, by the next write. A suspended request has at most one here.
+    private final Set<Runnable> changeWaiters = ConcurrentHashMap.newKeySet();
+    
+    public MovieBusiness(BasicDataSource dataSource, MovieDAO movieDAO, MovieCache movieCache, MovieSearchIndex movieSearchIndex) {
+        
+        this(dataSource, movieDAO, movieCache, movieSearchIndex, null);
+    }
+    
+    /**
+     * When movieColumnIndex is not null, getMoviesByParams is answered from it
+     * instead of the DB.
+     */
+    public MovieBusiness(BasicDataSource dataSource, MovieDAO movieDAO, MovieCache movieCache, MovieSearchIndex movieSearchIndex,
+            MovieColumnIndex movieColumnIndex) {
+        
+        this(dataSource, movieDAO, movieCache, movieSearchIndex, movieColumnIndex, null);
+    }
     
-    public MovieBusiness(BasicDataSource dataSource, MovieDAO movieDAO) {
+    /**
+     * When replicaRouter is not null, the reads of movies (by imdbId, by
+     * params, streamed or hydrating a search) and of the collection version
+     * go to its replicas. Writes, the reads inside them, the change log and
+     * the index build at startup go to dataSource, the primary.
+     */
+    public MovieBusiness(BasicDataSource dataSource, MovieDAO movieDAO, MovieCache movieCache, MovieSearchIndex movieSearchIndex,
+            MovieColumnIndex movieColumnIndex, ReplicaRouter replicaRouter) {
         
         this.dataSource = dataSource;
+        this.replicaRouter = Objects.isNull(replicaRouter) ? new ReplicaRouter(dataSource, Collections.emptyList(), 0, 0) : replicaRouter;
         this.movieDAO = movieDAO;
+        this.movieCache = movieCache;
+        this.movieSearchIndex = movieSearchIndex;
+        this.movieColumnIndex = Optional.ofNullable(movieColumnIndex);
+        long readYourWritesWindowInMillis = this.replicaRouter.getReadYourWritesWindowInMillis();
+        this.recentlyWrittenImdbIds = (readYourWritesWindowInMillis <= 0) ? Optional.empty()
+                : Optional.of(CacheBuilder.newBuilder().expireAfterWrite(readYourWritesWindowInMillis, TimeUnit.MILLISECONDS)
+                        .<String, Boolean> build());
+    }
+
+    /**
+     * Loads every stored movie into the search indexes. Meant to be called
+     * once, at startup, before serving requests.
+     */
+    public void buildSearchIndex() {
+        try (Connection dbConnection = dataSource.getConnection()) {
+            // The movies come ordered by imdbId, so each batch is appended to the column index.
+            List<Movie> batch = new ArrayList<Movie>(INDEX_BUILD_BATCH_SIZE);
+            movieDAO.streamAllMovies(dbConnection, movie -> {
+                batch.add(movie);
+                if (batch.size() == INDEX_BUILD_BATCH_SIZE) {
+                    putAllInIndexes(batch);
+                    batch.clear();
+                }
+            });
+            putAllInIndexes(batch);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The version of the whole collection, as searched by getMoviesByParams.
+     * Without a column index it is the seq of the last committed change: it is
+     * stored in the DB, so it survives restarts, is the same for every
+     * instance and changes when buffered stats are flushed. It is read from a
+     * replica unless the client wrote too recently, like the movies it stands
+     * for. With a column index it is the one of getIndexVersion. Either way
+     * it is read before the movies, so they can't be older.
+     */
+    public String getCollectionVersion(long writtenAtInMillis) {
+        if (movieColumnIndex.isPresent()) {
+            return getIndexVersion();
+        }
+        ReplicaRouter.Read<String> read = this::getCollectionVersion;
+        try {
+            return replicaRouter.isInReadYourWritesWindow(writtenAtInMillis) ? replicaRouter.readFromPrimary(read)
+                    : replicaRouter.read(read);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String getCollectionVersion(Connection dbConnection) throws SQLException {
+        return Long.toString(movieDAO.getLastChangeSeq(dbConnection));
+    }
+
+    /**
+     * The version of the search indexes of this instance, as the version of
+     * the movies found in them. It changes after they are updated, not when
+     * the write is committed, so it is never newer than what they return.
+     * It is different on every instance, since each one only indexes its own
+     * writes.
+     */
+    public String getIndexVersion() {
+        return indexId + "-" + indexVersion.get();
+    }
+
+    /**
+     * Runs changeWaiter once the next write of this instance ends, on the
+     * writing thread, unless it is removed first. Writes made by other
+     * instances sharing the DB don't run it. Adding it again while it waits
+     * does nothing.
+     */
+    public void addChangeWaiter(Runnable changeWaiter) {
+        changeWaiters.add(changeWaiter);
+    }
+
+    public void removeChangeWaiter(Runnable changeWaiter) {
+        changeWaiters.remove(changeWaiter);
+    }
+
+    int getChangeWaiters() {
+        return changeWaiters.size();
+    }
+
+    // Called once every write ends, even if it failed: waking up a reader for nothing is harmless.
+    private void moviesChanged() {
+        for (Runnable changeWaiter : changeWaiters) {
+            // Only the write removing it runs it.
+            if (changeWaiters.remove(changeWaiter)) {
+                changeWaiter.run();
+            }
+        }
+    }
+
+    /**
+     * Drops the cached copy of a movie just written. Until the read your writes
+     * window ends it is read from the primary, so a replica that has not
+     * caught up yet can't put the old copy back in the cache.
+     */
+    private void movieWritten(String imdbId) {
+        movieCache.invalidate(imdbId);
+        recentlyWrittenImdbIds.ifPresent(imdbIds -> imdbIds.put(imdbId, Boolean.TRUE));
+    }
+
+    private boolean wasRecentlyWritten(String imdbId) {
+        return recentlyWrittenImdbIds.isPresent() && recentlyWrittenImdbIds.get().getIfPresent(imdbId) != null;
+    }
+
+    @FunctionalInterface
+    private interface DBWork<T> {
+        T run(Connection dbConnection) throws SQLException;
+    }
+
+    /**
+     * Runs work in a transaction of the given connection, so the movies it
+     * writes and their entries in the change log are committed together.
+     * Writes of this instance wait in turn for the change seq row. A
+     * transaction conflicting on it with another instance is rolled back and
+     * run again, after a random pause, until MovieDAO.LOCK_WAIT_TIMEOUT_IN_MILLIS
+     * have passed.
+     */
+    private <T> T inTransaction(Connection dbConnection, DBWork<T> work) throws SQLException {
+        long deadlineInMillis = System.currentTimeMillis() + MovieDAO.LOCK_WAIT_TIMEOUT_IN_MILLIS;
+        for (int attempt = 1;; attempt++) {
+            dbConnection.setAutoCommit(false);
+            try {
+                T result = work.run(dbConnection);
+                dbConnection.commit();
+                return result;
+            } catch (SQLException e) {
+                dbConnection.rollback();
+                if (System.currentTimeMillis() >= deadlineInMillis || !MovieDAO.isLockConflict(e)) {
+                    throw e;
+                }
+                movieDAO.releaseChangeSeq();
+                pauseBeforeRetrying(attempt, e);
+            } catch (RuntimeException e) {
+                dbConnection.rollback();
+                throw e;
+            } finally {
+                movieDAO.releaseChangeSeq();
+                dbConnection.setAutoCommit(true);
+            }
+        }
+    }
+
+    // Random, so the writers that conflicted don't meet again, and longer after each attempt, up to a bound.
+    private static void pauseBeforeRetrying(int attempt, SQLException lockConflict) throws SQLException {
+        try {
+            long maxPauseInMillis = Math.min(MAX_RETRY_PAUSE_IN_MILLIS, attempt * RETRY_PAUSE_IN_MILLIS);
+            Thread.sleep(ThreadLocalRandom.current().nextLong(1, 1 + maxPauseInMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw lockConflict;
+        }
+    }
+
+    private void putInIndexes(Movie movie) {
+        movieSearchIndex.put(movie);
+        movieColumnIndex.ifPresent(index -> index.put(movie));
+        indexVersion.incrementAndGet();
+    }
+
+    private void putAllInIndexes(List<Movie> movies) {
+        movies.forEach(movieSearchIndex::put);
+        movieColumnIndex.ifPresent(index -> index.putAll(movies));
+        indexVersion.incrementAndGet();
+    }
+
+    private void removeFromIndexes(String imdbId) {
+        movieSearchIndex.remove(imdbId);
+        movieColumnIndex.ifPresent(index -> index.remove(imdbId));
+        indexVersion.incrementAndGet();
     }
 
     public String createMovie(Movie movie) {
         String imdbId = "";
         try (Connection dbConnection = dataSource.getConnection()) {
-            imdbId = movieDAO.createMovie(dbConnection, movie);
+            imdbId = inTransaction(dbConnection, connection -> movieDAO.createMovie(connection, movie));
+            putInIndexes(movie);
         } catch (SQLException e) {
             throw new IllegalStateException(e);
+        } finally {
+            movieWritten(movie.getImdbId());
+            moviesChanged();
         }
         return imdbId;
     }
 
-    public Optional<Movie> getMovieByImdbId(String imdbId) {
-        Optional<Movie> optionalMovie = Optional.empty();
+    public List<MovieCreationResult> createMovies(List<Movie> movies) {
+        return writeMovies(movies, false);
+    }
+
+    /**
+     * Creates the movies that don't exist and replaces every field of the ones
+     * that do, in a single transaction.
+     */
+    public List<MovieCreationResult> upsertMovies(List<Movie> movies) {
+        return writeMovies(movies, true);
+    }
+
+    private List<MovieCreationResult> writeMovies(List<Movie> movies, boolean upsert) {
+        List<MovieCreationResult> results = new ArrayList<MovieCreationResult>();
         try (Connection dbConnection = dataSource.getConnection()) {
-            optionalMovie = movieDAO.getMovieByImdbId(dbConnection, imdbId);
+            results = inTransaction(dbConnection, connection -> upsert ? movieDAO.upsertMovies(connection, movies)
+                    : movieDAO.createMovies(connection, movies));
+            List<Movie> writtenMovies = new ArrayList<Movie>(results.size());
+            for (int i = 0; i < results.size(); i++) {
+                CreationStatus status = results.get(i).getStatus();
+                if (status == CreationStatus.CREATED || status == CreationStatus.UPDATED) {
+                    writtenMovies.add(movies.get(i));
+                }
+            }
+            putAllInIndexes(writtenMovies);
         } catch (SQLException e) {
             throw new IllegalStateException(e);
+        } finally {
+            movies.forEach(movie -> movieWritten(movie.getImdbId()));
+            moviesChanged();
         }
-        return optionalMovie;
+        return results;
     }
 
-    public List<Movie> getMoviesByParams(String title, int runtimeInMinutes, int metascore, BigDecimal imdbRating, long imdbVotes) {
-        List<Movie> movies = new ArrayList<Movie>();
-        try (Connection dbConnection = dataSource.getConnection()) {
-            movies = movieDAO.getMoviesByParams(dbConnection, title, runtimeInMinutes, metascore, imdbRating, imdbVotes);
+    public Optional<Movie> getMovieByImdbId(String imdbId) {
+        return getMovieByImdbId(imdbId, 0);
+    }
+
+    /**
+     * Like getMovieByImdbId, for a client whose last write was at
+     * writtenAtInMillis (0 if unknown): a movie not cached is read from a
+     * replica, unless the client or this instance wrote it too recently.
+     */
+    public Optional<Movie> getMovieByImdbId(String imdbId, long writtenAtInMillis) {
+        boolean fromPrimary = replicaRouter.isInReadYourWritesWindow(writtenAtInMillis) || wasRecentlyWritten(imdbId);
+        return movieCache.get(imdbId, () -> getMovieByImdbIdFromDB(imdbId, fromPrimary));
+    }
+
+    private Optional<Movie> getMovieByImdbIdFromDB(String imdbId, boolean fromPrimary) throws SQLException {
+        ReplicaRouter.Read<Optional<Movie>> read = dbConnection -> movieDAO.getMovieByImdbId(dbConnection, imdbId);
+        return fromPrimary ? replicaRouter.readFromPrimary(read) : replicaRouter.read(read);
+    }
+
+    /**
+     * Returns the stored movies with the given imdbIds, in the same order and
+     * without repeating them, skipping the ones that are not found. The ones
+     * not cached are read from the DB in a single round trip.
+     */
+    public List<Movie> getMoviesByImdbIds(List<String> imdbIds) {
+        return getMoviesByImdbIds(imdbIds, 0);
+    }
+
+    /**
+     * Like getMoviesByImdbIds, for a client whose last write was at
+     * writtenAtInMillis (0 if unknown): the movies not cached are read from a
+     * replica, unless the client or this instance wrote any of them too
+     * recently.
+     */
+    public List<Movie> getMoviesByImdbIds(List<String> imdbIds, long writtenAtInMillis) {
+        Set<String> uniqueImdbIds = new LinkedHashSet<String>(imdbIds);
+        Map<String, Optional<Movie>> optionalMovies = new HashMap<String, Optional<Movie>>(movieCache.getAllPresent(uniqueImdbIds));
+        List<String> notCachedImdbIds = uniqueImdbIds.stream()
+                .filter(imdbId -> !optionalMovies.containsKey(imdbId))
+                .collect(Collectors.toList());
+        if (!notCachedImdbIds.isEmpty()) {
+            Map<String, Long> generations = notCachedImdbIds.stream()
+                    .collect(Collectors.toMap(Function.identity(), movieCache::getGeneration));
+            boolean fromPrimary = replicaRouter.isInReadYourWritesWindow(writtenAtInMillis)
+                    || notCachedImdbIds.stream().anyMatch(this::wasRecentlyWritten);
+            Map<String, Movie> storedMovies = getMoviesByImdbIdsFromDB(notCachedImdbIds, fromPrimary);
+            for (String imdbId : notCachedImdbIds) {
+                Optional<Movie> optionalMovie = Optional.ofNullable(storedMovies.get(imdbId));
+                optionalMovies.put(imdbId, optionalMovie);
+                movieCache.putLoaded(imdbId, optionalMovie, generations.get(imdbId));
+            }
+        }
+        List<Movie> movies = new ArrayList<Movie>(uniqueImdbIds.size());
+        for (String imdbId : uniqueImdbIds) {
+            optionalMovies.get(imdbId).ifPresent(movies::add);
+        }
+        return movies;
+    }
+
+    private Map<String, Movie> getMoviesByImdbIdsFromDB(List<String> imdbIds, boolean fromPrimary) {
+        ReplicaRouter.Read<Map<String, Movie>> read = dbConnection -> movieDAO.getMoviesByImdbIds(dbConnection, imdbIds).stream()
+                .collect(Collectors.toMap(Movie::getImdbId, Function.identity()));
+        try {
+            return fromPrimary ? replicaRouter.readFromPrimary(read) : replicaRouter.read(read);
         } catch (SQLException e) {
             throw new IllegalStateException(e);
         }
-        return movies;
     }
 
-    public Optional<Movie> updateMovie(String imdbId, Movie movieToUpdate) {
-        Optional<Movie> optionalUpdatedMovie = Optional.empty();
-        try (Connection dbConnection = dataSource.getConnection()) {
-            optionalUpdatedMovie = movieDAO.updateMovie(dbConnection, imdbId, movieToUpdate);
+    // The collection version is read on the same connection, so on the same replica, right before the movies.
+    private MoviePage getMoviesByParamsFromDB(String title, int runtimeInMinutes, int metascore, BigDecimal imdbRating,
+            long imdbVotes, String afterImdbId, int pageSize, Set<MovieField> movieFields, boolean fromPrimary) {
+        ReplicaRouter.Read<MoviePage> read = dbConnection -> {
+            String collectionVersion = getCollectionVersion(dbConnection);
+            List<Movie> movies = movieDAO.getMoviesByParams(dbConnection, title, runtimeInMinutes, metascore, imdbRating, imdbVotes,
+                    afterImdbId, pageSize + 1, movieFields);
+            return toMoviePage(movies, pageSize, collectionVersion);
+        };
+        try {
+            return fromPrimary ? replicaRouter.readFromPrimary(read) : replicaRouter.read(read);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // movies has one extra movie when there is a next page.
+    private static MoviePage toMoviePage(List<Movie> movies, int pageSize, String collectionVersion) {
+        boolean hasNextPage = movies.size() > pageSize;
+        List<Movie> pageMovies = hasNextPage ? movies.subList(0, pageSize) : movies;
+        Optional<String> lastImdbId = hasNextPage ? Optional.of(pageMovies.get(pageSize - 1).getImdbId()) : Optional.empty();
+        return new MoviePage(pageMovies, lastImdbId, collectionVersion);
+    }
+
+    /**
+     * Returns one page of the movies matching the given params, filtered by the
+     * column index when there is one, or by the DB otherwise, with the
+     * collection version read before them. The requested limit is bounded to
+     * [1, MAX_PAGE_SIZE].
+     */
+    public MoviePage getMoviesByParams(String title, int runtimeInMinutes, int metascore, BigDecimal imdbRating, long imdbVotes,
+            String afterImdbId, int limit) {
+        return getMoviesByParams(title, runtimeInMinutes, metascore, imdbRating, imdbVotes, afterImdbId, limit,
+                EnumSet.allOf(MovieField.class));
+    }
+
+    /**
+     * Like getMoviesByParams, but the DB only reads the columns of the given
+     * fields. Movies read from the column index and the cache come whole, so
+     * callers must still ignore the fields they did not ask for.
+     */
+    public MoviePage getMoviesByParams(String title, int runtimeInMinutes, int metascore, BigDecimal imdbRating, long imdbVotes,
+            String afterImdbId, int limit, Set<MovieField> movieFields) {
+        return getMoviesByParams(title, runtimeInMinutes, metascore, imdbRating, imdbVotes, afterImdbId, limit, movieFields, 0);
+    }
+
+    /**
+     * Like getMoviesByParams, for a client whose last write was at
+     * writtenAtInMillis (0 if unknown): the DB search runs on a replica
+     * unless the client wrote too recently.
+     */
+    public MoviePage getMoviesByParams(String title, int runtimeInMinutes, int metascore, BigDecimal imdbRating, long imdbVotes,
+            String afterImdbId, int limit, Set<MovieField> movieFields, long writtenAtInMillis) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        if (!movieColumnIndex.isPresent()) {
+            return getMoviesByParamsFromDB(title, runtimeInMinutes, metascore, imdbRating, imdbVotes, afterImdbId, pageSize,
+                    movieFields, replicaRouter.isInReadYourWritesWindow(writtenAtInMillis));
+        }
+        // Read before searching, so the page is at least as new as it.
+        String collectionVersion = getIndexVersion();
+        // Ask for one extra movie to know if there is a next page.
+        List<String> imdbIds = movieColumnIndex.get().search(title, runtimeInMinutes, metascore, imdbRating, imdbVotes, afterImdbId,
+                pageSize + 1);
+        // Paged by the index hits: a hit missing from the DB leaves the page shorter, not the last one.
+        boolean hasNextPage = imdbIds.size() > pageSize;
+        List<String> pageImdbIds = hasNextPage ? imdbIds.subList(0, pageSize) : imdbIds;
+        List<Movie> movies = getMoviesByImdbIds(pageImdbIds, writtenAtInMillis);
+        Optional<String> lastImdbId = hasNextPage ? Optional.of(pageImdbIds.get(pageSize - 1)) : Optional.empty();
+        return new MoviePage(movies, lastImdbId, collectionVersion);
+    }
+
+    /**
+     * Hands every movie matching the given params to movieConsumer while the
+     * result set is being read. The DB connection is held until it finishes.
+     */
+    public void streamMoviesByParams(String title, int runtimeInMinutes, int metascore, BigDecimal imdbRating, long imdbVotes,
+            Consumer<Movie> movieConsumer) {
+        streamMoviesByParams(title, runtimeInMinutes, metascore, imdbRating, imdbVotes, EnumSet.allOf(MovieField.class), movieConsumer);
+    }
+
+    /**
+     * Like streamMoviesByParams, but only reads the columns of the given fields.
+     */
+    public void streamMoviesByParams(String title, int runtimeInMinutes, int metascore, BigDecimal imdbRating, long imdbVotes,
+            Set<MovieField> movieFields, Consumer<Movie> movieConsumer) {
+        streamMoviesByParams(title, runtimeInMinutes, metascore, imdbRating, imdbVotes, movieFields, 0, movieConsumer);
+    }
+
+    /**
+     * Like streamMoviesByParams, for a client whose last write was at
+     * writtenAtInMillis (0 if unknown): the movies are read from a replica
+     * unless the client wrote too recently. Once a movie was
+     * handed to movieConsumer a broken connection fails the stream instead of
+     * moving it to another replica, which would hand the movies again.
+     */
+    public void streamMoviesByParams(String title, int runtimeInMinutes, int metascore, BigDecimal imdbRating, long imdbVotes,
+            Set<MovieField> movieFields, long writtenAtInMillis, Consumer<Movie> movieConsumer) {
+        ReplicaRouter.Read<Void> read = dbConnection -> {
+            AtomicBoolean handedAny = new AtomicBoolean();
+            try {
+                movieDAO.streamMoviesByParams(dbConnection, title, runtimeInMinutes, metascore, imdbRating, imdbVotes, movieFields,
+                        movie -> {
+                            handedAny.set(true);
+                            movieConsumer.accept(movie);
+                        });
+            } catch (SQLException e) {
+                if (handedAny.get()) {
+                    throw new IllegalStateException(e);
+                }
+                throw e;
+            }
+            return null;
+        };
+        try {
+            if (replicaRouter.isInReadYourWritesWindow(writtenAtInMillis)) {
+                replicaRouter.readFromPrimary(read);
+            } else {
+                replicaRouter.read(read);
+            }
         } catch (SQLException e) {
             throw new IllegalStateException(e);
         }
-        return optionalUpdatedMovie;
+    }
+
+    /**
+     * Returns the (at most limit) movies that best match the free text query,
+     * in title, director, genre or plot, most relevant first.
+     */
+    public List<Movie> searchMovies(String query, int limit) {
+        return searchMovies(query, limit, 0);
+    }
+
+    /**
+     * Like searchMovies, with the movies read as in getMoviesByImdbIds for a
+     * client whose last write was at writtenAtInMillis (0 if unknown).
+     */
+    public List<Movie> searchMovies(String query, int limit, long writtenAtInMillis) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        return getMoviesByImdbIds(movieSearchIndex.search(query, pageSize), writtenAtInMillis);
+    }
+
+    /**
+     * Replaces every field of the stored movie. The updated movie is built
+     * from movieToUpdate, not read back from the DB, and is cached.
+     */
+    public Optional<Movie> updateMovie(String imdbId, Movie movieToUpdate) {
+        Lock movieLock = movieLocks.get(imdbId);
+        movieLock.lock();
+        try {
+            Optional<Movie> optionalUpdatedMovie = Optional.empty();
+            try (Connection dbConnection = dataSource.getConnection()) {
+                optionalUpdatedMovie = inTransaction(dbConnection, connection -> movieDAO.updateMovie(connection, imdbId, movieToUpdate));
+                optionalUpdatedMovie.ifPresent(this::putInIndexes);
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                movieWritten(imdbId);
+                moviesChanged();
+            }
+            movieCache.put(imdbId, optionalUpdatedMovie);
+            return optionalUpdatedMovie;
+        } finally {
+            movieLock.unlock();
+        }
+    }
+
+    /**
+     * Creates the movie, with the given imdbId, or replaces every field of the
+     * stored one. The written movie is cached; its version is 1 if it was
+     * created.
+     */
+    public Movie upsertMovie(String imdbId, Movie movie) {
+        Lock movieLock = movieLocks.get(imdbId);
+        movieLock.lock();
+        try {
+            Movie upsertedMovie = null;
+            try (Connection dbConnection = dataSource.getConnection()) {
+                upsertedMovie = inTransaction(dbConnection, connection -> movieDAO.upsertMovie(connection, imdbId, movie));
+                putInIndexes(upsertedMovie);
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                movieWritten(imdbId);
+                moviesChanged();
+            }
+            movieCache.put(imdbId, Optional.of(upsertedMovie));
+            return upsertedMovie;
+        } finally {
+            movieLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces only the changed fields of the stored movie, writing only their
+     * columns. The rest of the movie is read, and its row locked, in the same
+     * transaction, so a patch of another instance can't be overwritten, and
+     * the patched movie is cached and indexed whole without reading it back.
+     */
+    public Optional<Movie> patchMovie(String imdbId, Movie changes, Set<MovieField> changedFields) {
+        Lock movieLock = movieLocks.get(imdbId);
+        movieLock.lock();
+        try {
+            Optional<Movie> optionalPatchedMovie = Optional.empty();
+            try (Connection dbConnection = dataSource.getConnection()) {
+                optionalPatchedMovie = inTransaction(dbConnection, connection -> {
+                    Optional<Movie> optionalStoredMovie = movieDAO.getMovieByImdbIdForUpdate(connection, imdbId);
+                    if (!optionalStoredMovie.isPresent()) {
+                        return Optional.<Movie> empty();
+                    }
+                    Movie patchedMovie = optionalStoredMovie.get().withChanges(changes, changedFields);
+                    return movieDAO.patchMovie(connection, imdbId, patchedMovie, changedFields);
+                });
+                optionalPatchedMovie.ifPresent(this::putInIndexes);
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                movieWritten(imdbId);
+                moviesChanged();
+            }
+            movieCache.put(imdbId, optionalPatchedMovie);
+            return optionalPatchedMovie;
+        } finally {
+            movieLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the given stats in a single transaction, in JDBC batches. Only the
+     * column index holds these fields, so only it is refreshed, with one read
+     * of the updated movies. Returns the number of updated movies.
+     */
+    public int updateMoviesStats(List<MovieStats> moviesStats) {
+        List<String> imdbIds = moviesStats.stream().map(MovieStats::getImdbId).collect(Collectors.toList());
+        // Taken in a fixed order, so they can't deadlock with other batches.
+        Iterable<Lock> movieLocksToTake = movieLocks.bulkGet(imdbIds);
+        movieLocksToTake.forEach(Lock::lock);
+        try {
+            int updatedMovies = 0;
+            try (Connection dbConnection = dataSource.getConnection()) {
+                updatedMovies = inTransaction(dbConnection, connection -> movieDAO.updateMoviesStats(connection, moviesStats));
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                imdbIds.forEach(this::movieWritten);
+                moviesChanged();
+            }
+            if (movieColumnIndex.isPresent()) {
+                getMoviesByImdbIds(imdbIds).forEach(movieColumnIndex.get()::put);
+            }
+            // The movies found in the text index changed too.
+            indexVersion.incrementAndGet();
+            return updatedMovies;
+        } finally {
+            movieLocksToTake.forEach(Lock::unlock);
+        }
     }
 
     public boolean deleteMovie(String imdbId) {
+        Lock movieLock = movieLocks.get(imdbId);
+        movieLock.lock();
         boolean movieWasDeleted = false;
         try (Connection dbConnection = dataSource.getConnection()) {
-            movieWasDeleted = movieDAO.deleteMovie(dbConnection, imdbId);
+            movieWasDeleted = inTransaction(dbConnection, connection -> movieDAO.deleteMovie(connection, imdbId));
+            removeFromIndexes(imdbId);
         } catch (SQLException e) {
             throw new IllegalStateException(e);
+        } finally {
+            movieWritten(imdbId);
+            moviesChanged();
+            movieLock.unlock();
         }
         return movieWasDeleted;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the (at most limit) changes committed after the one with seq
+     * afterSeq, oldest first, or empty if some of them were already pruned:
+     * the caller must then read every movie again. The requested limit is
+     * bounded to [1, MAX_CHANGES_PAGE_SIZE].
+     */
+    public Optional<MovieChangePage> getChanges(long afterSeq, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_CHANGES_PAGE_SIZE));
+        try (Connection dbConnection = dataSource.getConnection()) {
+            // Ask for one extra change to know if there are more.
+            List<MovieChange> changes = movieDAO.getChanges(dbConnection, afterSeq, pageSize + 1);
+            // Read after the changes: if they were pruned meanwhile, this tells.
+            if (afterSeq < movieDAO.getPrunedChangeSeq(dbConnection)) {
+                return Optional.empty();
+            }
+            boolean hasMoreChanges = changes.size() > pageSize;
+            List<MovieChange> pageChanges = hasMoreChanges ? changes.subList(0, pageSize) : changes;
+            long lastSeq = pageChanges.isEmpty() ? afterSeq : pageChanges.get(pageChanges.size() - 1).getSeq();
+            return Optional.of(new MovieChangePage(pageChanges, lastSeq, hasMoreChanges));
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the seq of the last committed change. Changes after it are not
+     * missed by a reader that reads every movie after reading it.
+     */
+    public long getLastChangeSeq() {
+        try (Connection dbConnection = dataSource.getConnection()) {
+            return movieDAO.getLastChangeSeq(dbConnection);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Deletes the changes made before the given time. Returns the number of
+     * deleted changes.
+     */
+    public int pruneChanges(long beforeMillis) {
+        try (Connection dbConnection = dataSource.getConnection()) {
+            return inTransaction(dbConnection, connection -> movieDAO.pruneChanges(connection, beforeMillis));
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
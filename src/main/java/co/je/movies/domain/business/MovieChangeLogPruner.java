@@ -0,0 +1,80 @@
+package co.je.movies.domain.business;
+
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import co.je.movies.infrastructure.config.ChangeLogConfig;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Deletes, every pruneIntervalInMillis, the changes of the change log older
+ * than retentionInMillis, so it doesn't grow forever. Clients that fall
+ * further behind are told to read every movie again.
+ */
+public class MovieChangeLogPruner implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MovieChangeLogPruner.class);
+
+    private final MovieBusiness movieBusiness;
+    private final long retentionInMillis;
+    private final long pruneIntervalInMillis;
+    private final ScheduledExecutorService pruner;
+
+    private final Meter prunedChanges = new Meter();
+    private final Meter failedPrunes = new Meter();
+
+    public MovieChangeLogPruner(MovieBusiness movieBusiness, long retentionInMillis, long pruneIntervalInMillis) {
+
+        this.movieBusiness = movieBusiness;
+        this.retentionInMillis = retentionInMillis;
+        this.pruneIntervalInMillis = Math.max(1, pruneIntervalInMillis);
+        this.pruner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "movies-change-log-pruner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public MovieChangeLogPruner(MovieBusiness movieBusiness, ChangeLogConfig changeLogConfig) {
+
+        this(movieBusiness, changeLogConfig.getRetentionInMillis(), changeLogConfig.getPruneIntervalInMillis());
+    }
+
+    void prune() {
+
+        try {
+            prunedChanges.mark(movieBusiness.pruneChanges(System.currentTimeMillis() - retentionInMillis));
+        } catch (RuntimeException e) {
+            // Keep the schedule: the next prune deletes them.
+            failedPrunes.mark();
+            LOGGER.error("Could not prune the change log", e);
+        }
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+
+        metricRegistry.register(MetricRegistry.name(MovieChangeLogPruner.class, "pruned"), prunedChanges);
+        metricRegistry.register(MetricRegistry.name(MovieChangeLogPruner.class, "failedPrunes"), failedPrunes);
+    }
+
+    @Override
+    public void start() throws Exception {
+
+        pruner.scheduleWithFixedDelay(this::prune, pruneIntervalInMillis, pruneIntervalInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+
+        pruner.shutdown();
+        pruner.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,228 @@
+package co.je.movies.domain.business;
+
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import co.je.movies.domain.entities.MovieStats;
+import co.je.movies.infrastructure.config.WriteBufferConfig;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Write behind buffer for movie stats. Stats offered for a movie that is
+ * already pending are merged into the pending ones, so a movie is written
+ * once per flush however many times it changed. A background thread flushes
+ * every flushIntervalInMillis, or as soon as flushSize movies are pending.
+ *
+ * Offered stats are not durable until flushed: a crash loses at most the
+ * last interval of them. On stop, new stats are refused and every pending
+ * one is flushed before returning. Stats of a failed flush are put back,
+ * under any newer ones, and retried on the next one. Stats of a movie that
+ * failed ONE_BY_ONE_AFTER_FAILURES flushes are written alone, after the
+ * others, so they can't keep failing the movies batched with them. If one
+ * fails alone while another write of the same flush succeeded, the DB is
+ * up and the stats themselves are at fault: they are logged and dropped.
+ */
+public class MovieStatsBuffer implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MovieStatsBuffer.class);
+
+    static final int ONE_BY_ONE_AFTER_FAILURES = 3;
+
+    private final MovieBusiness movieBusiness;
+    private final long flushIntervalInMillis;
+    private final int flushSize;
+    private final int maxPendingMovies;
+    private final Map<String, MovieStats> pendingStats = new ConcurrentHashMap<String, MovieStats>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    // Failed flushes per movie, only touched by the thread flushing.
+    private final Map<String, Integer> failedFlushesByImdbId = new HashMap<String, Integer>();
+    private final ScheduledExecutorService flusher;
+    // Offers hold the read lock while they check stopped and merge, so none is left out of the final flush.
+    private final ReadWriteLock stopLock = new ReentrantReadWriteLock();
+    private boolean stopped = false;
+
+    private final Meter coalescedStats = new Meter();
+    private final Meter rejectedStats = new Meter();
+    private final Meter failedFlushes = new Meter();
+    private final Meter droppedStats = new Meter();
+    private final Timer flushes = new Timer();
+
+    public MovieStatsBuffer(MovieBusiness movieBusiness, long flushIntervalInMillis, int flushSize, int maxPendingMovies) {
+
+        this.movieBusiness = movieBusiness;
+        this.flushIntervalInMillis = Math.max(1, flushIntervalInMillis);
+        this.flushSize = Math.max(1, flushSize);
+        this.maxPendingMovies = Math.max(this.flushSize, maxPendingMovies);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "movies-stats-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public MovieStatsBuffer(MovieBusiness movieBusiness, WriteBufferConfig writeBufferConfig) {
+
+        this(movieBusiness, writeBufferConfig.getFlushIntervalInMillis(), writeBufferConfig.getFlushSize(),
+                writeBufferConfig.getMaxPendingMovies());
+    }
+
+    /**
+     * Buffers the given stats. Returns false, without buffering them, if the
+     * buffer is stopped or maxPendingMovies other movies are already pending.
+     */
+    public boolean offer(MovieStats movieStats) {
+
+        String imdbId = movieStats.getImdbId();
+        stopLock.readLock().lock();
+        try {
+            if (stopped || (pendingStats.size() >= maxPendingMovies && !pendingStats.containsKey(imdbId))) {
+                rejectedStats.mark();
+                return false;
+            }
+
+            pendingStats.merge(imdbId, movieStats, (pending, newer) -> {
+                coalescedStats.mark();
+                return pending.mergedWith(newer);
+            });
+        } finally {
+            stopLock.readLock().unlock();
+        }
+
+        if (pendingStats.size() >= flushSize && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flush);
+            } catch (RuntimeException e) {
+                // Stopping: the final flush writes them.
+                flushRequested.set(false);
+            }
+        }
+        return true;
+    }
+
+    public int getPendingMovies() {
+        return pendingStats.size();
+    }
+
+    /**
+     * Writes every pending stats, flushSize movies per transaction, and then
+     * the ones that failed too often, one per transaction. Runs on the flusher
+     * thread, or on the stopping one once the flusher is done.
+     */
+    void flush() {
+
+        flushRequested.set(false);
+        boolean wroteAny = false;
+        List<MovieStats> suspectStats = new ArrayList<MovieStats>();
+        List<MovieStats> chunk = new ArrayList<MovieStats>(flushSize);
+        for (String imdbId : pendingStats.keySet()) {
+            MovieStats movieStats = pendingStats.remove(imdbId);
+            if (movieStats != null) {
+                boolean suspect = failedFlushesByImdbId.getOrDefault(imdbId, 0) >= ONE_BY_ONE_AFTER_FAILURES;
+                (suspect ? suspectStats : chunk).add(movieStats);
+            }
+            if (chunk.size() == flushSize) {
+                wroteAny |= write(chunk);
+                chunk = new ArrayList<MovieStats>(flushSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            wroteAny |= write(chunk);
+        }
+
+        for (MovieStats movieStats : suspectStats) {
+            List<MovieStats> aloneChunk = new ArrayList<MovieStats>(1);
+            aloneChunk.add(movieStats);
+            if (write(aloneChunk)) {
+                wroteAny = true;
+            } else if (wroteAny) {
+                drop(movieStats);
+            }
+        }
+    }
+
+    // Returns true if the chunk was written, or false if it was put back.
+    private boolean write(List<MovieStats> chunk) {
+
+        try (Timer.Context context = flushes.time()) {
+            movieBusiness.updateMoviesStats(chunk);
+            chunk.forEach(written -> failedFlushesByImdbId.remove(written.getImdbId()));
+            return true;
+        } catch (RuntimeException e) {
+            failedFlushes.mark();
+            LOGGER.error("Could not write the stats of " + chunk.size() + " movies, they will be retried", e);
+            for (MovieStats failed : chunk) {
+                failedFlushesByImdbId.merge(failed.getImdbId(), 1, Integer::sum);
+                // Stats offered since the chunk was taken are newer.
+                pendingStats.merge(failed.getImdbId(), failed, (newer, older) -> older.mergedWith(newer));
+            }
+            return false;
+        }
+    }
+
+    // Drops the stats just put back, and any newer ones merged into them.
+    private void drop(MovieStats movieStats) {
+
+        String imdbId = movieStats.getImdbId();
+        MovieStats droppedMovieStats = pendingStats.remove(imdbId);
+        failedFlushesByImdbId.remove(imdbId);
+        droppedStats.mark();
+        LOGGER.error("Dropped the stats of movie " + imdbId + ", that fail even when written alone: metascore "
+                + droppedMovieStats.getMetascore() + ", imdbRating " + droppedMovieStats.getImdbRating() + ", imdbVotes "
+                + droppedMovieStats.getImdbVotes());
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+
+        metricRegistry.register(MetricRegistry.name(MovieStatsBuffer.class, "pendingMovies"), (Gauge<Integer>) this::getPendingMovies);
+        metricRegistry.register(MetricRegistry.name(MovieStatsBuffer.class, "coalesced"), coalescedStats);
+        metricRegistry.register(MetricRegistry.name(MovieStatsBuffer.class, "rejected"), rejectedStats);
+        metricRegistry.register(MetricRegistry.name(MovieStatsBuffer.class, "failedFlushes"), failedFlushes);
+        metricRegistry.register(MetricRegistry.name(MovieStatsBuffer.class, "dropped"), droppedStats);
+        metricRegistry.register(MetricRegistry.name(MovieStatsBuffer.class, "flushes"), flushes);
+    }
+
+    @Override
+    public void start() throws Exception {
+
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalInMillis, flushIntervalInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Refuses new stats, waits for a running flush and writes the pending
+     * stats. Stats that still can't be written are logged as lost.
+     */
+    @Override
+    public void stop() throws Exception {
+
+        stopLock.writeLock().lock();
+        try {
+            stopped = true;
+        } finally {
+            stopLock.writeLock().unlock();
+        }
+        flusher.shutdown();
+        flusher.awaitTermination(1, TimeUnit.MINUTES);
+        flush();
+        if (!pendingStats.isEmpty()) {
+            LOGGER.error("The stats of " + pendingStats.size() + " movies were not written");
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package co.je.movies.domain.entities;
+
+public enum CreationStatus {
+    
+    CREATED("created"),
+    UPDATED("updated"),
+    DUPLICATED("duplicated"),
+    NOT_VALID("not valid");
+    
+    private final String plainName;
+
+    private CreationStatus(String plainName) {
+        this.plainName = plainName;
+    }
+
+    public String getPlainName() {
+        return plainName;
+    }
+    
+    @Override
+    public String toString() {
+        
+        return getPlainName();
+    }
+}
@@ -1,33 +1,74 @@
 package co.je.movies.domain.entities;
 
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public enum FilmRating {
     
-    G("G"),
-    PG("PG"),
-    PG_13("PG-13"),
-    R("R"),
-    NC_17("NC-17");
+    G("G", 1),
+    PG("PG", 2),
+    PG_13("PG-13", 3),
+    R("R", 4),
+    NC_17("NC-17", 5);
+    
+    // Keyed by the upper case plain name.
+    private static final Map<String, FilmRating> BY_PLAIN_NAME = new HashMap<String, FilmRating>();
+    // Indexed by code.
+    private static final FilmRating[] BY_CODE = new FilmRating[NC_17.code + 1];
+    
+    static {
+        for (FilmRating filmRating : values()) {
+            BY_PLAIN_NAME.put(filmRating.plainName, filmRating);
+            BY_CODE[filmRating.code] = filmRating;
+        }
+    }
     
     private final String plainName;
+    private final int code;
 
-    private FilmRating(String plainName) {
+    private FilmRating(String plainName, int code) {
         this.plainName = plainName;
+        this.code = code;
     }
     
+    /**
+     * Returns the film rating with the given plain name, ignoring case, or null
+     * if the plain name is null.
+     * 
+     * @throws IllegalArgumentException if there is no film rating with that name.
+     */
     @JsonCreator
     public static FilmRating createFilmRatingFromPlainName(@JsonProperty("plainName") String plainName) {
         
-        FilmRating filmRating = null;
-        FilmRating[] filmsRatings = FilmRating.values();
+        if (plainName == null) {
+            return null;
+        }
         
-        for (int i = 0; i < filmsRatings.length && (filmRating == null); i++) {
-            
-            FilmRating rating = filmsRatings[i];
-            boolean ratingsMatch = (rating.getPlainName().equalsIgnoreCase(plainName));
-            filmRating = ratingsMatch ? rating : null;
+        FilmRating filmRating = BY_PLAIN_NAME.get(plainName);
+        if (filmRating == null) {
+            filmRating = BY_PLAIN_NAME.get(plainName.toUpperCase(Locale.ROOT));
+        }
+        if (filmRating == null) {
+            throw new IllegalArgumentException("Unknown film rating: " + plainName);
+        }
+        
+        return filmRating;
+    }
+    
+    /**
+     * Returns the film rating stored in the DB with the given code.
+     * 
+     * @throws IllegalArgumentException if there is no film rating with that code.
+     */
+    public static FilmRating createFilmRatingFromCode(int code) {
+        
+        FilmRating filmRating = (code > 0 && code < BY_CODE.length) ? BY_CODE[code] : null;
+        if (filmRating == null) {
+            throw new IllegalArgumentException("Unknown film rating code: " + code);
         }
         
         return filmRating;
@@ -36,6 +77,13 @@ public enum FilmRating {
     public String getPlainName() {
         return plainName;
     }
+
+    /**
+     * Compact and stable identifier of the film rating, used to store it.
+     */
+    public int getCode() {
+        return code;
+    }
     
     @Override
     public String toString() {
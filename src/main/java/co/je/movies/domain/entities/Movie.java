@@ -1,15 +1,42 @@
 package co.je.movies.domain.entities;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Set;
 
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import org.hibernate.validator.constraints.NotBlank;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * The release date and the IMDB rating are kept as primitives: the number of
+ * days since 1970-01-01 and the rating in tenths (8.7 is 87). They are still
+ * read and written in JSON as a date time and a decimal number.
+ */
+@JsonPropertyOrder({ "imdbId", "title", "runtimeInMinutes", "releaseDate", "filmRating", "genre", "director", "plot", "metascore",
+        "imdbRating", "imdbVotes" })
 public class Movie implements Comparable<Movie> {
     
+    /** Stands for a missing release date. */
+    public static final int NO_RELEASE_EPOCH_DAY = Integer.MIN_VALUE;
+    /** Stands for a missing IMDB rating. */
+    public static final short NO_IMDB_RATING = Short.MIN_VALUE;
+    /** Bounds of a valid IMDB rating. */
+    public static final String MIN_IMDB_RATING = "0.0";
+    public static final String MAX_IMDB_RATING = "10.0";
+    // Ratings in tenths are kept within these, see toImdbRatingInTenths.
+    private static final BigDecimal MIN_IMDB_RATING_IN_TENTHS = BigDecimal.valueOf(NO_IMDB_RATING + 1);
+    private static final BigDecimal MAX_IMDB_RATING_IN_TENTHS = BigDecimal.valueOf(Short.MAX_VALUE);
+    
     @NotBlank
     private String imdbId;
     
@@ -19,8 +46,7 @@ public class Movie implements Comparable<Movie> {
     @Min(0)
     private int runtimeInMinutes;
     
-    @NotNull
-    private LocalDateTime releaseDate;
+    private int releaseEpochDay = NO_RELEASE_EPOCH_DAY;
     
     private FilmRating filmRating;
     
@@ -34,9 +60,13 @@ public class Movie implements Comparable<Movie> {
     private String plot;
     
     private int metascore;
-    private BigDecimal imdbRating;
+    private short imdbRatingInTenths = NO_IMDB_RATING;
     private long imdbVotes;
     
+    // Maintained by the DB on every write, not part of the JSON representation.
+    private long version;
+    private long lastModifiedInMillis;
+    
     public Movie() {
         
     }
@@ -47,16 +77,114 @@ public class Movie implements Comparable<Movie> {
         this.imdbId = imdbId;
         this.title = title;
         this.runtimeInMinutes = runtimeInMinutes;
-        this.releaseDate = releaseDate;
+        setReleaseDate(releaseDate);
         this.filmRating = filmRating;
         this.genre = genre;
         this.director = director;
         this.plot = plot;
         this.metascore = metascore;
-        this.imdbRating = imdbRating;
+        setImdbRating(imdbRating);
         this.imdbVotes = imdbVotes;
     }
 
+    /**
+     * Creates a movie from its stored, compact, representation.
+     */
+    public static Movie createMovieFromCompactFields(String imdbId, String title, int runtimeInMinutes, int releaseEpochDay,
+            FilmRating filmRating, String genre, String director, String plot, int metascore, short imdbRatingInTenths, long imdbVotes,
+            long version, long lastModifiedInMillis) {
+        
+        Movie movie = new Movie();
+        movie.imdbId = imdbId;
+        movie.title = title;
+        movie.runtimeInMinutes = runtimeInMinutes;
+        movie.releaseEpochDay = releaseEpochDay;
+        movie.filmRating = filmRating;
+        movie.genre = genre;
+        movie.director = director;
+        movie.plot = plot;
+        movie.metascore = metascore;
+        movie.imdbRatingInTenths = imdbRatingInTenths;
+        movie.imdbVotes = imdbVotes;
+        movie.version = version;
+        movie.lastModifiedInMillis = lastModifiedInMillis;
+        return movie;
+    }
+
+    /**
+     * Returns a copy of this movie with the changed fields taken from changes.
+     * The imdbId and the version data are kept.
+     */
+    public Movie withChanges(Movie changes, Set<MovieField> changedFields) {
+        
+        Movie movie = createMovieFromCompactFields(imdbId, title, runtimeInMinutes, releaseEpochDay, filmRating, genre, director, plot,
+                metascore, imdbRatingInTenths, imdbVotes, version, lastModifiedInMillis);
+        for (MovieField changedField : changedFields) {
+            switch (changedField) {
+            case TITLE:
+                movie.title = changes.title;
+                break;
+            case RUNTIME_IN_MINUTES:
+                movie.runtimeInMinutes = changes.runtimeInMinutes;
+                break;
+            case RELEASE_DATE:
+                movie.releaseEpochDay = changes.releaseEpochDay;
+                break;
+            case FILM_RATING:
+                movie.filmRating = changes.filmRating;
+                break;
+            case GENRE:
+                movie.genre = changes.genre;
+                break;
+            case DIRECTOR:
+                movie.director = changes.director;
+                break;
+            case PLOT:
+                movie.plot = changes.plot;
+                break;
+            case METASCORE:
+                movie.metascore = changes.metascore;
+                break;
+            case IMDB_RATING:
+                movie.imdbRatingInTenths = changes.imdbRatingInTenths;
+                break;
+            case IMDB_VOTES:
+                movie.imdbVotes = changes.imdbVotes;
+                break;
+            default:
+                break;
+            }
+        }
+        return movie;
+    }
+
+    /**
+     * Returns the given rating in tenths, rounded with the given mode, or
+     * NO_IMDB_RATING if it is null. A rating too far out of range for a short
+     * is saturated, so it still fails validation instead of throwing.
+     */
+    public static short toImdbRatingInTenths(BigDecimal imdbRating, RoundingMode roundingMode) {
+        
+        if (imdbRating == null) {
+            return NO_IMDB_RATING;
+        }
+        BigDecimal imdbRatingInTenths = imdbRating.movePointRight(1).setScale(0, roundingMode);
+        return imdbRatingInTenths.max(MIN_IMDB_RATING_IN_TENTHS).min(MAX_IMDB_RATING_IN_TENTHS).shortValueExact();
+    }
+
+    /**
+     * Only the day of the release date is kept.
+     */
+    @JsonProperty("releaseDate")
+    private void setReleaseDate(LocalDateTime releaseDate) {
+        this.releaseEpochDay = (releaseDate == null) ? NO_RELEASE_EPOCH_DAY : (int) releaseDate.toLocalDate().toEpochDay();
+    }
+
+    @JsonProperty("imdbRating")
+    private void setImdbRating(BigDecimal imdbRating) {
+        this.imdbRatingInTenths = toImdbRatingInTenths(imdbRating, RoundingMode.HALF_UP);
+    }
+
     public String getImdbId() {
         return imdbId;
     }
@@ -69,8 +197,14 @@ public class Movie implements Comparable<Movie> {
         return runtimeInMinutes;
     }
 
+    @NotNull
     public LocalDateTime getReleaseDate() {
-        return releaseDate;
+        return (releaseEpochDay == NO_RELEASE_EPOCH_DAY) ? null : LocalDate.ofEpochDay(releaseEpochDay).atStartOfDay();
+    }
+
+    @JsonIgnore
+    public int getReleaseEpochDay() {
+        return releaseEpochDay;
     }
 
     public FilmRating getFilmRating() {
@@ -93,14 +227,35 @@ public class Movie implements Comparable<Movie> {
         return metascore;
     }
 
+    @DecimalMin(MIN_IMDB_RATING)
+    @DecimalMax(MAX_IMDB_RATING)
     public BigDecimal getImdbRating() {
-        return imdbRating;
+        return (imdbRatingInTenths == NO_IMDB_RATING) ? null : BigDecimal.valueOf(imdbRatingInTenths, 1);
+    }
+
+    @JsonIgnore
+    public short getImdbRatingInTenths() {
+        return imdbRatingInTenths;
     }
 
     public long getImdbVotes() {
         return imdbVotes;
     }
 
+    /**
+     * Starts at 1 when the movie is created and grows on every update. 0 if the
+     * movie was not read from the DB.
+     */
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+
+    @JsonIgnore
+    public long getLastModifiedInMillis() {
+        return lastModifiedInMillis;
+    }
+
     @Override
     public int compareTo(Movie movie) {
         
@@ -109,13 +264,13 @@ public class Movie implements Comparable<Movie> {
         answer += imdbId.compareTo(movie.getImdbId());
         answer += title.compareTo(movie.getTitle());
         answer += (runtimeInMinutes - movie.getRuntimeInMinutes());
-        answer += releaseDate.compareTo(movie.getReleaseDate());
+        answer += Integer.compare(releaseEpochDay, movie.getReleaseEpochDay());
         answer += filmRating.compareTo(movie.getFilmRating());
         answer += genre.compareTo(movie.getGenre());
         answer += director.compareTo(movie.getDirector());
         answer += plot.compareTo(movie.getPlot());
         answer += (metascore - movie.getMetascore());
-        answer += imdbRating.compareTo(movie.getImdbRating());
+        answer += Integer.compare(imdbRatingInTenths, movie.getImdbRatingInTenths());
         answer += (imdbVotes - movie.getImdbVotes());
         
         return answer;
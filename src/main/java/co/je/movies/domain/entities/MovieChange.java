@@ -0,0 +1,41 @@
+package co.je.movies.domain.entities;
+
+/**
+ * One entry of the change log: the movie with the given imdbId was created,
+ * updated or deleted. Seqs grow with every change, in commit order.
+ */
+public class MovieChange {
+    
+    private long seq;
+    private String imdbId;
+    private MovieChangeType changeType;
+    private long changedInMillis;
+    
+    public MovieChange() {
+        
+    }
+
+    public MovieChange(long seq, String imdbId, MovieChangeType changeType, long changedInMillis) {
+        
+        this.seq = seq;
+        this.imdbId = imdbId;
+        this.changeType = changeType;
+        this.changedInMillis = changedInMillis;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public String getImdbId() {
+        return imdbId;
+    }
+
+    public MovieChangeType getChangeType() {
+        return changeType;
+    }
+
+    public long getChangedInMillis() {
+        return changedInMillis;
+    }
+}
@@ -0,0 +1,36 @@
+package co.je.movies.domain.entities;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class MovieChangePage {
+    
+    private final List<MovieChange> changes;
+    private final long lastSeq;
+    private final boolean hasMoreChanges;
+
+    public MovieChangePage(List<MovieChange> changes, long lastSeq, boolean hasMoreChanges) {
+        
+        this.changes = changes;
+        this.lastSeq = lastSeq;
+        this.hasMoreChanges = hasMoreChanges;
+    }
+
+    public List<MovieChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * seq of the last change of this page, or the one the page was asked
+     * after if it is empty: the one to ask the next page after.
+     */
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    @JsonProperty("hasMoreChanges")
+    public boolean hasMoreChanges() {
+        return hasMoreChanges;
+    }
+}
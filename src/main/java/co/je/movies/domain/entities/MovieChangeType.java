@@ -0,0 +1,57 @@
+package co.je.movies.domain.entities;
+
+public enum MovieChangeType {
+    
+    CREATED("created", 1),
+    UPDATED("updated", 2),
+    DELETED("deleted", 3);
+    
+    // Indexed by code.
+    private static final MovieChangeType[] BY_CODE = new MovieChangeType[DELETED.code + 1];
+    
+    static {
+        for (MovieChangeType changeType : values()) {
+            BY_CODE[changeType.code] = changeType;
+        }
+    }
+    
+    private final String plainName;
+    private final int code;
+
+    private MovieChangeType(String plainName, int code) {
+        this.plainName = plainName;
+        this.code = code;
+    }
+    
+    /**
+     * Returns the change type stored in the DB with the given code.
+     * 
+     * @throws IllegalArgumentException if there is no change type with that code.
+     */
+    public static MovieChangeType createMovieChangeTypeFromCode(int code) {
+        
+        MovieChangeType changeType = (code > 0 && code < BY_CODE.length) ? BY_CODE[code] : null;
+        if (changeType == null) {
+            throw new IllegalArgumentException("Unknown movie change type code: " + code);
+        }
+        
+        return changeType;
+    }
+
+    public String getPlainName() {
+        return plainName;
+    }
+
+    /**
+     * Compact and stable identifier of the change type, used to store it.
+     */
+    public int getCode() {
+        return code;
+    }
+    
+    @Override
+    public String toString() {
+        
+        return getPlainName();
+    }
+}
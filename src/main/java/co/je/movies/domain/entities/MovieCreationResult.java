@@ -0,0 +1,39 @@
+package co.je.movies.domain.entities;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MovieCreationResult {
+    
+    private String imdbId;
+    private CreationStatus status;
+    private List<String> errors;
+    
+    public MovieCreationResult() {
+        
+    }
+
+    public MovieCreationResult(String imdbId, CreationStatus status, List<String> errors) {
+        
+        this.imdbId = imdbId;
+        this.status = status;
+        this.errors = errors;
+    }
+
+    public MovieCreationResult(String imdbId, CreationStatus status) {
+        
+        this(imdbId, status, new ArrayList<String>());
+    }
+
+    public String getImdbId() {
+        return imdbId;
+    }
+
+    public CreationStatus getStatus() {
+        return status;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,94 @@
+package co.je.movies.domain.entities;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The fields of a movie, named as in its JSON representation, that a client
+ * can ask for instead of the whole movie.
+ */
+public enum MovieField {
+    
+    IMDB_ID("imdbId", Movie::getImdbId),
+    TITLE("title", Movie::getTitle),
+    RUNTIME_IN_MINUTES("runtimeInMinutes", Movie::getRuntimeInMinutes),
+    RELEASE_DATE("releaseDate", Movie::getReleaseDate),
+    FILM_RATING("filmRating", Movie::getFilmRating),
+    GENRE("genre", Movie::getGenre),
+    DIRECTOR("director", Movie::getDirector),
+    PLOT("plot", Movie::getPlot),
+    METASCORE("metascore", Movie::getMetascore),
+    IMDB_RATING("imdbRating", Movie::getImdbRating),
+    IMDB_VOTES("imdbVotes", Movie::getImdbVotes);
+    
+    private static final Map<String, MovieField> BY_PLAIN_NAME = new HashMap<String, MovieField>();
+    
+    static {
+        for (MovieField movieField : values()) {
+            BY_PLAIN_NAME.put(movieField.plainName, movieField);
+        }
+    }
+    
+    private final String plainName;
+    private final Function<Movie, Object> getter;
+
+    private MovieField(String plainName, Function<Movie, Object> getter) {
+        this.plainName = plainName;
+        this.getter = getter;
+    }
+    
+    /**
+     * Returns the fields named in the given comma separated list, plus IMDB_ID,
+     * which is always present. All of them if the list is null or blank.
+     * 
+     * @throws IllegalArgumentException if a name is not the one of a field.
+     */
+    public static Set<MovieField> createMovieFieldsFromPlainNames(String plainNames) {
+        
+        if (plainNames == null || plainNames.trim().isEmpty()) {
+            return EnumSet.allOf(MovieField.class);
+        }
+        
+        Set<MovieField> movieFields = EnumSet.of(IMDB_ID);
+        for (String plainName : plainNames.split(",")) {
+            String trimmedPlainName = plainName.trim();
+            if (!trimmedPlainName.isEmpty()) {
+                movieFields.add(createMovieFieldFromPlainName(trimmedPlainName));
+            }
+        }
+        
+        return movieFields;
+    }
+    
+    /**
+     * Returns the field with the given plain name.
+     * 
+     * @throws IllegalArgumentException if there is no field with that name.
+     */
+    public static MovieField createMovieFieldFromPlainName(String plainName) {
+        
+        MovieField movieField = BY_PLAIN_NAME.get(plainName);
+        if (movieField == null) {
+            throw new IllegalArgumentException("Unknown movie field: " + plainName);
+        }
+        
+        return movieField;
+    }
+
+    public String getPlainName() {
+        return plainName;
+    }
+    
+    public Object getValue(Movie movie) {
+        return getter.apply(movie);
+    }
+    
+    @Override
+    public String toString() {
+        
+        return getPlainName();
+    }
+}
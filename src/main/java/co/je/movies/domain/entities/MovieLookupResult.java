@@ -0,0 +1,33 @@
+package co.je.movies.domain.entities;
+
+import java.util.List;
+
+public class MovieLookupResult {
+    
+    private List<Movie> movies;
+    private List<String> missingImdbIds;
+    
+    public MovieLookupResult() {
+        
+    }
+
+    public MovieLookupResult(List<Movie> movies, List<String> missingImdbIds) {
+        
+        this.movies = movies;
+        this.missingImdbIds = missingImdbIds;
+    }
+
+    /**
+     * The movies found, in the order their imdbIds were requested.
+     */
+    public List<Movie> getMovies() {
+        return movies;
+    }
+
+    /**
+     * The requested imdbIds without a stored movie.
+     */
+    public List<String> getMissingImdbIds() {
+        return missingImdbIds;
+    }
+}
@@ -0,0 +1,38 @@
+package co.je.movies.domain.entities;
+
+import java.util.List;
+import java.util.Optional;
+
+public class MoviePage {
+    
+    private final List<Movie> movies;
+    private final Optional<String> lastImdbId;
+    private final String collectionVersion;
+
+    public MoviePage(List<Movie> movies, Optional<String> lastImdbId, String collectionVersion) {
+        
+        this.movies = movies;
+        this.lastImdbId = lastImdbId;
+        this.collectionVersion = collectionVersion;
+    }
+
+    public List<Movie> getMovies() {
+        return movies;
+    }
+
+    /**
+     * imdbId of the last movie of this page, present only if there are more
+     * movies after it.
+     */
+    public Optional<String> getLastImdbId() {
+        return lastImdbId;
+    }
+
+    /**
+     * The collection version read before the movies of this page, so they are
+     * at least as new as it.
+     */
+    public String getCollectionVersion() {
+        return collectionVersion;
+    }
+}
@@ -0,0 +1,44 @@
+package co.je.movies.domain.entities;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * A movie written with only some of its fields, in the same order and with
+ * the same names as in the whole movie.
+ */
+public class MovieProjection {
+    
+    private final Movie movie;
+    private final Set<MovieField> movieFields;
+
+    public MovieProjection(Movie movie, Set<MovieField> movieFields) {
+        
+        this.movie = movie;
+        this.movieFields = movieFields;
+    }
+
+    public Movie getMovie() {
+        return movie;
+    }
+
+    public Set<MovieField> getMovieFields() {
+        return movieFields;
+    }
+    
+    @JsonValue
+    public Map<String, Object> getFieldValues() {
+        
+        Map<String, Object> fieldValues = new LinkedHashMap<String, Object>();
+        for (MovieField movieField : MovieField.values()) {
+            if (movieFields.contains(movieField)) {
+                fieldValues.put(movieField.getPlainName(), movieField.getValue(movie));
+            }
+        }
+        
+        return fieldValues;
+    }
+}
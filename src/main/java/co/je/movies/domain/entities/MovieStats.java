@@ -0,0 +1,69 @@
+package co.je.movies.domain.entities;
+
+import java.math.BigDecimal;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+import org.hibernate.validator.constraints.NotBlank;
+
+/**
+ * New values of the fields of a movie that change often: metascore, IMDB
+ * rating and IMDB votes. A null field is left as it is.
+ */
+public class MovieStats {
+    
+    @NotBlank
+    private String imdbId;
+    
+    @Min(0)
+    private Integer metascore;
+    
+    @DecimalMin(Movie.MIN_IMDB_RATING)
+    @DecimalMax(Movie.MAX_IMDB_RATING)
+    private BigDecimal imdbRating;
+    
+    @Min(0)
+    private Long imdbVotes;
+    
+    public MovieStats() {
+        
+    }
+
+    public MovieStats(String imdbId, Integer metascore, BigDecimal imdbRating, Long imdbVotes) {
+        
+        this.imdbId = imdbId;
+        this.metascore = metascore;
+        this.imdbRating = imdbRating;
+        this.imdbVotes = imdbVotes;
+    }
+    
+    /**
+     * Returns the stats of this movie updated with the not null fields of the
+     * newer ones.
+     */
+    public MovieStats mergedWith(MovieStats newerStats) {
+        
+        Integer mergedMetascore = (newerStats.metascore != null) ? newerStats.metascore : metascore;
+        BigDecimal mergedImdbRating = (newerStats.imdbRating != null) ? newerStats.imdbRating : imdbRating;
+        Long mergedImdbVotes = (newerStats.imdbVotes != null) ? newerStats.imdbVotes : imdbVotes;
+        return new MovieStats(imdbId, mergedMetascore, mergedImdbRating, mergedImdbVotes);
+    }
+
+    public String getImdbId() {
+        return imdbId;
+    }
+
+    public Integer getMetascore() {
+        return metascore;
+    }
+
+    public BigDecimal getImdbRating() {
+        return imdbRating;
+    }
+
+    public Long getImdbVotes() {
+        return imdbVotes;
+    }
+}
@@ -0,0 +1,351 @@
+package co.je.movies.domain.search;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.lang3.StringUtils;
+
+import co.je.movies.domain.entities.Movie;
+
+/**
+ * In memory, column oriented, copy of the fields GET /movies filters on. Each
+ * column is a primitive array and rows are kept sorted by imdbId, so a search
+ * answers the same page as MovieDAO.getMoviesByParams without going to the DB.
+ * The numeric predicates are evaluated a block of rows at a time, in a loop
+ * without branches the JIT can vectorize; only the rows passing them have
+ * their title checked. Searches over more than parallelThreshold rows split
+ * them in ranges scanned on a fork join pool, merged back in imdbId order.
+ * Adding many movies at once goes through putAll, which sorts them and
+ * merges them with the existing rows in one pass, instead of shifting the
+ * rows after each one.
+ */
+public class MovieColumnIndex {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int BLOCK_SIZE = 1024;
+    /** Ranges per pool thread, so threads finishing early can steal work. */
+    private static final int RANGES_PER_THREAD = 4;
+
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 100000;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ForkJoinPool forkJoinPool;
+    private final int parallelThreshold;
+
+    private String[] imdbIds = new String[INITIAL_CAPACITY];
+    private String[] lowerTitles = new String[INITIAL_CAPACITY];
+    private int[] runtimesInMinutes = new int[INITIAL_CAPACITY];
+    private int[] metascores = new int[INITIAL_CAPACITY];
+    private short[] imdbRatingsInTenths = new short[INITIAL_CAPACITY];
+    private long[] imdbVotes = new long[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * A column index whose searches always run on the calling thread.
+     */
+    public MovieColumnIndex() {
+        this.forkJoinPool = null;
+        this.parallelThreshold = Integer.MAX_VALUE;
+    }
+
+    /**
+     * A column index whose searches over more than parallelThreshold rows run on
+     * a fork join pool of the given parallelism (the number of available
+     * processors when it is not positive).
+     */
+    public MovieColumnIndex(int parallelism, int parallelThreshold) {
+        int poolParallelism = (parallelism > 0) ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.forkJoinPool = new ForkJoinPool(poolParallelism);
+        this.parallelThreshold = (parallelThreshold > 0) ? parallelThreshold : DEFAULT_PARALLEL_THRESHOLD;
+    }
+
+    /**
+     * The predicates of a search, with its params already in column units.
+     */
+    private static class RangeQuery {
+
+        private final String titleQuery;
+        private final int runtimeInMinutes;
+        private final int metascore;
+        private final short imdbRatingInTenths;
+        private final long imdbVotes;
+        private final int limit;
+
+        private RangeQuery(String title, int runtimeInMinutes, int metascore, BigDecimal imdbRating, long imdbVotes, int limit) {
+            this.titleQuery = StringUtils.isBlank(title) ? null : toLowerTitle(title);
+            this.runtimeInMinutes = runtimeInMinutes;
+            this.metascore = metascore;
+            // Rounded up, so 7.25 keeps asking for 7.3 and above. Movies without a rating never match.
+            this.imdbRatingInTenths = Objects.isNull(imdbRating) ? 0 : Movie.toImdbRatingInTenths(imdbRating, RoundingMode.CEILING);
+            this.imdbVotes = imdbVotes;
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * Scans a range of rows, splitting it in halves down to rangeSize rows. The
+     * matches of the left half go first, so the result is in imdbId order.
+     */
+    private class RangeScanTask extends RecursiveTask<List<String>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RangeQuery query;
+        private final int fromRow;
+        private final int toRow;
+        private final int rangeSize;
+
+        private RangeScanTask(RangeQuery query, int fromRow, int toRow, int rangeSize) {
+            this.query = query;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.rangeSize = rangeSize;
+        }
+
+        @Override
+        protected List<String> compute() {
+
+            if (toRow - fromRow <= rangeSize) {
+                return scanRows(query, fromRow, toRow);
+            }
+
+            int middleRow = fromRow + (toRow - fromRow) / 2;
+            RangeScanTask rightTask = new RangeScanTask(query, middleRow, toRow, rangeSize);
+            rightTask.fork();
+            List<String> matchingImdbIds = new RangeScanTask(query, fromRow, middleRow, rangeSize).compute();
+
+            // Skip the right half when the left one filled the page, unless another
+            // thread already started it: it must end before the read lock is released.
+            if (matchingImdbIds.size() >= query.limit && rightTask.tryUnfork()) {
+                return matchingImdbIds;
+            }
+
+            List<String> rightImdbIds = rightTask.join();
+            int missing = query.limit - matchingImdbIds.size();
+            matchingImdbIds.addAll(rightImdbIds.subList(0, Math.min(missing, rightImdbIds.size())));
+            return matchingImdbIds;
+        }
+    }
+
+    private static String toLowerTitle(String title) {
+        return (title == null) ? null : title.toLowerCase(Locale.ROOT);
+    }
+
+    // Callers must hold the write lock.
+    private void ensureCapacity(int capacity) {
+
+        if (capacity <= imdbIds.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, imdbIds.length * 2);
+        imdbIds = Arrays.copyOf(imdbIds, newCapacity);
+        lowerTitles = Arrays.copyOf(lowerTitles, newCapacity);
+        runtimesInMinutes = Arrays.copyOf(runtimesInMinutes, newCapacity);
+        metascores = Arrays.copyOf(metascores, newCapacity);
+        imdbRatingsInTenths = Arrays.copyOf(imdbRatingsInTenths, newCapacity);
+        imdbVotes = Arrays.copyOf(imdbVotes, newCapacity);
+    }
+
+    // Callers must hold the write lock. Moves the rows from 'from' on by 'shift' positions.
+    private void shiftRows(int from, int shift) {
+
+        int length = size - from;
+        System.arraycopy(imdbIds, from, imdbIds, from + shift, length);
+        System.arraycopy(lowerTitles, from, lowerTitles, from + shift, length);
+        System.arraycopy(runtimesInMinutes, from, runtimesInMinutes, from + shift, length);
+        System.arraycopy(metascores, from, metascores, from + shift, length);
+        System.arraycopy(imdbRatingsInTenths, from, imdbRatingsInTenths, from + shift, length);
+        System.arraycopy(imdbVotes, from, imdbVotes, from + shift, length);
+    }
+
+    // Callers must hold the write lock.
+    private void moveRow(int from, int to) {
+
+        imdbIds[to] = imdbIds[from];
+        lowerTitles[to] = lowerTitles[from];
+        runtimesInMinutes[to] = runtimesInMinutes[from];
+        metascores[to] = metascores[from];
+        imdbRatingsInTenths[to] = imdbRatingsInTenths[from];
+        imdbVotes[to] = imdbVotes[from];
+    }
+
+    // Callers must hold the write lock.
+    private void setRow(int row, Movie movie) {
+
+        imdbIds[row] = movie.getImdbId();
+        lowerTitles[row] = toLowerTitle(movie.getTitle());
+        runtimesInMinutes[row] = movie.getRuntimeInMinutes();
+        metascores[row] = movie.getMetascore();
+        imdbRatingsInTenths[row] = movie.getImdbRatingInTenths();
+        imdbVotes[row] = movie.getImdbVotes();
+    }
+
+    /**
+     * Adds the movie to the index, replacing any previous version of it.
+     */
+    public void put(Movie movie) {
+
+        lock.writeLock().lock();
+        try {
+            int row = Arrays.binarySearch(imdbIds, 0, size, movie.getImdbId());
+            if (row < 0) {
+                row = -(row + 1);
+                ensureCapacity(size + 1);
+                shiftRows(row, 1);
+                size++;
+            }
+
+            setRow(row, movie);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the movies to the index, replacing any previous version of them
+     * (the last one wins when the same imdbId is given twice). The movies are
+     * sorted and merged with the existing rows from the end, so each row moves
+     * at most once: O(n + k log k) for k movies, and just an append when they
+     * all go after the existing rows, as when loading them ordered by imdbId.
+     */
+    public void putAll(Collection<Movie> movies) {
+
+        Movie[] batch = movies.toArray(new Movie[movies.size()]);
+        // A stable sort, so the last version of a repeated movie stays last.
+        Arrays.sort(batch, Comparator.comparing(Movie::getImdbId));
+        int batchSize = 0;
+        for (Movie movie : batch) {
+            if (batchSize > 0 && batch[batchSize - 1].getImdbId().equals(movie.getImdbId())) {
+                batch[batchSize - 1] = movie;
+            } else {
+                batch[batchSize++] = movie;
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            int addedRows = 0;
+            for (int i = 0; i < batchSize; i++) {
+                if (Arrays.binarySearch(imdbIds, 0, size, batch[i].getImdbId()) < 0) {
+                    addedRows++;
+                }
+            }
+            ensureCapacity(size + addedRows);
+
+            // Once the batch is merged, the rows left before 'row' are already in place.
+            int row = size - 1;
+            int targetRow = size + addedRows - 1;
+            for (int i = batchSize - 1; i >= 0; i--) {
+                String imdbId = batch[i].getImdbId();
+                while (row >= 0 && imdbIds[row].compareTo(imdbId) > 0) {
+                    moveRow(row--, targetRow--);
+                }
+                if (row >= 0 && imdbIds[row].equals(imdbId)) {
+                    row--;
+                }
+                setRow(targetRow--, batch[i]);
+            }
+            size += addedRows;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String imdbId) {
+
+        lock.writeLock().lock();
+        try {
+            int row = Arrays.binarySearch(imdbIds, 0, size, imdbId);
+            if (row >= 0) {
+                shiftRows(row + 1, -1);
+                size--;
+                imdbIds[size] = null;
+                lowerTitles[size] = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the imdbIds of the (at most) query.limit rows in [fromRow, toRow)
+     * matching the query. Callers must hold the read lock, or run on behalf of a
+     * thread holding it.
+     */
+    private List<String> scanRows(RangeQuery query, int fromRow, int toRow) {
+
+        List<String> matchingImdbIds = new ArrayList<String>();
+        boolean[] matches = new boolean[BLOCK_SIZE];
+
+        for (int blockStart = fromRow; blockStart < toRow && matchingImdbIds.size() < query.limit; blockStart += BLOCK_SIZE) {
+
+            int blockEnd = Math.min(blockStart + BLOCK_SIZE, toRow);
+            for (int row = blockStart; row < blockEnd; row++) {
+                matches[row - blockStart] = (runtimesInMinutes[row] >= query.runtimeInMinutes) & (metascores[row] >= query.metascore)
+                        & (imdbRatingsInTenths[row] >= query.imdbRatingInTenths) & (imdbVotes[row] >= query.imdbVotes);
+            }
+
+            for (int row = blockStart; row < blockEnd && matchingImdbIds.size() < query.limit; row++) {
+                if (matches[row - blockStart] && lowerTitles[row] != null
+                        && (query.titleQuery == null || lowerTitles[row].contains(query.titleQuery))) {
+                    matchingImdbIds.add(imdbIds[row]);
+                }
+            }
+        }
+
+        return matchingImdbIds;
+    }
+
+    /**
+     * Returns the imdbIds of the (at most) limit movies matching the given
+     * params, ordered by imdbId and starting right after afterImdbId (or from
+     * the first one if it is null). The params mean the same as in
+     * MovieDAO.getMoviesByParams.
+     */
+    public List<String> search(String title, int runtimeInMinutes, int metascore, BigDecimal imdbRating, long imdbVotes,
+            String afterImdbId, int limit) {
+
+        RangeQuery query = new RangeQuery(title, runtimeInMinutes, metascore, imdbRating, imdbVotes, limit);
+
+        lock.readLock().lock();
+        try {
+            int firstRow = 0;
+            if (afterImdbId != null) {
+                int row = Arrays.binarySearch(imdbIds, 0, size, afterImdbId);
+                firstRow = (row >= 0) ? row + 1 : -(row + 1);
+            }
+
+            int rows = size - firstRow;
+            if (rows <= parallelThreshold) {
+                return scanRows(query, firstRow, size);
+            }
+
+            int rangeSize = Math.max(BLOCK_SIZE, rows / (forkJoinPool.getParallelism() * RANGES_PER_THREAD));
+            return forkJoinPool.invoke(new RangeScanTask(query, firstRow, size, rangeSize));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package co.je.movies.domain.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import co.je.movies.domain.entities.Movie;
+
+/**
+ * In memory inverted index over the title, director, genre and plot of the
+ * movies, ranked with BM25. Each query token of at least MIN_PREFIX_LENGTH
+ * characters matches every indexed term that starts with it, so "matr" finds
+ * "matrix"; shorter ones only match themselves. Field weights are applied to
+ * the term frequencies before scoring.
+ *
+ * Movies are numbered as they are put, and postings are arrays of those
+ * numbers and of the term frequencies. A removed, or replaced, movie is only
+ * marked as such: the postings of a term drop its removed movies once they
+ * are half of them, and every movie is numbered again once most numbers
+ * are of removed movies.
+ */
+public class MovieSearchIndex {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final int TITLE_WEIGHT = 3;
+    private static final int DIRECTOR_WEIGHT = 2;
+    private static final int GENRE_WEIGHT = 2;
+    private static final int PLOT_WEIGHT = 1;
+
+    /** Shortest query token matching the terms it is a prefix of, see expandPrefix. */
+    static final int MIN_PREFIX_LENGTH = 3;
+    /** Max number of indexed terms a single query token expands to, see expandPrefix. */
+    private static final int MAX_PREFIX_EXPANSIONS = 64;
+    // Removed movies are not numbered again while there are fewer than these.
+    private static final int MIN_REMOVED_TO_RENUMBER = 1024;
+
+    private static final Postings[] NO_POSTINGS = new Postings[0];
+
+    /**
+     * The movies a term is in, by number, in increasing order, and its
+     * weighted frequency in each of them.
+     */
+    private static final class Postings {
+
+        private final String term;
+        private int[] documents = new int[1];
+        private int[] frequencies = new int[1];
+        // Entries, including the ones of removed movies.
+        private int size = 0;
+        // Entries of movies not removed, the document frequency of the term.
+        private int liveSize = 0;
+
+        private Postings(String term) {
+            this.term = term;
+        }
+
+        private void add(int document, int frequency) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, 2 * size);
+                frequencies = Arrays.copyOf(frequencies, 2 * size);
+            }
+            documents[size] = document;
+            frequencies[size] = frequency;
+            size++;
+            liveSize++;
+        }
+
+        // Drops the entries of the movies removed, the ones without imdbId.
+        private void dropRemoved(String[] imdbIds) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (imdbIds[documents[i]] != null) {
+                    documents[kept] = documents[i];
+                    frequencies[kept] = frequencies[i];
+                    kept++;
+                }
+            }
+            trim(kept);
+        }
+
+        // Keeps the entries of the movies still indexed, numbered by newDocuments (-1 if removed).
+        private void renumber(int[] newDocuments) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int newDocument = newDocuments[documents[i]];
+                if (newDocument >= 0) {
+                    documents[kept] = newDocument;
+                    frequencies[kept] = frequencies[i];
+                    kept++;
+                }
+            }
+            trim(kept);
+        }
+
+        private void trim(int kept) {
+            size = kept;
+            liveSize = kept;
+            documents = Arrays.copyOf(documents, Math.max(1, kept));
+            frequencies = Arrays.copyOf(frequencies, Math.max(1, kept));
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final NavigableMap<String, Postings> postings = new TreeMap<String, Postings>();
+    private final Map<String, Integer> documentsByImdbId = new HashMap<String, Integer>();
+    // By movie number: its imdbId (null once removed), weighted length and the postings of its terms.
+    private String[] imdbIds = new String[16];
+    private int[] documentLengths = new int[16];
+    private Postings[][] documentPostings = new Postings[16][];
+    // Numbers given so far, including the ones of removed movies.
+    private int documentCount = 0;
+    private long totalDocumentLength = 0;
+
+    static List<String> tokenize(String text) {
+
+        List<String> tokens = new ArrayList<String>();
+        if (text == null) {
+            return tokens;
+        }
+
+        String lowerCaseText = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lowerCaseText.length(); i++) {
+            boolean isTokenChar = (i < lowerCaseText.length()) && Character.isLetterOrDigit(lowerCaseText.charAt(i));
+            if (isTokenChar && start < 0) {
+                start = i;
+            } else if (!isTokenChar && start >= 0) {
+                tokens.add(lowerCaseText.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static void addTerms(Map<String, Integer> termFrequencies, String text, int weight) {
+        for (String token : tokenize(text)) {
+            termFrequencies.merge(token, weight, Integer::sum);
+        }
+    }
+
+    private static Map<String, Integer> getTermFrequencies(Movie movie) {
+        Map<String, Integer> termFrequencies = new HashMap<String, Integer>();
+        addTerms(termFrequencies, movie.getTitle(), TITLE_WEIGHT);
+        addTerms(termFrequencies, movie.getDirector(), DIRECTOR_WEIGHT);
+        addTerms(termFrequencies, movie.getGenre(), GENRE_WEIGHT);
+        addTerms(termFrequencies, movie.getPlot(), PLOT_WEIGHT);
+        return termFrequencies;
+    }
+
+    // Callers must hold the write lock.
+    private void removeDocument(String imdbId) {
+
+        Integer document = documentsByImdbId.remove(imdbId);
+        if (document == null) {
+            return;
+        }
+
+        imdbIds[document] = null;
+        totalDocumentLength -= documentLengths[document];
+        for (Postings termPostings : documentPostings[document]) {
+            termPostings.liveSize--;
+            if (termPostings.liveSize == 0) {
+                postings.remove(termPostings.term);
+            } else if (termPostings.size > 2 * termPostings.liveSize) {
+                termPostings.dropRemoved(imdbIds);
+            }
+        }
+        documentPostings[document] = null;
+
+        int removedDocuments = documentCount - documentsByImdbId.size();
+        if (removedDocuments >= MIN_REMOVED_TO_RENUMBER && removedDocuments > documentsByImdbId.size()) {
+            renumberDocuments();
+        }
+    }
+
+    // Numbers the movies still indexed from 0, in the same order, so every postings stays sorted.
+    private void renumberDocuments() {
+
+        int[] newDocuments = new int[documentCount];
+        int liveCount = 0;
+        for (int document = 0; document < documentCount; document++) {
+            if (imdbIds[document] == null) {
+                newDocuments[document] = -1;
+                continue;
+            }
+            newDocuments[document] = liveCount;
+            imdbIds[liveCount] = imdbIds[document];
+            documentLengths[liveCount] = documentLengths[document];
+            documentPostings[liveCount] = documentPostings[document];
+            documentsByImdbId.put(imdbIds[liveCount], liveCount);
+            liveCount++;
+        }
+        for (int document = liveCount; document < documentCount; document++) {
+            imdbIds[document] = null;
+            documentPostings[document] = null;
+        }
+        documentCount = liveCount;
+        postings.values().forEach(termPostings -> termPostings.renumber(newDocuments));
+    }
+
+    private void ensureDocumentCapacity() {
+        if (documentCount == imdbIds.length) {
+            int capacity = 2 * documentCount;
+            imdbIds = Arrays.copyOf(imdbIds, capacity);
+            documentLengths = Arrays.copyOf(documentLengths, capacity);
+            documentPostings = Arrays.copyOf(documentPostings, capacity);
+        }
+    }
+
+    /**
+     * Adds the movie to the index, replacing any previous version of it.
+     */
+    public void put(Movie movie) {
+
+        String imdbId = movie.getImdbId();
+        Map<String, Integer> termFrequencies = getTermFrequencies(movie);
+        int documentLength = termFrequencies.values().stream().mapToInt(Integer::intValue).sum();
+
+        lock.writeLock().lock();
+        try {
+            removeDocument(imdbId);
+            ensureDocumentCapacity();
+            int document = documentCount++;
+            imdbIds[document] = imdbId;
+            documentLengths[document] = documentLength;
+            documentsByImdbId.put(imdbId, document);
+            totalDocumentLength += documentLength;
+
+            Postings[] termPostings = termFrequencies.isEmpty() ? NO_POSTINGS : new Postings[termFrequencies.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> termFrequency : termFrequencies.entrySet()) {
+                Postings postingsOfTerm = postings.computeIfAbsent(termFrequency.getKey(), Postings::new);
+                postingsOfTerm.add(document, termFrequency.getValue());
+                termPostings[i++] = postingsOfTerm;
+            }
+            documentPostings[document] = termPostings;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String imdbId) {
+
+        lock.writeLock().lock();
+        try {
+            removeDocument(imdbId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+
+        lock.readLock().lock();
+        try {
+            return documentsByImdbId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the score of the term to the one of each movie it is in, listing
+     * in matchedDocuments the movies scored for the first time. Callers must
+     * hold the read lock.
+     */
+    private int scoreTerm(Postings termPostings, double averageDocumentLength, double[] scores, int[] matchedDocuments,
+            int matchedCount) {
+
+        double documentCount = documentsByImdbId.size();
+        double idf = Math.log(1 + (documentCount - termPostings.liveSize + 0.5) / (termPostings.liveSize + 0.5));
+
+        int[] documents = termPostings.documents;
+        int[] frequencies = termPostings.frequencies;
+        for (int i = 0; i < termPostings.size; i++) {
+            int document = documents[i];
+            if (imdbIds[document] == null) {
+                continue;
+            }
+            int frequency = frequencies[i];
+            double lengthRatio = documentLengths[document] / averageDocumentLength;
+            double termScore = idf * (frequency * (K1 + 1)) / (frequency + K1 * (1 - B + B * lengthRatio));
+            if (scores[document] == 0) {
+                matchedDocuments[matchedCount++] = document;
+            }
+            scores[document] += termScore;
+        }
+        return matchedCount;
+    }
+
+    /**
+     * Returns the (at most) MAX_PREFIX_EXPANSIONS indexed terms starting with
+     * the query token: the token itself first, then the terms found in more
+     * movies, so a prefix keeps its most common completions whatever the rest
+     * of the vocabulary is. A token shorter than MIN_PREFIX_LENGTH, which would
+     * have to walk most of the vocabulary, only matches itself. Callers must
+     * hold the read lock.
+     */
+    private List<Postings> expandPrefix(String queryToken) {
+
+        if (queryToken.length() < MIN_PREFIX_LENGTH) {
+            Postings termPostings = postings.get(queryToken);
+            return (termPostings == null) ? Collections.<Postings> emptyList() : Collections.singletonList(termPostings);
+        }
+
+        // Worst first: not the token, in fewer movies, later in alphabetical order.
+        Comparator<Postings> byRank = Comparator.<Postings, Boolean> comparing(termPostings -> termPostings.term.equals(queryToken))
+                .thenComparingInt(termPostings -> termPostings.liveSize)
+                .thenComparing(termPostings -> termPostings.term, Comparator.<String> reverseOrder());
+        PriorityQueue<Postings> topTerms = new PriorityQueue<Postings>(byRank);
+        for (Postings termPostings : postings.subMap(queryToken, true, queryToken + Character.MAX_VALUE, false).values()) {
+            topTerms.add(termPostings);
+            if (topTerms.size() > MAX_PREFIX_EXPANSIONS) {
+                topTerms.poll();
+            }
+        }
+        return new ArrayList<Postings>(topTerms);
+    }
+
+    /**
+     * Returns the imdbIds of the (at most) limit movies that best match the
+     * query, most relevant first.
+     */
+    public List<String> search(String query, int limit) {
+
+        List<String> queryTokens = tokenize(query);
+        if (queryTokens.isEmpty() || limit < 1) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            if (documentsByImdbId.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            double averageDocumentLength = (double) totalDocumentLength / documentsByImdbId.size();
+            double[] scores = new double[documentCount];
+            int[] matchedDocuments = new int[documentCount];
+            int matchedCount = 0;
+            for (String queryToken : queryTokens) {
+                for (Postings termPostings : expandPrefix(queryToken)) {
+                    matchedCount = scoreTerm(termPostings, averageDocumentLength, scores, matchedDocuments, matchedCount);
+                }
+            }
+
+            // Ties are broken by imdbId so results are stable.
+            Comparator<Integer> byRelevance = Comparator.<Integer> comparingDouble(document -> scores[document])
+                    .thenComparing(document -> imdbIds[document], Comparator.<String> reverseOrder());
+            PriorityQueue<Integer> topMatches = new PriorityQueue<Integer>(byRelevance);
+            for (int i = 0; i < matchedCount; i++) {
+                int document = matchedDocuments[i];
+                if (topMatches.size() < limit || scores[document] >= scores[topMatches.peek()]) {
+                    topMatches.add(document);
+                    if (topMatches.size() > limit) {
+                        topMatches.poll();
+                    }
+                }
+            }
+
+            List<String> topImdbIds = new ArrayList<String>(topMatches.size());
+            while (!topMatches.isEmpty()) {
+                topImdbIds.add(imdbIds[topMatches.poll()]);
+            }
+            Collections.reverse(topImdbIds);
+            return topImdbIds;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package co.je.movies.infrastructure.cache;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import co.je.movies.domain.entities.Movie;
+import co.je.movies.infrastructure.config.CacheConfig;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Bounded read-through cache of movies by imdbId. Not found lookups are cached
+ * too (as an empty Optional), so callers must invalidate on every write.
+ *
+ * Guava does not cancel a load running when its key is invalidated, so a load
+ * that read the DB before a write committed could store the old movie after
+ * the write invalidated it. Every invalidation bumps the generation of its
+ * key, and a load that ends in a newer generation than the one it started in
+ * drops what it stored.
+ */
+public class MovieCache {
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final Cache<String, Optional<Movie>> cache;
+    // Shared by the imdbIds of a stripe: a write of one of them only costs the others a reload.
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    public MovieCache(long maximumSize, long timeToLiveInSeconds) {
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLiveInSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    public MovieCache(CacheConfig cacheConfig) {
+
+        this(cacheConfig.getMaximumSize(), cacheConfig.getTimeToLiveInSeconds());
+    }
+
+    private static int getStripe(String imdbId) {
+        return (imdbId.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    /**
+     * Returns the generation of the given imdbId. Read it before reading the
+     * movie from the DB, and hand it to putLoaded with what was read.
+     */
+    public long getGeneration(String imdbId) {
+        return generations.get(getStripe(imdbId));
+    }
+
+    /**
+     * Returns the cached value for the given imdbId, or computes it with the
+     * given loader. Any exception thrown by the loader is rethrown as the cause
+     * of an IllegalStateException and nothing is cached. A value loaded while
+     * the imdbId was invalidated is returned but not kept.
+     */
+    public Optional<Movie> get(String imdbId, Callable<Optional<Movie>> loader) {
+        long generation = getGeneration(imdbId);
+        try {
+            Optional<Movie> optionalMovie = cache.get(imdbId, loader);
+            dropIfInvalidatedSince(imdbId, generation);
+            return optionalMovie;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // The value is stored before the generation is read again, and invalidate bumps it before removing the value.
+    private void dropIfInvalidatedSince(String imdbId, long generation) {
+        if (getGeneration(imdbId) != generation) {
+            cache.invalidate(imdbId);
+        }
+    }
+
+    /**
+     * Returns the cached values of the given imdbIds, without loading the
+     * missing ones.
+     */
+    public Map<String, Optional<Movie>> getAllPresent(Iterable<String> imdbIds) {
+        return cache.getAllPresent(imdbIds);
+    }
+
+    /**
+     * Caches the given value, already known to be the last written one.
+     */
+    public void put(String imdbId, Optional<Movie> optionalMovie) {
+        cache.put(imdbId, optionalMovie);
+    }
+
+    /**
+     * Caches the given value, read from the DB after getGeneration returned
+     * the given generation, unless the imdbId was invalidated meanwhile.
+     */
+    public void putLoaded(String imdbId, Optional<Movie> optionalMovie, long generation) {
+        cache.put(imdbId, optionalMovie);
+        dropIfInvalidatedSince(imdbId, generation);
+    }
+
+    public void invalidate(String imdbId) {
+        generations.incrementAndGet(getStripe(imdbId));
+        cache.invalidate(imdbId);
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        String prefix = MetricRegistry.name(MovieCache.class);
+        metricRegistry.register(MetricRegistry.name(prefix, "hits"), (Gauge<Long>) () -> cache.stats().hitCount());
+        metricRegistry.register(MetricRegistry.name(prefix, "misses"), (Gauge<Long>) () -> cache.stats().missCount());
+        metricRegistry.register(MetricRegistry.name(prefix, "evictions"), (Gauge<Long>) () -> cache.stats().evictionCount());
+        metricRegistry.register(MetricRegistry.name(prefix, "size"), (Gauge<Long>) cache::size);
+    }
+}
@@ -0,0 +1,27 @@
+package co.je.movies.infrastructure.config;
+
+
+public class AsyncConfig {
+	
+	private boolean enabled;
+	private int lookupThreads;
+	private int queryThreads;
+	private int queueSize;
+	private long timeoutInMillis;
+	
+    public boolean isEnabled() {
+        return enabled;
+    }
+    public int getLookupThreads() {
+        return lookupThreads;
+    }
+    public int getQueryThreads() {
+        return queryThreads;
+    }
+    public int getQueueSize() {
+        return queueSize;
+    }
+    public long getTimeoutInMillis() {
+        return timeoutInMillis;
+    }
+}
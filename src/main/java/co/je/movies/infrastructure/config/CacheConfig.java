@@ -0,0 +1,15 @@
+package co.je.movies.infrastructure.config;
+
+
+public class CacheConfig {
+	
+	private long maximumSize;
+	private long timeToLiveInSeconds;
+	
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+    public long getTimeToLiveInSeconds() {
+        return timeToLiveInSeconds;
+    }
+}
@@ -0,0 +1,15 @@
+package co.je.movies.infrastructure.config;
+
+
+public class ChangeLogConfig {
+	
+	private long retentionInMillis;
+	private long pruneIntervalInMillis;
+	
+    public long getRetentionInMillis() {
+        return retentionInMillis;
+    }
+    public long getPruneIntervalInMillis() {
+        return pruneIntervalInMillis;
+    }
+}
@@ -5,8 +5,38 @@ import io.dropwizard.Configuration;
 public class MoviesConfig extends Configuration {
 	
 	private SQLConfig sqlConfig;
+	private CacheConfig cacheConfig;
+	private QueryLogConfig queryLogConfig;
+	private SearchConfig searchConfig;
+	private AsyncConfig asyncConfig;
+	private WriteBufferConfig writeBufferConfig;
+	private ChangeLogConfig changeLogConfig;
 
     public SQLConfig getSqlConfig() {
         return sqlConfig;
     }
-}
\ No newline at end of file
+
+    public CacheConfig getCacheConfig() {
+        return cacheConfig;
+    }
+
+    public QueryLogConfig getQueryLogConfig() {
+        return queryLogConfig;
+    }
+
+    public SearchConfig getSearchConfig() {
+        return searchConfig;
+    }
+
+    public AsyncConfig getAsyncConfig() {
+        return asyncConfig;
+    }
+
+    public WriteBufferConfig getWriteBufferConfig() {
+        return writeBufferConfig;
+    }
+
+    public ChangeLogConfig getChangeLogConfig() {
+        return changeLogConfig;
+    }
+}
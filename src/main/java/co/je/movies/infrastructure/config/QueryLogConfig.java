@@ -0,0 +1,30 @@
+package co.je.movies.infrastructure.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class QueryLogConfig {
+	
+	private List<String> operations = new ArrayList<String>();
+	private double sampleRate;
+	private long slowQueryThresholdInMillis;
+	private boolean redactParameters = true;
+	private int queueSize = 1024;
+	
+    public List<String> getOperations() {
+        return operations;
+    }
+    public double getSampleRate() {
+        return sampleRate;
+    }
+    public long getSlowQueryThresholdInMillis() {
+        return slowQueryThresholdInMillis;
+    }
+    public boolean isRedactParameters() {
+        return redactParameters;
+    }
+    public int getQueueSize() {
+        return queueSize;
+    }
+}
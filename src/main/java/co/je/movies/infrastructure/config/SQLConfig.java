@@ -1,5 +1,7 @@
 package co.je.movies.infrastructure.config;
 
+import java.util.ArrayList;
+import java.util.List;
 
 public class SQLConfig {
 	
@@ -9,6 +11,27 @@ public class SQLConfig {
 	private String password;
 	private int removeAbandonedTimeoutInSeconds;
 	private boolean ableToRemoveAbandonedConnections;
+	private int batchSize;
+	private int fetchSize;
+	
+	// connection pool, defaults match the DBCP ones.
+	private int initialSize = 0;
+	private int maxTotal = 8;
+	private int maxIdle = 8;
+	private int minIdle = 0;
+	private long maxWaitInMillis = -1;
+	private String validationQuery;
+	private int validationQueryTimeoutInSeconds = -1;
+	private boolean testOnBorrow = true;
+	private boolean testWhileIdle = false;
+	private long timeBetweenEvictionRunsInMillis = -1;
+	private boolean poolPreparedStatements = false;
+	private int maxOpenPreparedStatements = -1;
+	
+	// read replicas, sharing the credentials and pool settings above.
+	private List<String> replicaUrls = new ArrayList<String>();
+	private long replicaRetryIntervalInMillis = 5000;
+	private long readYourWritesWindowInMillis = 5000;
 	
     public String getDriverClass() {
         return driverClass;
@@ -28,4 +51,55 @@ public class SQLConfig {
     public boolean isAbleToRemoveAbandonedConnections() {
         return ableToRemoveAbandonedConnections;
     }
+    public int getBatchSize() {
+        return batchSize;
+    }
+    public int getFetchSize() {
+        return fetchSize;
+    }
+    public int getInitialSize() {
+        return initialSize;
+    }
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+    public int getMinIdle() {
+        return minIdle;
+    }
+    public long getMaxWaitInMillis() {
+        return maxWaitInMillis;
+    }
+    public String getValidationQuery() {
+        return validationQuery;
+    }
+    public int getValidationQueryTimeoutInSeconds() {
+        return validationQueryTimeoutInSeconds;
+    }
+    public boolean isTestOnBorrow() {
+        return testOnBorrow;
+    }
+    public boolean isTestWhileIdle() {
+        return testWhileIdle;
+    }
+    public long getTimeBetweenEvictionRunsInMillis() {
+        return timeBetweenEvictionRunsInMillis;
+    }
+    public boolean isPoolPreparedStatements() {
+        return poolPreparedStatements;
+    }
+    public int getMaxOpenPreparedStatements() {
+        return maxOpenPreparedStatements;
+    }
+    public List<String> getReplicaUrls() {
+        return replicaUrls;
+    }
+    public long getReplicaRetryIntervalInMillis() {
+        return replicaRetryIntervalInMillis;
+    }
+    public long getReadYourWritesWindowInMillis() {
+        return readYourWritesWindowInMillis;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package co.je.movies.infrastructure.config;
+
+
+public class SearchConfig {
+	
+	private boolean columnIndexEnabled;
+	private int parallelism;
+	private int parallelThresholdInRows;
+	
+    public boolean isColumnIndexEnabled() {
+        return columnIndexEnabled;
+    }
+    public int getParallelism() {
+        return parallelism;
+    }
+    public int getParallelThresholdInRows() {
+        return parallelThresholdInRows;
+    }
+}
@@ -0,0 +1,23 @@
+package co.je.movies.infrastructure.config;
+
+
+public class WriteBufferConfig {
+	
+	private boolean enabled;
+	private long flushIntervalInMillis;
+	private int flushSize;
+	private int maxPendingMovies;
+	
+    public boolean isEnabled() {
+        return enabled;
+    }
+    public long getFlushIntervalInMillis() {
+        return flushIntervalInMillis;
+    }
+    public int getFlushSize() {
+        return flushSize;
+    }
+    public int getMaxPendingMovies() {
+        return maxPendingMovies;
+    }
+}
@@ -0,0 +1,92 @@
+package co.je.movies.infrastructure.datasource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+
+import co.je.movies.infrastructure.config.SQLConfig;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * DBCP data source configured from SQLConfig that times every connection
+ * borrow and publishes the state of its pool to the metrics registry.
+ */
+public class InstrumentedDataSource extends BasicDataSource {
+
+    // Threads inside getConnection: waiting for a free connection, validating one or opening a new one.
+    private final AtomicInteger connectionRequestsInFlight = new AtomicInteger();
+    private final String name;
+    private Timer borrowTimer;
+
+    public InstrumentedDataSource(SQLConfig sqlConfig) {
+        this(sqlConfig, sqlConfig.getUrl(), null);
+    }
+
+    /**
+     * A data source for the given url, a read replica for instance, whose
+     * metrics are published under the given name.
+     */
+    public InstrumentedDataSource(SQLConfig sqlConfig, String url, String name) {
+
+        this.name = name;
+        setDriverClassName(sqlConfig.getDriverClass());
+        setUrl(url);
+        setUsername(sqlConfig.getUsername());
+        setPassword(sqlConfig.getPassword());
+
+        setInitialSize(sqlConfig.getInitialSize());
+        setMaxTotal(sqlConfig.getMaxTotal());
+        setMaxIdle(sqlConfig.getMaxIdle());
+        setMinIdle(sqlConfig.getMinIdle());
+        setMaxWaitMillis(sqlConfig.getMaxWaitInMillis());
+
+        setValidationQuery(sqlConfig.getValidationQuery());
+        setValidationQueryTimeout(sqlConfig.getValidationQueryTimeoutInSeconds());
+        setTestOnBorrow(sqlConfig.isTestOnBorrow());
+        setTestWhileIdle(sqlConfig.isTestWhileIdle());
+        setTimeBetweenEvictionRunsMillis(sqlConfig.getTimeBetweenEvictionRunsInMillis());
+
+        setPoolPreparedStatements(sqlConfig.isPoolPreparedStatements());
+        setMaxOpenPreparedStatements(sqlConfig.getMaxOpenPreparedStatements());
+
+        boolean ableToRemoveAbandonedConnections = sqlConfig.isAbleToRemoveAbandonedConnections();
+        setRemoveAbandonedOnBorrow(ableToRemoveAbandonedConnections);
+        setRemoveAbandonedOnMaintenance(ableToRemoveAbandonedConnections);
+        setRemoveAbandonedTimeout(sqlConfig.getRemoveAbandonedTimeoutInSeconds());
+    }
+
+    /**
+     * Borrows a connection from the pool, counting the borrows in flight and
+     * timing how long each one takes.
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+
+        connectionRequestsInFlight.incrementAndGet();
+        Timer.Context context = Objects.isNull(borrowTimer) ? null : borrowTimer.time();
+        try {
+            return super.getConnection();
+        } finally {
+            connectionRequestsInFlight.decrementAndGet();
+            if (Objects.nonNull(context)) {
+                context.stop();
+            }
+        }
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        String prefix = MetricRegistry.name(InstrumentedDataSource.class, name);
+        borrowTimer = metricRegistry.timer(MetricRegistry.name(prefix, "borrow"));
+        metricRegistry.register(MetricRegistry.name(prefix, "active"), (Gauge<Integer>) this::getNumActive);
+        metricRegistry.register(MetricRegistry.name(prefix, "idle"), (Gauge<Integer>) this::getNumIdle);
+        metricRegistry.register(MetricRegistry.name(prefix, "maxTotal"), (Gauge<Integer>) this::getMaxTotal);
+        metricRegistry.register(MetricRegistry.name(prefix, "connectionRequestsInFlight"),
+                (Gauge<Integer>) connectionRequestsInFlight::get);
+    }
+}
@@ -0,0 +1,158 @@
+package co.je.movies.infrastructure.datasource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Sends the reads that may be slightly stale to the read replicas, taking
+ * turns. A replica that can't give a connection, or whose connection breaks
+ * during a read, is skipped for retryIntervalInMillis and the read goes on
+ * with the next one. When no replica is left the read runs on the primary,
+ * like every read of a client that wrote less than readYourWritesWindowInMillis
+ * ago, so it is not answered by a replica that has not caught up with it yet.
+ */
+public class ReplicaRouter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaRouter.class);
+    private static final int VALIDATION_TIMEOUT_IN_SECONDS = 2;
+
+    private final BasicDataSource primary;
+    private final List<Replica> replicas = new ArrayList<Replica>();
+    private final long retryIntervalInMillis;
+    private final long readYourWritesWindowInMillis;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    private final Meter primaryReads = new Meter();
+    private final Meter replicaFailures = new Meter();
+
+    private static class Replica {
+
+        private final BasicDataSource dataSource;
+        private volatile long skippedUntilInMillis = 0;
+
+        private Replica(BasicDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+    }
+
+    /**
+     * A read that may run on any of the data sources.
+     */
+    @FunctionalInterface
+    public interface Read<T> {
+        T run(Connection dbConnection) throws SQLException;
+    }
+
+    /**
+     * With replicas, readYourWritesWindowInMillis must be positive: movies read
+     * from a replica are cached, so without a window a replica that has not
+     * caught up would put back in the cache the movie a write just replaced.
+     */
+    public ReplicaRouter(BasicDataSource primary, List<BasicDataSource> replicas, long retryIntervalInMillis,
+            long readYourWritesWindowInMillis) {
+
+        if (!replicas.isEmpty() && readYourWritesWindowInMillis <= 0) {
+            throw new IllegalArgumentException("readYourWritesWindowInMillis must be positive when there are read replicas.");
+        }
+        this.primary = primary;
+        replicas.forEach(replica -> this.replicas.add(new Replica(replica)));
+        this.retryIntervalInMillis = Math.max(0, retryIntervalInMillis);
+        this.readYourWritesWindowInMillis = Math.max(0, readYourWritesWindowInMillis);
+    }
+
+    public long getReadYourWritesWindowInMillis() {
+        return readYourWritesWindowInMillis;
+    }
+
+    /**
+     * Whether a client whose last write was at writtenAtInMillis (0 if it did
+     * not tell) must still read from the primary.
+     */
+    public boolean isInReadYourWritesWindow(long writtenAtInMillis) {
+        return writtenAtInMillis > 0 && System.currentTimeMillis() - writtenAtInMillis < readYourWritesWindowInMillis;
+    }
+
+    public int getHealthyReplicas() {
+        long now = System.currentTimeMillis();
+        return (int) replicas.stream().filter(replica -> replica.skippedUntilInMillis <= now).count();
+    }
+
+    private void skip(Replica replica, SQLException e) {
+        replicaFailures.mark();
+        replica.skippedUntilInMillis = System.currentTimeMillis() + retryIntervalInMillis;
+        LOGGER.warn("Skipping a read replica for " + retryIntervalInMillis + " ms", e);
+    }
+
+    private static boolean isValid(Connection dbConnection) {
+        try {
+            return dbConnection.isValid(VALIDATION_TIMEOUT_IN_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs read on the next replica not skipped, or on the primary if there is
+     * none left. An error of the read itself, on a connection that is still
+     * valid, is thrown as it is: the primary would fail it too.
+     */
+    public <T> T read(Read<T> read) throws SQLException {
+
+        int replicaCount = replicas.size();
+        int firstReplica = (replicaCount == 0) ? 0 : Math.floorMod(nextReplica.getAndIncrement(), replicaCount);
+        for (int i = 0; i < replicaCount; i++) {
+
+            Replica replica = replicas.get((firstReplica + i) % replicaCount);
+            if (replica.skippedUntilInMillis > System.currentTimeMillis()) {
+                continue;
+            }
+
+            Connection dbConnection;
+            try {
+                dbConnection = replica.dataSource.getConnection();
+            } catch (SQLException e) {
+                skip(replica, e);
+                continue;
+            }
+
+            try {
+                return read.run(dbConnection);
+            } catch (SQLException e) {
+                if (isValid(dbConnection)) {
+                    throw e;
+                }
+                skip(replica, e);
+            } finally {
+                dbConnection.close();
+            }
+        }
+
+        return readFromPrimary(read);
+    }
+
+    public <T> T readFromPrimary(Read<T> read) throws SQLException {
+
+        primaryReads.mark();
+        try (Connection dbConnection = primary.getConnection()) {
+            return read.run(dbConnection);
+        }
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+
+        metricRegistry.register(MetricRegistry.name(ReplicaRouter.class, "healthyReplicas"), (Gauge<Integer>) this::getHealthyReplicas);
+        metricRegistry.register(MetricRegistry.name(ReplicaRouter.class, "primaryReads"), primaryReads);
+        metricRegistry.register(MetricRegistry.name(ReplicaRouter.class, "replicaFailures"), replicaFailures);
+    }
+}
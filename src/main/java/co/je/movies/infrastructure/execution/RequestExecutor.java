@@ -0,0 +1,179 @@
+package co.je.movies.infrastructure.execution;
+
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Runs the work of suspended requests on a bounded pool, so requests waiting
+ * on the DB don't hold Jetty threads. When the pool and its queue are full the
+ * request is answered right away with 503 and Retry-After; reads that wait
+ * longer than the timeout are answered with 503 too. Writes never time out:
+ * the work can't be stopped once it runs, so a 503 would tell the client a
+ * write failed that may still be committed.
+ */
+public class RequestExecutor implements Managed {
+
+    private static final int RETRY_AFTER_IN_SECONDS = 1;
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutInMillis;
+    private final Meter rejectedRequests = new Meter();
+    private final Meter timedOutRequests = new Meter();
+
+    /**
+     * A request executor with the given number of threads and of queued
+     * requests. A timeout that is not positive disables it.
+     */
+    public RequestExecutor(String name, int threads, int queueSize, long timeoutInMillis) {
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.name = name;
+        this.timeoutInMillis = timeoutInMillis;
+        this.executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "movies-" + name + "-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    private RequestExecutor() {
+        this.name = "direct";
+        this.executor = null;
+        this.timeoutInMillis = 0;
+    }
+
+    /**
+     * A request executor that runs the work on the request thread.
+     */
+    public static RequestExecutor direct() {
+        return new RequestExecutor();
+    }
+
+    private static Response getServiceUnavailableResponse(String error) {
+        return Response.status(Status.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_IN_SECONDS)
+                .entity(Collections.singletonMap("error", error))
+                .build();
+    }
+
+    private static void resume(AsyncResponse asyncResponse, Supplier<Optional<Response>> work) {
+        try {
+            work.get().ifPresent(asyncResponse::resume);
+        } catch (RuntimeException e) {
+            // Let Jersey map it, as if the resource method had thrown it.
+            asyncResponse.resume(e);
+        } catch (Throwable t) {
+            // Errors would otherwise leave the request suspended until the client gives up.
+            asyncResponse.resume(Response.status(Status.INTERNAL_SERVER_ERROR)
+                    .entity(Collections.singletonMap("error", "There was an error processing your request."))
+                    .build());
+            throw t;
+        }
+    }
+
+    /**
+     * Resumes asyncResponse with the response built by work, a read, once a
+     * thread of the pool is free.
+     */
+    public void execute(AsyncResponse asyncResponse, Supplier<Response> work) {
+
+        executeOrWait(asyncResponse, () -> Optional.of(work.get()));
+    }
+
+    /**
+     * Like execute, for work that writes: it is not answered with 503 when it
+     * takes longer than the timeout, only when the pool and its queue are full
+     * and nothing was written.
+     */
+    public void executeWrite(AsyncResponse asyncResponse, Supplier<Response> work) {
+
+        submit(asyncResponse, () -> Optional.of(work.get()), false);
+    }
+
+    /**
+     * Like execute, but work may answer empty to leave asyncResponse suspended,
+     * when it has arranged to resume it later itself. It may set its own
+     * timeout then, replacing the one of this executor.
+     */
+    public void executeOrWait(AsyncResponse asyncResponse, Supplier<Optional<Response>> work) {
+
+        submit(asyncResponse, work, true);
+    }
+
+    private void submit(AsyncResponse asyncResponse, Supplier<Optional<Response>> work, boolean timesOut) {
+
+        if (executor == null) {
+            resume(asyncResponse, work);
+            return;
+        }
+
+        if (timesOut && timeoutInMillis > 0) {
+            asyncResponse.setTimeoutHandler(timedOutResponse -> {
+                timedOutRequests.mark();
+                timedOutResponse.resume(getServiceUnavailableResponse("The request timed out."));
+            });
+            asyncResponse.setTimeout(timeoutInMillis, TimeUnit.MILLISECONDS);
+        }
+
+        try {
+            executor.execute(() -> {
+                // It may have timed out while queued.
+                if (!asyncResponse.isDone()) {
+                    resume(asyncResponse, work);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedRequests.mark();
+            asyncResponse.resume(getServiceUnavailableResponse("The service is busy, try again later."));
+        }
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+
+        if (executor == null) {
+            return;
+        }
+
+        String prefix = MetricRegistry.name(RequestExecutor.class, name);
+        metricRegistry.register(MetricRegistry.name(prefix, "queueDepth"), (Gauge<Integer>) () -> executor.getQueue().size());
+        metricRegistry.register(MetricRegistry.name(prefix, "activeThreads"), (Gauge<Integer>) executor::getActiveCount);
+        metricRegistry.register(MetricRegistry.name(prefix, "rejected"), rejectedRequests);
+        metricRegistry.register(MetricRegistry.name(prefix, "timedOut"), timedOutRequests);
+    }
+
+    @Override
+    public void start() throws Exception {
+    }
+
+    /**
+     * Stops taking requests and waits, up to the timeout, for the running ones.
+     */
+    @Override
+    public void stop() throws Exception {
+
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(Math.max(timeoutInMillis, 1000), TimeUnit.MILLISECONDS);
+        }
+    }
+}
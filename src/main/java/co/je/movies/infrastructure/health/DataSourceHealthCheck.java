@@ -0,0 +1,32 @@
+package co.je.movies.infrastructure.health;
+
+import java.sql.Connection;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+
+import com.codahale.metrics.health.HealthCheck;
+
+/**
+ * Healthy when a connection can be borrowed from the pool and is still valid.
+ */
+public class DataSourceHealthCheck extends HealthCheck {
+
+    private static final int VALIDATION_TIMEOUT_IN_SECONDS = 2;
+
+    private final BasicDataSource dataSource;
+
+    public DataSourceHealthCheck(BasicDataSource dataSource) {
+
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    protected Result check() throws Exception {
+        try (Connection dbConnection = dataSource.getConnection()) {
+            String poolState = "active: " + dataSource.getNumActive() + ", idle: " + dataSource.getNumIdle() + ", maxTotal: "
+                    + dataSource.getMaxTotal();
+            return dbConnection.isValid(VALIDATION_TIMEOUT_IN_SECONDS) ? Result.healthy(poolState)
+                    : Result.unhealthy("Borrowed an invalid connection. " + poolState);
+        }
+    }
+}
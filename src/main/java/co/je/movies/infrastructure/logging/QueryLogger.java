@@ -0,0 +1,148 @@
+package co.je.movies.infrastructure.logging;
+
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import co.je.movies.infrastructure.config.QueryLogConfig;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Logs DB queries outside of the request threads. Queries slower than the
+ * threshold are always logged as warnings; the rest only if their operation is
+ * enabled, they are sampled and DEBUG is on for this logger. When nothing is
+ * logged, a call costs a clock read and a few comparisons. Stopping it writes
+ * the queued entries before returning.
+ */
+public class QueryLogger implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryLogger.class);
+    private static final String ALL_OPERATIONS = "*";
+    private static final String REDACTED = "<redacted>";
+    private static final long STOP_TIMEOUT_IN_MILLIS = 5000;
+
+    private final Set<String> operations;
+    private final double sampleRate;
+    private final long slowQueryThresholdInNanos;
+    private final boolean redactParameters;
+    private final ExecutorService executor;
+    private final AtomicLong droppedEntries = new AtomicLong();
+
+    public QueryLogger(QueryLogConfig queryLogConfig) {
+
+        this.operations = new HashSet<String>(queryLogConfig.getOperations());
+        this.sampleRate = queryLogConfig.getSampleRate();
+        long slowQueryThresholdInMillis = queryLogConfig.getSlowQueryThresholdInMillis();
+        this.slowQueryThresholdInNanos = (slowQueryThresholdInMillis > 0) ? TimeUnit.MILLISECONDS.toNanos(slowQueryThresholdInMillis)
+                : Long.MAX_VALUE;
+        this.redactParameters = queryLogConfig.isRedactParameters();
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queryLogConfig.getQueueSize())),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "query-logger");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> droppedEntries.incrementAndGet());
+    }
+
+    private QueryLogger() {
+        this.operations = Collections.emptySet();
+        this.sampleRate = 0;
+        this.slowQueryThresholdInNanos = Long.MAX_VALUE;
+        this.redactParameters = true;
+        this.executor = null;
+    }
+
+    /**
+     * A query logger that logs nothing, not even slow queries, and starts no
+     * thread.
+     */
+    public static QueryLogger disabled() {
+        return new QueryLogger();
+    }
+
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Logs the given operation, which started at startTime (from start()). The
+     * parameter identifies what was queried, e.g. an imdbId, and is redacted if
+     * configured so.
+     */
+    public void log(String operation, long startTime, Object parameter) {
+
+        if (executor == null) {
+            return;
+        }
+
+        long elapsedInNanos = System.nanoTime() - startTime;
+        boolean isSlow = elapsedInNanos >= slowQueryThresholdInNanos;
+        boolean isSampled = !isSlow && isEnabled(operation) && ThreadLocalRandom.current().nextDouble() < sampleRate;
+
+        if (isSlow || isSampled) {
+            Object loggedParameter = redactParameters ? REDACTED : parameter;
+            executor.execute(() -> write(isSlow, operation, elapsedInNanos, loggedParameter));
+        }
+    }
+
+    private boolean isEnabled(String operation) {
+        return (operations.contains(operation) || operations.contains(ALL_OPERATIONS)) && isDebugEnabled();
+    }
+
+    boolean isDebugEnabled() {
+        return LOGGER.isDebugEnabled();
+    }
+
+    void write(boolean isSlow, String operation, long elapsedInNanos, Object parameter) {
+        double elapsedInMillis = elapsedInNanos / 1_000_000.0;
+        if (isSlow) {
+            LOGGER.warn("slow query: operation={} elapsedInMillis={} parameter={}", operation, elapsedInMillis, parameter);
+        } else {
+            LOGGER.debug("query: operation={} elapsedInMillis={} parameter={}", operation, elapsedInMillis, parameter);
+        }
+    }
+
+    /**
+     * Number of entries that were not logged because the queue was full.
+     */
+    public long getDroppedEntries() {
+        return droppedEntries.get();
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        String prefix = MetricRegistry.name(QueryLogger.class);
+        metricRegistry.register(MetricRegistry.name(prefix, "droppedEntries"), (Gauge<Long>) droppedEntries::get);
+    }
+
+    @Override
+    public void start() throws Exception {
+    }
+
+    /**
+     * Stops taking entries and waits, up to a timeout, for the queued ones to
+     * be written.
+     */
+    @Override
+    public void stop() throws Exception {
+
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(STOP_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -1,155 +1,1011 @@
 package co.je.movies.persistence.daos;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
-import java.time.LocalDateTime;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang3.StringUtils;
+import org.h2.api.ErrorCode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import co.je.movies.domain.entities.CreationStatus;
+import co.je.movies.domain.entities.FilmRating;
 import co.je.movies.domain.entities.Movie;
+import co.je.movies.domain.entities.MovieChange;
+import co.je.movies.domain.entities.MovieChangeType;
+import co.je.movies.domain.entities.MovieCreationResult;
+import co.je.movies.domain.entities.MovieField;
+import co.je.movies.domain.entities.MovieStats;
+import co.je.movies.infrastructure.logging.QueryLogger;
 import co.je.movies.persistence.mappers.MovieMapper;
 
 public class MovieDAO {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MovieDAO.class);
 
+    /*
+     * Every statement is built from a constant SQL string, so the pooled
+     * connections can reuse the already prepared statements (see
+     * sqlConfig.poolPreparedStatements) instead of parsing them again. The
+     * searches select the columns of the requested fields, in a fixed order, so
+     * each set of fields still maps to a single SQL string.
+     */
+    private static final String CREATE_TABLE_IF_NEEDED_SQL = "CREATE TABLE IF NOT EXISTS movies "
+            + "(imdbId VARCHAR(128) PRIMARY KEY, title VARCHAR(512), runtimeInMinutes SMALLINT, releaseDate TIMESTAMP, filmRating VARCHAR(32), genre VARCHAR(128), "
+            + "director VARCHAR(256), plot VARCHAR(1024), metascore SMALLINT, imdbRating DECIMAL(2,1), imdbVotes BIGINT);";
+    private static final String CREATE_SCHEMA_VERSION_TABLE_SQL = "CREATE TABLE IF NOT EXISTS schema_version (version INT PRIMARY KEY);";
+    private static final String GET_SCHEMA_VERSION_SQL = "SELECT COALESCE(MAX(version), 0) FROM schema_version;";
+    private static final String SET_SCHEMA_VERSION_SQL = "INSERT INTO schema_version (version) VALUES (?);";
+
+    private static final String CREATE_MOVIE_SQL = "INSERT INTO movies (imdbId, title, runtimeInMinutes, releaseEpochDay, filmRating, genre, director, plot, metascore, "
+            + "imdbRatingInTenths, imdbVotes, version, lastModifiedInMillis) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 1, ?);";
+    // Keeps the version it writes, 1 when the movie is new, like UPDATE_MOVIE_SQL_SUFFIX.
+    private static final String UPSERT_MOVIE_SQL = "MERGE INTO movies (imdbId, title, runtimeInMinutes, releaseEpochDay, filmRating, genre, director, plot, "
+            + "metascore, imdbRatingInTenths, imdbVotes, lastModifiedInMillis, version) KEY (imdbId) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, "
+            + "SET(@upsertedVersion, COALESCE((SELECT version + 1 FROM movies WHERE imdbId = ?), 1)));";
+    private static final String GET_UPSERTED_VERSION_SQL = "CALL @upsertedVersion;";
+    private static final String GET_MOVIE_BY_IMDB_ID_SQL = "SELECT " + MovieMapper.COLUMNS + " FROM movies WHERE imdbId = ?;";
+    private static final String GET_MOVIE_BY_IMDB_ID_FOR_UPDATE_SQL = "SELECT " + MovieMapper.COLUMNS
+            + " FROM movies WHERE imdbId = ? FOR UPDATE;";
+    private static final String SEARCH_CONDITIONS_SQL = "lowerTitle LIKE ? AND runtimeInMinutes >= ? AND metascore >= ? AND imdbRatingInTenths >= ? AND imdbVotes >= ?";
+    private static final String GET_MOVIES_BY_PARAMS_SQL_SUFFIX = " FROM movies WHERE " + SEARCH_CONDITIONS_SQL
+            + " AND imdbId > ? ORDER BY imdbId LIMIT ?;";
+    private static final String STREAM_MOVIES_BY_PARAMS_SQL_SUFFIX = " FROM movies WHERE " + SEARCH_CONDITIONS_SQL + ";";
+    private static final String STREAM_ALL_MOVIES_SQL = "SELECT " + MovieMapper.COLUMNS + " FROM movies ORDER BY imdbId;";
+    /*
+     * H2 has no UPDATE ... RETURNING, so the UPDATE keeps the version it sets
+     * in a session variable, read back without touching the movies table. It
+     * is the one round trip an update adds to the UPDATE and its change log
+     * entry, whose seq is not read back.
+     */
+    private static final String UPDATE_MOVIE_SQL_SUFFIX = "version = SET(@updatedVersion, version + 1), lastModifiedInMillis = ? WHERE imdbId = ?;";
+    private static final String GET_UPDATED_VERSION_SQL = "CALL @updatedVersion;";
+    private static final Set<MovieField> UPDATABLE_FIELDS = Collections.unmodifiableSet(EnumSet.complementOf(EnumSet.of(MovieField.IMDB_ID)));
+    // A null param leaves its column as it is, so every update of stats fits in one batch.
+    private static final String UPDATE_MOVIE_STATS_SQL = "UPDATE movies SET metascore = COALESCE(?, metascore), "
+            + "imdbRatingInTenths = COALESCE(?, imdbRatingInTenths), imdbVotes = COALESCE(?, imdbVotes), version = version + 1, "
+            + "lastModifiedInMillis = ? WHERE imdbId = ?;";
+    private static final String DELETE_MOVIE_SQL = "DELETE FROM movies WHERE imdbId = ?;";
+    /*
+     * The seq of each change is taken from the single row of movie_change_seq.
+     * Its lock is held until the transaction ends, so changes are committed in
+     * seq order: a reader never sees a seq while a smaller one may still come.
+     * Under MVStore a writer finding it locked fails instead of waiting, so
+     * the writers of this instance wait for changeSeqLock first; see
+     * isLockConflict for the ones of other instances.
+     */
+    private static final String ADVANCE_CHANGE_SEQ_SQL = "UPDATE movie_change_seq SET lastSeq = SET(@lastChangeSeq, lastSeq + ?) WHERE id = 1;";
+    // Counts the seq back from the last one just taken, so it is never read back.
+    private static final String APPEND_CHANGE_SQL = "INSERT INTO movie_changes (seq, imdbId, changeType, changedInMillis) "
+            + "VALUES (@lastChangeSeq - ?, ?, ?, ?);";
+    private static final String GET_CHANGES_SQL = "SELECT seq, imdbId, changeType, changedInMillis FROM movie_changes WHERE seq > ? "
+            + "ORDER BY seq LIMIT ?;";
+    private static final String GET_LAST_CHANGE_SEQ_SQL = "SELECT lastSeq FROM movie_change_seq WHERE id = 1;";
+    private static final String GET_PRUNED_CHANGE_SEQ_SQL = "SELECT prunedSeq FROM movie_change_seq WHERE id = 1;";
+    private static final String GET_LAST_CHANGE_SEQ_BEFORE_SQL = "SELECT COALESCE(MAX(seq), 0) FROM movie_changes WHERE changedInMillis < ?;";
+    private static final String DELETE_CHANGES_SQL = "DELETE FROM movie_changes WHERE seq <= ?;";
+    private static final String SET_PRUNED_CHANGE_SEQ_SQL = "UPDATE movie_change_seq SET prunedSeq = ? WHERE id = 1 AND prunedSeq < ?;";
+
+    /**
+     * Schema changes applied after the movies table is created. The statements
+     * at position i take the schema to version i + 1. Only append new entries.
+     * Every ? of a statement is bound to the time of the migration, in millis.
+     */
+    private static final String[][] SCHEMA_MIGRATIONS = {
+        {
+            // Lower case copy of the title kept by H2, so searches don't compute lower(title) per row.
+            "ALTER TABLE movies ADD COLUMN IF NOT EXISTS lowerTitle VARCHAR(512) AS LOWER(title);",
+            "CREATE INDEX IF NOT EXISTS movies_lowerTitle_idx ON movies (lowerTitle);",
+            "CREATE INDEX IF NOT EXISTS movies_runtimeInMinutes_idx ON movies (runtimeInMinutes);",
+            "CREATE INDEX IF NOT EXISTS movies_metascore_idx ON movies (metascore);",
+            "CREATE INDEX IF NOT EXISTS movies_imdbRating_idx ON movies (imdbRating);",
+            "CREATE INDEX IF NOT EXISTS movies_imdbVotes_idx ON movies (imdbVotes);"
+        },
+        {
+            // Film ratings are stored as FilmRating codes instead of their plain names.
+            "ALTER TABLE movies ADD COLUMN IF NOT EXISTS filmRatingCode TINYINT;",
+            "UPDATE movies SET filmRatingCode = CASE UPPER(filmRating) WHEN 'G' THEN 1 WHEN 'PG' THEN 2 WHEN 'PG-13' THEN 3 "
+                    + "WHEN 'R' THEN 4 WHEN 'NC-17' THEN 5 END;",
+            "ALTER TABLE movies DROP COLUMN filmRating;",
+            "ALTER TABLE movies ALTER COLUMN filmRatingCode RENAME TO filmRating;"
+        },
+        {
+            // Release dates are stored as days since 1970-01-01 and IMDB ratings in tenths, see Movie.
+            "ALTER TABLE movies ADD COLUMN IF NOT EXISTS releaseEpochDay INT;",
+            "ALTER TABLE movies ADD COLUMN IF NOT EXISTS imdbRatingInTenths SMALLINT;",
+            "UPDATE movies SET releaseEpochDay = DATEDIFF('DAY', DATE '1970-01-01', releaseDate), "
+                    + "imdbRatingInTenths = CAST(imdbRating * 10 AS SMALLINT);",
+            "DROP INDEX IF EXISTS movies_imdbRating_idx;",
+            "ALTER TABLE movies DROP COLUMN releaseDate;",
+            "ALTER TABLE movies DROP COLUMN imdbRating;",
+            "CREATE INDEX IF NOT EXISTS movies_imdbRatingInTenths_idx ON movies (imdbRatingInTenths);"
+        },
+        {
+            // Version and last modification time of each movie, for conditional GETs.
+            "ALTER TABLE movies ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 1 NOT NULL;",
+            "ALTER TABLE movies ADD COLUMN IF NOT EXISTS lastModifiedInMillis BIGINT;",
+            "UPDATE movies SET lastModifiedInMillis = ?;"
+        },
+        {
+            // Change log of the movies, for GET /movies/changes. Changes up to prunedSeq were deleted.
+            "CREATE TABLE IF NOT EXISTS movie_changes (seq BIGINT PRIMARY KEY, imdbId VARCHAR(128) NOT NULL, "
+                    + "changeType TINYINT NOT NULL, changedInMillis BIGINT NOT NULL);",
+            "CREATE INDEX IF NOT EXISTS movie_changes_changedInMillis_idx ON movie_changes (changedInMillis);",
+            "CREATE TABLE IF NOT EXISTS movie_change_seq (id TINYINT PRIMARY KEY, lastSeq BIGINT NOT NULL, prunedSeq BIGINT NOT NULL);",
+            "INSERT INTO movie_change_seq (id, lastSeq, prunedSeq) VALUES (1, 0, 0);"
+        }
+    };
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final int DEFAULT_FETCH_SIZE = 200;
+    /** How long a write waits for the change seq before failing. */
+    public static final long LOCK_WAIT_TIMEOUT_IN_MILLIS = 10000;
+    // H2's SQL state of a lock timeout.
+    private static final String LOCK_TIMEOUT_SQL_STATE = "HYT00";
+
+    private final int batchSize;
+    private final int fetchSize;
+    private final QueryLogger queryLogger;
+    // Held from the update of the seq row until the transaction ends, see releaseChangeSeq. Fair, so writers take turns.
+    private final ReentrantLock changeSeqLock = new ReentrantLock(true);
+    // Always have batchSize placeholders, so a single statement serves every chunk.
+    private final String getExistingImdbIdsSQL;
+    private final String getMoviesByImdbIdsSQL;
+
+    public MovieDAO() {
+        this(DEFAULT_BATCH_SIZE, DEFAULT_FETCH_SIZE, QueryLogger.disabled());
+    }
+
+    public MovieDAO(int batchSize, int fetchSize, QueryLogger queryLogger) {
+        this.batchSize = (batchSize > 0) ? batchSize : DEFAULT_BATCH_SIZE;
+        this.fetchSize = (fetchSize > 0) ? fetchSize : DEFAULT_FETCH_SIZE;
+        this.queryLogger = queryLogger;
+        String placeholders = String.join(", ", Collections.nCopies(this.batchSize, "?"));
+        this.getExistingImdbIdsSQL = "SELECT imdbId FROM movies WHERE imdbId IN (" + placeholders + ");";
+        this.getMoviesByImdbIdsSQL = "SELECT " + MovieMapper.COLUMNS + " FROM movies WHERE imdbId IN (" + placeholders + ");";
+    }
+
     public void createTableIfNotExists(Connection dbConnection) throws SQLException {
 
-        String createTableIfNeededSQL = "CREATE TABLE IF NOT EXISTS movies "
-                + "(imdbId VARCHAR(128) PRIMARY KEY, title VARCHAR(512), runtimeInMinutes SMALLINT, releaseDate TIMESTAMP, filmRating VARCHAR(32), genre VARCHAR(128), "
-                + "director VARCHAR(256), plot VARCHAR(1024), metascore SMALLINT, imdbRating DECIMAL(2,1), imdbVotes BIGINT);";
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(CREATE_TABLE_IF_NEEDED_SQL)) {
+            prepareStatement.executeUpdate();
+        }
 
-        PreparedStatement prepareStatement = dbConnection.prepareStatement(createTableIfNeededSQL);
-        prepareStatement.executeUpdate();
-        prepareStatement.close();
+        migrateSchema(dbConnection);
     }
 
-    public String createMovie(Connection dbConnection, Movie movie) throws SQLException {
+    private int getSchemaVersion(Connection dbConnection) throws SQLException {
+
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(CREATE_SCHEMA_VERSION_TABLE_SQL)) {
+            prepareStatement.executeUpdate();
+        }
+
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(GET_SCHEMA_VERSION_SQL);
+                ResultSet resultSet = prepareStatement.executeQuery()) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Runs, in order, every migration of SCHEMA_MIGRATIONS newer than the version
+     * stored in the schema_version table, each one in a transaction with the
+     * record of its version. H2 commits DDL statements on its own, so only what
+     * follows the last one of a migration is rolled back if it fails.
+     */
+    private void migrateSchema(Connection dbConnection) throws SQLException {
+
+        int schemaVersion = getSchemaVersion(dbConnection);
+
+        for (int version = schemaVersion + 1; version <= SCHEMA_MIGRATIONS.length; version++) {
+
+            long migratedInMillis = System.currentTimeMillis();
+            dbConnection.setAutoCommit(false);
+            try {
+                for (String migrationSQL : SCHEMA_MIGRATIONS[version - 1]) {
+                    try (PreparedStatement prepareStatement = dbConnection.prepareStatement(migrationSQL)) {
+                        int parameterCount = prepareStatement.getParameterMetaData().getParameterCount();
+                        for (int parameterIndex = 1; parameterIndex <= parameterCount; parameterIndex++) {
+                            prepareStatement.setLong(parameterIndex, migratedInMillis);
+                        }
+                        prepareStatement.executeUpdate();
+                    }
+                }
+
+                try (PreparedStatement prepareStatement = dbConnection.prepareStatement(SET_SCHEMA_VERSION_SQL)) {
+                    prepareStatement.setInt(1, version);
+                    prepareStatement.executeUpdate();
+                }
+                dbConnection.commit();
+            } catch (SQLException | RuntimeException e) {
+                dbConnection.rollback();
+                throw e;
+            } finally {
+                dbConnection.setAutoCommit(true);
+            }
+
+            LOGGER.info("migrateSchema: movies schema is now at version {}", version);
+        }
+    }
+
+    /**
+     * Sets the compact release date of the given movie, or NULL if it has none.
+     */
+    private void setReleaseEpochDay(PreparedStatement prepareStatement, int parameterIndex, Movie movie) throws SQLException {
+
+        int releaseEpochDay = movie.getReleaseEpochDay();
+        if (releaseEpochDay == Movie.NO_RELEASE_EPOCH_DAY) {
+            prepareStatement.setNull(parameterIndex, Types.INTEGER);
+        } else {
+            prepareStatement.setInt(parameterIndex, releaseEpochDay);
+        }
+    }
+
+    /**
+     * Sets the IMDB rating in tenths of the given movie, or NULL if it has none.
+     */
+    private void setImdbRatingInTenths(PreparedStatement prepareStatement, int parameterIndex, Movie movie) throws SQLException {
+
+        short imdbRatingInTenths = movie.getImdbRatingInTenths();
+        if (imdbRatingInTenths == Movie.NO_IMDB_RATING) {
+            prepareStatement.setNull(parameterIndex, Types.SMALLINT);
+        } else {
+            prepareStatement.setShort(parameterIndex, imdbRatingInTenths);
+        }
+    }
 
-        String createMovieSQL = "INSERT INTO movies (imdbId, title, runtimeInMinutes, releaseDate, filmRating, genre, director, plot, metascore, imdbRating, imdbVotes) "
-                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
+    /**
+     * Sets the code of the film rating of the given movie, or NULL if it has
+     * none, like the legacy ratings the schema migrations could not map.
+     */
+    private void setFilmRating(PreparedStatement prepareStatement, int parameterIndex, Movie movie) throws SQLException {
+
+        FilmRating filmRating = movie.getFilmRating();
+        if (filmRating == null) {
+            prepareStatement.setNull(parameterIndex, Types.TINYINT);
+        } else {
+            prepareStatement.setInt(parameterIndex, filmRating.getCode());
+        }
+    }
+
+    private void setMovieParameters(PreparedStatement prepareStatement, Movie movie) throws SQLException {
+        setMovieParameters(prepareStatement, movie.getImdbId(), movie);
+    }
 
-        PreparedStatement prepareStatement = dbConnection.prepareStatement(createMovieSQL);
-        prepareStatement.setString(1, movie.getImdbId());
+    private void setMovieParameters(PreparedStatement prepareStatement, String imdbId, Movie movie) throws SQLException {
+        prepareStatement.setString(1, imdbId);
         prepareStatement.setString(2, movie.getTitle());
         prepareStatement.setInt(3, movie.getRuntimeInMinutes());
 
-        LocalDateTime releaseDate = movie.getReleaseDate();
-        prepareStatement.setTimestamp(4, Timestamp.valueOf(releaseDate));
-
-        prepareStatement.setString(5, movie.getFilmRating().getPlainName());
+        setReleaseEpochDay(prepareStatement, 4, movie);
+        setFilmRating(prepareStatement, 5, movie);
         prepareStatement.setString(6, movie.getGenre());
         prepareStatement.setString(7, movie.getDirector());
         prepareStatement.setString(8, movie.getPlot());
         prepareStatement.setInt(9, movie.getMetascore());
-        prepareStatement.setBigDecimal(10, movie.getImdbRating());
+        setImdbRatingInTenths(prepareStatement, 10, movie);
         prepareStatement.setLong(11, movie.getImdbVotes());
+        prepareStatement.setLong(12, System.currentTimeMillis());
+    }
+
+    public String createMovie(Connection dbConnection, Movie movie) throws SQLException {
 
-        LOGGER.info("createMovie: " + prepareStatement);
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(CREATE_MOVIE_SQL)) {
+            setMovieParameters(prepareStatement, movie);
 
-        prepareStatement.executeUpdate();
+            long startTime = queryLogger.start();
+            prepareStatement.executeUpdate();
+            queryLogger.log("createMovie", startTime, movie.getImdbId());
+        }
+        appendChanges(dbConnection, Collections.singletonMap(movie.getImdbId(), MovieChangeType.CREATED));
         return movie.getImdbId();
     }
 
+    private Set<String> getExistingImdbIds(Connection dbConnection, List<Movie> movies) throws SQLException {
+
+        Set<String> existingImdbIds = new HashSet<String>();
+
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(getExistingImdbIdsSQL)) {
+
+            // A short last chunk repeats its first imdbId in the unused placeholders.
+            for (int i = 0; i < batchSize; i++) {
+                Movie movie = (i < movies.size()) ? movies.get(i) : movies.get(0);
+                prepareStatement.setString(i + 1, movie.getImdbId());
+            }
+
+            long startTime = queryLogger.start();
+            try (ResultSet resultSet = prepareStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    existingImdbIds.add(resultSet.getString(1));
+                }
+            }
+            queryLogger.log("getExistingImdbIds", startTime, movies.size());
+        }
+
+        return existingImdbIds;
+    }
+
+    /**
+     * Inserts the given movies using JDBC batches of at most batchSize rows.
+     * Movies whose imdbId is already stored, or repeated inside the given list,
+     * are reported as duplicated and are not inserted. The caller owns the
+     * transaction: nothing is committed here.
+     */
+    public List<MovieCreationResult> createMovies(Connection dbConnection, List<Movie> movies) throws SQLException {
+
+        List<MovieCreationResult> results = new ArrayList<MovieCreationResult>(movies.size());
+        Set<String> seenImdbIds = new HashSet<String>();
+        Map<String, MovieChangeType> changes = new LinkedHashMap<String, MovieChangeType>();
+
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(CREATE_MOVIE_SQL)) {
+
+            for (int from = 0; from < movies.size(); from += batchSize) {
+
+                List<Movie> chunk = movies.subList(from, Math.min(from + batchSize, movies.size()));
+                Set<String> existingImdbIds = getExistingImdbIds(dbConnection, chunk);
+
+                for (Movie movie : chunk) {
+
+                    String imdbId = movie.getImdbId();
+                    boolean isDuplicated = existingImdbIds.contains(imdbId) || !seenImdbIds.add(imdbId);
+
+                    if (isDuplicated) {
+
+                        results.add(new MovieCreationResult(imdbId, CreationStatus.DUPLICATED));
+                    } else {
+
+                        setMovieParameters(prepareStatement, movie);
+                        prepareStatement.addBatch();
+                        results.add(new MovieCreationResult(imdbId, CreationStatus.CREATED));
+                        changes.put(imdbId, MovieChangeType.CREATED);
+                    }
+                }
+
+                long startTime = queryLogger.start();
+                prepareStatement.executeBatch();
+                queryLogger.log("createMovies", startTime, chunk.size());
+            }
+        }
+
+        appendChanges(dbConnection, changes);
+        return results;
+    }
+
+    /**
+     * Creates the movie, with the given imdbId, or replaces every field of the
+     * stored one. Returns the written movie with its version data: its version
+     * is 1 if it was created.
+     */
+    public Movie upsertMovie(Connection dbConnection, String imdbId, Movie movie) throws SQLException {
+
+        long lastModifiedInMillis = System.currentTimeMillis();
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(UPSERT_MOVIE_SQL)) {
+            setMovieParameters(prepareStatement, imdbId, movie);
+            prepareStatement.setLong(12, lastModifiedInMillis);
+            prepareStatement.setString(13, imdbId);
+
+            long startTime = queryLogger.start();
+            prepareStatement.executeUpdate();
+            queryLogger.log("upsertMovie", startTime, imdbId);
+        }
+
+        long version = getWrittenValue(dbConnection, GET_UPSERTED_VERSION_SQL);
+        MovieChangeType changeType = (version == 1) ? MovieChangeType.CREATED : MovieChangeType.UPDATED;
+        appendChanges(dbConnection, Collections.singletonMap(imdbId, changeType));
+        return Movie.createMovieFromCompactFields(imdbId, movie.getTitle(), movie.getRuntimeInMinutes(), movie.getReleaseEpochDay(),
+                movie.getFilmRating(), movie.getGenre(), movie.getDirector(), movie.getPlot(), movie.getMetascore(),
+                movie.getImdbRatingInTenths(), movie.getImdbVotes(), version, lastModifiedInMillis);
+    }
+
+    /**
+     * Creates or replaces the given movies using JDBC batches of at most
+     * batchSize rows, reporting each one as created or updated. A movie
+     * repeated inside the list is written once per occurrence, the last one
+     * wins. The caller owns the transaction: nothing is committed here.
+     */
+    public List<MovieCreationResult> upsertMovies(Connection dbConnection, List<Movie> movies) throws SQLException {
+
+        List<MovieCreationResult> results = new ArrayList<MovieCreationResult>(movies.size());
+        Set<String> seenImdbIds = new HashSet<String>();
+        Map<String, MovieChangeType> changes = new LinkedHashMap<String, MovieChangeType>();
+
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(UPSERT_MOVIE_SQL)) {
+
+            for (int from = 0; from < movies.size(); from += batchSize) {
+
+                List<Movie> chunk = movies.subList(from, Math.min(from + batchSize, movies.size()));
+                // Only to report the status of each movie: MERGE does not tell.
+                Set<String> existingImdbIds = getExistingImdbIds(dbConnection, chunk);
+
+                for (Movie movie : chunk) {
+
+                    String imdbId = movie.getImdbId();
+                    // Not short circuited, so imdbId is always marked as seen.
+                    boolean existed = existingImdbIds.contains(imdbId) | !seenImdbIds.add(imdbId);
+                    setMovieParameters(prepareStatement, movie);
+                    prepareStatement.setString(13, imdbId);
+                    prepareStatement.addBatch();
+                    results.add(new MovieCreationResult(imdbId, existed ? CreationStatus.UPDATED : CreationStatus.CREATED));
+                    // A movie created and then replaced in the same list is still a new one.
+                    changes.putIfAbsent(imdbId, existed ? MovieChangeType.UPDATED : MovieChangeType.CREATED);
+                }
+
+                long startTime = queryLogger.start();
+                prepareStatement.executeBatch();
+                queryLogger.log("upsertMovies", startTime, chunk.size());
+            }
+        }
+
+        appendChanges(dbConnection, changes);
+        return results;
+    }
+
     public Optional<Movie> getMovieByImdbId(Connection dbConnection, String imdbId) throws SQLException {
 
-        Optional<Movie> optionalMovie = Optional.empty();
-        String getMovieByImdbIdSQL = "SELECT * FROM movies WHERE imdbId = ?;";
+        return getMovieByImdbId(dbConnection, imdbId, GET_MOVIE_BY_IMDB_ID_SQL, "getMovieByImdbId");
+    }
 
-        PreparedStatement prepareStatement = dbConnection.prepareStatement(getMovieByImdbIdSQL);
-        prepareStatement.setString(1, imdbId);
+    /**
+     * Like getMovieByImdbId, but locks the row until the transaction ends, so
+     * no other transaction can write it in between. A row already locked by
+     * another one fails with a lock conflict, see isLockConflict.
+     */
+    public Optional<Movie> getMovieByImdbIdForUpdate(Connection dbConnection, String imdbId) throws SQLException {
 
-        LOGGER.info("getMovieByImdbId: " + prepareStatement);
+        return getMovieByImdbId(dbConnection, imdbId, GET_MOVIE_BY_IMDB_ID_FOR_UPDATE_SQL, "getMovieByImdbIdForUpdate");
+    }
 
-        ResultSet resultSet = prepareStatement.executeQuery();
-        optionalMovie = MovieMapper.getSingleMovie(resultSet);
+    private Optional<Movie> getMovieByImdbId(Connection dbConnection, String imdbId, String getMovieSQL, String operation)
+            throws SQLException {
 
-        resultSet.close();
-        prepareStatement.close();
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(getMovieSQL)) {
+            prepareStatement.setString(1, imdbId);
 
-        return optionalMovie;
+            long startTime = queryLogger.start();
+            try (ResultSet resultSet = prepareStatement.executeQuery()) {
+                return MovieMapper.getSingleMovie(resultSet);
+            } finally {
+                queryLogger.log(operation, startTime, imdbId);
+            }
+        }
     }
 
-    public List<Movie> getMoviesByParams(Connection dbConnection, String title, int runtimeInMinutes, int metascore,
-            BigDecimal imdbRating, long imdbVotes) throws SQLException {
+    /**
+     * Returns the stored movies with the given imdbIds, in no particular order,
+     * reading them with one query per batchSize imdbIds.
+     */
+    public List<Movie> getMoviesByImdbIds(Connection dbConnection, List<String> imdbIds) throws SQLException {
 
-        String getMoviesByParamsSQL = "SELECT * FROM movies WHERE lower(title) LIKE ? AND runtimeInMinutes >= ? AND metascore >= ? AND imdbRating >= ? AND imdbVotes >= ?;";
+        List<Movie> movies = new ArrayList<Movie>(imdbIds.size());
+
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(getMoviesByImdbIdsSQL)) {
+
+            for (int from = 0; from < imdbIds.size(); from += batchSize) {
+
+                List<String> chunk = imdbIds.subList(from, Math.min(from + batchSize, imdbIds.size()));
+
+                // A short last chunk repeats its first imdbId in the unused placeholders.
+                for (int i = 0; i < batchSize; i++) {
+                    String imdbId = (i < chunk.size()) ? chunk.get(i) : chunk.get(0);
+                    prepareStatement.setString(i + 1, imdbId);
+                }
+
+                long startTime = queryLogger.start();
+                try (ResultSet resultSet = prepareStatement.executeQuery()) {
+                    MovieMapper.forEachMovie(resultSet, movies::add);
+                } finally {
+                    queryLogger.log("getMoviesByImdbIds", startTime, chunk.size());
+                }
+            }
+        }
+
+        return movies;
+    }
+
+    /**
+     * Sets the params of SEARCH_CONDITIONS_SQL, starting at the first param.
+     * Returns the index of the next param to set.
+     */
+    private int setSearchParameters(PreparedStatement prepareStatement, String title, int runtimeInMinutes, int metascore,
+            BigDecimal imdbRating, long imdbVotes) throws SQLException {
 
-        PreparedStatement prepareStatement = dbConnection.prepareStatement(getMoviesByParamsSQL);
-        
         String titleQuery = StringUtils.isBlank(title) ? "%" : "%" + title.toLowerCase() + "%";
         prepareStatement.setString(1, titleQuery);
         
         prepareStatement.setInt(2, runtimeInMinutes);
         prepareStatement.setInt(3, metascore);
         
-        BigDecimal imdbRatingQuery = Objects.isNull(imdbRating) ? BigDecimal.ZERO : imdbRating;
-        prepareStatement.setBigDecimal(4, imdbRatingQuery);
+        // Rounded up, so 7.25 keeps asking for 7.3 and above.
+        short imdbRatingQuery = Objects.isNull(imdbRating) ? 0 : Movie.toImdbRatingInTenths(imdbRating, RoundingMode.CEILING);
+        prepareStatement.setShort(4, imdbRatingQuery);
         
         prepareStatement.setLong(5, imdbVotes);
+        return 6;
+    }
 
-        LOGGER.info("getMoviesByParams: " + prepareStatement);
+    /**
+     * Returns at most limit movies matching the given params, ordered by imdbId
+     * and starting right after afterImdbId (or from the first one if it is null).
+     */
+    public List<Movie> getMoviesByParams(Connection dbConnection, String title, int runtimeInMinutes, int metascore,
+            BigDecimal imdbRating, long imdbVotes, String afterImdbId, int limit) throws SQLException {
 
-        ResultSet resultSet = prepareStatement.executeQuery();
-        List<Movie> movies = MovieMapper.getMultipleMovies(resultSet);
+        return getMoviesByParams(dbConnection, title, runtimeInMinutes, metascore, imdbRating, imdbVotes, afterImdbId, limit,
+                EnumSet.allOf(MovieField.class));
+    }
 
-        resultSet.close();
-        prepareStatement.close();
+    /**
+     * Like getMoviesByParams, but only reads the columns of the given fields.
+     * The other fields of the returned movies are left empty.
+     */
+    public List<Movie> getMoviesByParams(Connection dbConnection, String title, int runtimeInMinutes, int metascore,
+            BigDecimal imdbRating, long imdbVotes, String afterImdbId, int limit, Set<MovieField> movieFields) throws SQLException {
+
+        String getMoviesByParamsSQL = "SELECT " + MovieMapper.getColumns(movieFields) + GET_MOVIES_BY_PARAMS_SQL_SUFFIX;
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(getMoviesByParamsSQL)) {
+            int nextParameter = setSearchParameters(prepareStatement, title, runtimeInMinutes, metascore, imdbRating, imdbVotes);
+
+            String afterImdbIdQuery = Objects.isNull(afterImdbId) ? "" : afterImdbId;
+            prepareStatement.setString(nextParameter, afterImdbIdQuery);
+            prepareStatement.setInt(nextParameter + 1, limit);
+
+            long startTime = queryLogger.start();
+            try (ResultSet resultSet = prepareStatement.executeQuery()) {
+                return MovieMapper.getMultipleMovies(resultSet);
+            } finally {
+                queryLogger.log("getMoviesByParams", startTime, title);
+            }
+        }
+    }
 
-        return movies;
+    /**
+     * Hands every movie matching the given params to movieConsumer, one row at a
+     * time, reading the result set in chunks of fetchSize rows. No list of movies
+     * is built.
+     */
+    public void streamMoviesByParams(Connection dbConnection, String title, int runtimeInMinutes, int metascore,
+            BigDecimal imdbRating, long imdbVotes, Consumer<Movie> movieConsumer) throws SQLException {
+
+        streamMoviesByParams(dbConnection, title, runtimeInMinutes, metascore, imdbRating, imdbVotes, EnumSet.allOf(MovieField.class),
+                movieConsumer);
+    }
+
+    /**
+     * Like streamMoviesByParams, but only reads the columns of the given fields.
+     * The other fields of the movies handed to movieConsumer are left empty.
+     */
+    public void streamMoviesByParams(Connection dbConnection, String title, int runtimeInMinutes, int metascore,
+            BigDecimal imdbRating, long imdbVotes, Set<MovieField> movieFields, Consumer<Movie> movieConsumer) throws SQLException {
+
+        String streamMoviesByParamsSQL = "SELECT " + MovieMapper.getColumns(movieFields) + STREAM_MOVIES_BY_PARAMS_SQL_SUFFIX;
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(streamMoviesByParamsSQL,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+            prepareStatement.setFetchSize(fetchSize);
+            setSearchParameters(prepareStatement, title, runtimeInMinutes, metascore, imdbRating, imdbVotes);
+
+            long startTime = queryLogger.start();
+            try (ResultSet resultSet = prepareStatement.executeQuery()) {
+                MovieMapper.forEachMovie(resultSet, movieConsumer);
+            } finally {
+                queryLogger.log("streamMoviesByParams", startTime, title);
+            }
+        }
+    }
+
+    /**
+     * Hands every stored movie to movieConsumer, in imdbId order, reading the
+     * result set in chunks of fetchSize rows. Unlike streamMoviesByParams it
+     * has no conditions, so movies without an IMDB rating, or with a negative
+     * metascore, are not left out.
+     */
+    public void streamAllMovies(Connection dbConnection, Consumer<Movie> movieConsumer) throws SQLException {
+
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(STREAM_ALL_MOVIES_SQL,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+            prepareStatement.setFetchSize(fetchSize);
+
+            long startTime = queryLogger.start();
+            try (ResultSet resultSet = prepareStatement.executeQuery()) {
+                MovieMapper.forEachMovie(resultSet, movieConsumer);
+            } finally {
+                queryLogger.log("streamAllMovies", startTime, null);
+            }
+        }
+    }
+
+    /**
+     * Returns the UPDATE statement writing the columns of the given fields, in
+     * a fixed order, so each set of fields maps to a single SQL string.
+     */
+    private static String getUpdateMovieSQL(Set<MovieField> movieFields) {
+
+        StringBuilder updateMovieSQL = new StringBuilder("UPDATE movies SET ");
+        for (MovieField movieField : MovieField.values()) {
+            if (movieField != MovieField.IMDB_ID && movieFields.contains(movieField)) {
+                updateMovieSQL.append(MovieMapper.getColumn(movieField)).append(" = ?, ");
+            }
+        }
+        return updateMovieSQL.append(UPDATE_MOVIE_SQL_SUFFIX).toString();
+    }
+
+    private void setFieldParameter(PreparedStatement prepareStatement, int parameterIndex, MovieField movieField, Movie movie)
+            throws SQLException {
+
+        switch (movieField) {
+        case TITLE:
+            prepareStatement.setString(parameterIndex, movie.getTitle());
+            break;
+        case RUNTIME_IN_MINUTES:
+            prepareStatement.setInt(parameterIndex, movie.getRuntimeInMinutes());
+            break;
+        case RELEASE_DATE:
+            setReleaseEpochDay(prepareStatement, parameterIndex, movie);
+            break;
+        case FILM_RATING:
+            setFilmRating(prepareStatement, parameterIndex, movie);
+            break;
+        case GENRE:
+            prepareStatement.setString(parameterIndex, movie.getGenre());
+            break;
+        case DIRECTOR:
+            prepareStatement.setString(parameterIndex, movie.getDirector());
+            break;
+        case PLOT:
+            prepareStatement.setString(parameterIndex, movie.getPlot());
+            break;
+        case METASCORE:
+            prepareStatement.setInt(parameterIndex, movie.getMetascore());
+            break;
+        case IMDB_RATING:
+            setImdbRatingInTenths(prepareStatement, parameterIndex, movie);
+            break;
+        case IMDB_VOTES:
+            prepareStatement.setLong(parameterIndex, movie.getImdbVotes());
+            break;
+        default:
+            throw new IllegalArgumentException("The field can't be updated: " + movieField);
+        }
     }
 
+    /**
+     * Writes every field of movieToUpdate but its imdbId. See patchMovie.
+     */
     public Optional<Movie> updateMovie(Connection dbConnection, String imdbId, Movie movieToUpdate) throws SQLException {
         
-        String updateMovieSQL = "UPDATE movies SET title = ?, runtimeInMinutes = ?, releaseDate = ?, filmRating = ?, genre = ?, director = ?, plot = ?, "
-                + "metascore = ?, imdbRating = ?, imdbVotes = ? WHERE imdbId = ?;";
+        return patchMovie(dbConnection, imdbId, movieToUpdate, UPDATABLE_FIELDS);
+    }
+
+    /**
+     * Writes only the columns of the given fields of patchedMovie, which must
+     * already hold the rest of the stored movie. Returns patchedMovie, with
+     * the given imdbId and the new version data, without reading the row
+     * again, or empty if there is no movie with that imdbId.
+     */
+    public Optional<Movie> patchMovie(Connection dbConnection, String imdbId, Movie patchedMovie, Set<MovieField> movieFields)
+            throws SQLException {
         
-        PreparedStatement prepareStatement = dbConnection.prepareStatement(updateMovieSQL);
-        prepareStatement.setString(1, movieToUpdate.getTitle());
-        prepareStatement.setInt(2, movieToUpdate.getRuntimeInMinutes());
-
-        LocalDateTime releaseDate = movieToUpdate.getReleaseDate();
-        prepareStatement.setTimestamp(3, Timestamp.valueOf(releaseDate));
-
-        prepareStatement.setString(4, movieToUpdate.getFilmRating().getPlainName());
-        prepareStatement.setString(5, movieToUpdate.getGenre());
-        prepareStatement.setString(6, movieToUpdate.getDirector());
-        prepareStatement.setString(7, movieToUpdate.getPlot());
-        prepareStatement.setInt(8, movieToUpdate.getMetascore());
-        prepareStatement.setBigDecimal(9, movieToUpdate.getImdbRating());
-        prepareStatement.setLong(10, movieToUpdate.getImdbVotes());
-        prepareStatement.setString(11, imdbId);
+        long lastModifiedInMillis = System.currentTimeMillis();
+        int rowsAffected = 0;
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(getUpdateMovieSQL(movieFields))) {
+            int parameterIndex = 1;
+            for (MovieField movieField : MovieField.values()) {
+                if (movieField != MovieField.IMDB_ID && movieFields.contains(movieField)) {
+                    setFieldParameter(prepareStatement, parameterIndex++, movieField, patchedMovie);
+                }
+            }
+            prepareStatement.setLong(parameterIndex, lastModifiedInMillis);
+            prepareStatement.setString(parameterIndex + 1, imdbId);
+            
+            long startTime = queryLogger.start();
+            rowsAffected = prepareStatement.executeUpdate();
+            queryLogger.log("updateMovie", startTime, imdbId);
+        }
         
-        LOGGER.info("updateMovie: " + prepareStatement);
-        int rowsAffected = prepareStatement.executeUpdate();
-        prepareStatement.close();
+        if (rowsAffected != 1) {
+            return Optional.empty();
+        }
         
-        Optional<Movie> updatedMovie = (rowsAffected == 1) ? getMovieByImdbId(dbConnection, imdbId) : Optional.empty();
-        return updatedMovie;
+        long version = getWrittenValue(dbConnection, GET_UPDATED_VERSION_SQL);
+        appendChanges(dbConnection, Collections.singletonMap(imdbId, MovieChangeType.UPDATED));
+        return Optional.of(Movie.createMovieFromCompactFields(imdbId, patchedMovie.getTitle(), patchedMovie.getRuntimeInMinutes(),
+                patchedMovie.getReleaseEpochDay(), patchedMovie.getFilmRating(), patchedMovie.getGenre(), patchedMovie.getDirector(),
+                patchedMovie.getPlot(), patchedMovie.getMetascore(), patchedMovie.getImdbRatingInTenths(), patchedMovie.getImdbVotes(),
+                version, lastModifiedInMillis));
+    }
+
+    // Returns the version kept by the last UPDATE, or MERGE, of this connection.
+    private long getWrittenValue(Connection dbConnection, String getValueSQL) throws SQLException {
+
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(getValueSQL);
+                ResultSet resultSet = prepareStatement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    /**
+     * Writes the not null fields of every given stats, in JDBC batches of
+     * batchSize updates. Stats of movies that don't exist are skipped. Returns
+     * the number of updated movies.
+     */
+    public int updateMoviesStats(Connection dbConnection, List<MovieStats> moviesStats) throws SQLException {
+
+        int updatedMovies = 0;
+        long lastModifiedInMillis = System.currentTimeMillis();
+        Map<String, MovieChangeType> changes = new LinkedHashMap<String, MovieChangeType>();
+
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(UPDATE_MOVIE_STATS_SQL)) {
+
+            for (int from = 0; from < moviesStats.size(); from += batchSize) {
+
+                List<MovieStats> chunk = moviesStats.subList(from, Math.min(from + batchSize, moviesStats.size()));
+                for (MovieStats movieStats : chunk) {
+
+                    if (movieStats.getMetascore() == null) {
+                        prepareStatement.setNull(1, Types.SMALLINT);
+                    } else {
+                        prepareStatement.setInt(1, movieStats.getMetascore());
+                    }
+                    if (movieStats.getImdbRating() == null) {
+                        prepareStatement.setNull(2, Types.SMALLINT);
+                    } else {
+                        prepareStatement.setShort(2, Movie.toImdbRatingInTenths(movieStats.getImdbRating(), RoundingMode.HALF_UP));
+                    }
+                    if (movieStats.getImdbVotes() == null) {
+                        prepareStatement.setNull(3, Types.BIGINT);
+                    } else {
+                        prepareStatement.setLong(3, movieStats.getImdbVotes());
+                    }
+                    prepareStatement.setLong(4, lastModifiedInMillis);
+                    prepareStatement.setString(5, movieStats.getImdbId());
+                    prepareStatement.addBatch();
+                }
+
+                long startTime = queryLogger.start();
+                int[] rowsAffected = prepareStatement.executeBatch();
+                queryLogger.log("updateMoviesStats", startTime, chunk.size());
+
+                for (int i = 0; i < rowsAffected.length; i++) {
+                    if (rowsAffected[i] > 0) {
+                        updatedMovies += rowsAffected[i];
+                        changes.put(chunk.get(i).getImdbId(), MovieChangeType.UPDATED);
+                    }
+                }
+            }
+        }
+
+        appendChanges(dbConnection, changes);
+        return updatedMovies;
     }
 
     public boolean deleteMovie(Connection dbConnection, String imdbId) throws SQLException {
         
-        String deleteMovieSQL = "DELETE FROM movies WHERE imdbId = ?;";
-        
-        PreparedStatement prepareStatement = dbConnection.prepareStatement(deleteMovieSQL);
-        prepareStatement.setString(1, imdbId);
-        
-        LOGGER.info("deleteMovie: " + prepareStatement);
-        int rowsAffected = prepareStatement.executeUpdate();
-        prepareStatement.close();
+        int rowsAffected = 0;
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(DELETE_MOVIE_SQL)) {
+            prepareStatement.setString(1, imdbId);
+            
+            long startTime = queryLogger.start();
+            rowsAffected = prepareStatement.executeUpdate();
+            queryLogger.log("deleteMovie", startTime, imdbId);
+        }
         
         boolean movieWasDeleted = (rowsAffected == 1);
+        if (movieWasDeleted) {
+            appendChanges(dbConnection, Collections.singletonMap(imdbId, MovieChangeType.DELETED));
+        }
         return movieWasDeleted;
     }
+
+    /**
+     * Appends one change per given imdbId to the change log, in order. Every
+     * write of movies calls it as its last statement, because the seq row
+     * stays locked until the caller commits, or rolls back, the transaction.
+     * Callers must run those writes in a transaction, so movies and their
+     * changes are committed together.
+     */
+    private void appendChanges(Connection dbConnection, Map<String, MovieChangeType> changes) throws SQLException {
+
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        lockChangeSeq(dbConnection);
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(ADVANCE_CHANGE_SEQ_SQL)) {
+            prepareStatement.setInt(1, changes.size());
+            prepareStatement.executeUpdate();
+        }
+
+        int changesLeft = changes.size();
+        long changedInMillis = System.currentTimeMillis();
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(APPEND_CHANGE_SQL)) {
+
+            int batchedChanges = 0;
+            for (Map.Entry<String, MovieChangeType> change : changes.entrySet()) {
+                prepareStatement.setInt(1, --changesLeft);
+                prepareStatement.setString(2, change.getKey());
+                prepareStatement.setInt(3, change.getValue().getCode());
+                prepareStatement.setLong(4, changedInMillis);
+                prepareStatement.addBatch();
+
+                if (++batchedChanges == batchSize) {
+                    prepareStatement.executeBatch();
+                    batchedChanges = 0;
+                }
+            }
+
+            if (batchedChanges > 0) {
+                prepareStatement.executeBatch();
+            }
+        } finally {
+            releaseChangeSeqIfAutoCommit(dbConnection);
+        }
+    }
+
+    /**
+     * Waits, up to LOCK_WAIT_TIMEOUT_IN_MILLIS, until no other transaction of
+     * this instance holds the seq row, which must then be updated. It stays
+     * taken until releaseChangeSeq.
+     */
+    private void lockChangeSeq(Connection dbConnection) throws SQLException {
+
+        boolean locked = false;
+        try {
+            locked = changeSeqLock.tryLock(LOCK_WAIT_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!locked) {
+            throw new SQLException("Timed out waiting for the change seq", LOCK_TIMEOUT_SQL_STATE, ErrorCode.LOCK_TIMEOUT_1);
+        }
+    }
+
+    // Without a transaction the seq row is not held after the statement.
+    private void releaseChangeSeqIfAutoCommit(Connection dbConnection) throws SQLException {
+
+        if (dbConnection.getAutoCommit()) {
+            releaseChangeSeq();
+        }
+    }
+
+    /**
+     * Lets the next writer of this instance take the change seq. Callers of
+     * the writes must call it once their transaction is committed or rolled
+     * back, on the same thread.
+     */
+    public void releaseChangeSeq() {
+
+        while (changeSeqLock.isHeldByCurrentThread()) {
+            changeSeqLock.unlock();
+        }
+    }
+
+    /**
+     * Returns at most limit changes with a seq greater than afterSeq, in seq
+     * order.
+     */
+    public List<MovieChange> getChanges(Connection dbConnection, long afterSeq, int limit) throws SQLException {
+
+        List<MovieChange> changes = new ArrayList<MovieChange>();
+
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(GET_CHANGES_SQL)) {
+            prepareStatement.setLong(1, afterSeq);
+            prepareStatement.setInt(2, limit);
+
+            long startTime = queryLogger.start();
+            try (ResultSet resultSet = prepareStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    changes.add(new MovieChange(resultSet.getLong(1), resultSet.getString(2),
+                            MovieChangeType.createMovieChangeTypeFromCode(resultSet.getInt(3)), resultSet.getLong(4)));
+                }
+            } finally {
+                queryLogger.log("getChanges", startTime, afterSeq);
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * True if the failed statement, or a statement of the failed batch, only
+     * conflicted with a row another transaction holds locked, as the row of
+     * movie_change_seq taken by another instance sharing the DB, or waited
+     * too long for it. The transaction must be rolled back, but running it
+     * again may then succeed.
+     */
+    public static boolean isLockConflict(SQLException e) {
+
+        for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+            int errorCode = cause.getErrorCode();
+            if (errorCode == ErrorCode.CONCURRENT_UPDATE_1 || errorCode == ErrorCode.LOCK_TIMEOUT_1
+                    || errorCode == ErrorCode.DEADLOCK_1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the seq of the last committed change, 0 if there is none.
+     */
+    public long getLastChangeSeq(Connection dbConnection) throws SQLException {
+
+        return getChangeSeq(dbConnection, GET_LAST_CHANGE_SEQ_SQL);
+    }
+
+    /**
+     * Returns the seq of the last pruned change: the changes up to it are gone.
+     */
+    public long getPrunedChangeSeq(Connection dbConnection) throws SQLException {
+
+        return getChangeSeq(dbConnection, GET_PRUNED_CHANGE_SEQ_SQL);
+    }
+
+    private long getChangeSeq(Connection dbConnection, String getChangeSeqSQL) throws SQLException {
+
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(getChangeSeqSQL);
+                ResultSet resultSet = prepareStatement.executeQuery()) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Deletes the changes made before the given time, and every change with a
+     * smaller seq, and records the last deleted seq. Returns the number of
+     * deleted changes. The caller owns the transaction: nothing is committed
+     * here.
+     */
+    public int pruneChanges(Connection dbConnection, long beforeMillis) throws SQLException {
+
+        long prunedSeq = 0;
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(GET_LAST_CHANGE_SEQ_BEFORE_SQL)) {
+            prepareStatement.setLong(1, beforeMillis);
+            try (ResultSet resultSet = prepareStatement.executeQuery()) {
+                prunedSeq = resultSet.next() ? resultSet.getLong(1) : 0;
+            }
+        }
+
+        if (prunedSeq == 0) {
+            return 0;
+        }
+
+        int prunedChanges = 0;
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(DELETE_CHANGES_SQL)) {
+            prepareStatement.setLong(1, prunedSeq);
+
+            long startTime = queryLogger.start();
+            prunedChanges = prepareStatement.executeUpdate();
+            queryLogger.log("pruneChanges", startTime, prunedSeq);
+        }
+
+        // Last, as it locks the seq row writers need until the transaction ends.
+        lockChangeSeq(dbConnection);
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(SET_PRUNED_CHANGE_SEQ_SQL)) {
+            prepareStatement.setLong(1, prunedSeq);
+            prepareStatement.setLong(2, prunedSeq);
+            prepareStatement.executeUpdate();
+        } finally {
+            releaseChangeSeqIfAutoCommit(dbConnection);
+        }
+
+        return prunedChanges;
+    }
 }
\ No newline at end of file
@@ -1,72 +1,217 @@
 package co.je.movies.persistence.mappers;
 
-import java.math.BigDecimal;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
 
 import co.je.movies.domain.entities.FilmRating;
 import co.je.movies.domain.entities.Movie;
+import co.je.movies.domain.entities.MovieField;
 
 public class MovieMapper {
     
     public static final String IMDB_ID = "imdbId";
     public static final String TITLE = "title";
     public static final String RUNTIME_IN_MINUTES = "runtimeInMinutes";
-    public static final String RELEASE_DATE = "releaseDate";
+    public static final String RELEASE_EPOCH_DAY = "releaseEpochDay";
     public static final String FILM_RATING = "filmRating";
     public static final String GENRE = "genre";
     public static final String DIRECTOR = "director";
     public static final String PLOT = "plot";
     public static final String METASCORE = "metascore";
-    public static final String IMDB_RATING = "imdbRating";
+    public static final String IMDB_RATING_IN_TENTHS = "imdbRatingInTenths";
     public static final String IMDB_VOTES = "imdbVotes";
+    public static final String VERSION = "version";
+    public static final String LAST_MODIFIED_IN_MILLIS = "lastModifiedInMillis";
     
-    private static Optional<Movie> getMovieFromResultSet(ResultSet resultSet) throws SQLException {
+    /**
+     * The columns a movie is mapped from, to select them explicitly instead of
+     * using SELECT *.
+     */
+    public static final String COLUMNS = String.join(", ", IMDB_ID, TITLE, RUNTIME_IN_MINUTES, RELEASE_EPOCH_DAY, FILM_RATING,
+            GENRE, DIRECTOR, PLOT, METASCORE, IMDB_RATING_IN_TENTHS, IMDB_VOTES, VERSION, LAST_MODIFIED_IN_MILLIS);
+    
+    // The column each movie field is stored in.
+    private static final Map<MovieField, String> COLUMN_BY_FIELD = new EnumMap<MovieField, String>(MovieField.class);
+    
+    static {
+        COLUMN_BY_FIELD.put(MovieField.IMDB_ID, IMDB_ID);
+        COLUMN_BY_FIELD.put(MovieField.TITLE, TITLE);
+        COLUMN_BY_FIELD.put(MovieField.RUNTIME_IN_MINUTES, RUNTIME_IN_MINUTES);
+        COLUMN_BY_FIELD.put(MovieField.RELEASE_DATE, RELEASE_EPOCH_DAY);
+        COLUMN_BY_FIELD.put(MovieField.FILM_RATING, FILM_RATING);
+        COLUMN_BY_FIELD.put(MovieField.GENRE, GENRE);
+        COLUMN_BY_FIELD.put(MovieField.DIRECTOR, DIRECTOR);
+        COLUMN_BY_FIELD.put(MovieField.PLOT, PLOT);
+        COLUMN_BY_FIELD.put(MovieField.METASCORE, METASCORE);
+        COLUMN_BY_FIELD.put(MovieField.IMDB_RATING, IMDB_RATING_IN_TENTHS);
+        COLUMN_BY_FIELD.put(MovieField.IMDB_VOTES, IMDB_VOTES);
+    }
+    
+    /**
+     * Returns the column the given field is stored in.
+     */
+    public static String getColumn(MovieField movieField) {
+        return COLUMN_BY_FIELD.get(movieField);
+    }
+    
+    /**
+     * Returns the columns to select to map movies with only the given fields
+     * set. imdbId, version and lastModifiedInMillis are always selected. The
+     * columns keep the order of COLUMNS, so equal sets of fields always give the
+     * same string.
+     */
+    public static String getColumns(Set<MovieField> movieFields) {
         
-        Optional<Movie> optionalMovie = Optional.empty();
+        StringJoiner columns = new StringJoiner(", ");
+        columns.add(IMDB_ID);
+        for (MovieField movieField : MovieField.values()) {
+            if (movieField != MovieField.IMDB_ID && movieFields.contains(movieField)) {
+                columns.add(COLUMN_BY_FIELD.get(movieField));
+            }
+        }
+        columns.add(VERSION);
+        columns.add(LAST_MODIFIED_IN_MILLIS);
+        return columns.toString();
+    }
+    
+    /**
+     * Positions of the movie columns in a result set, looked up once per result
+     * set instead of once per column and row. Columns missing from the result
+     * set are at position 0 and map to the default value of their field.
+     */
+    private static class ColumnIndexes {
         
-        String imdbId = resultSet.getString(IMDB_ID);
-        String title = resultSet.getString(TITLE);
-        int runtimeInMinutes = resultSet.getInt(RUNTIME_IN_MINUTES);
-        LocalDateTime releaseDate = resultSet.getTimestamp(RELEASE_DATE).toLocalDateTime();
-        FilmRating filmRating = FilmRating.createFilmRatingFromPlainName(resultSet.getString(FILM_RATING));
-        String genre = resultSet.getString(GENRE);
-        String director = resultSet.getString(DIRECTOR);
-        String plot = resultSet.getString(PLOT);
-        int metascore = resultSet.getInt(METASCORE);
-        BigDecimal imdbRating = resultSet.getBigDecimal(IMDB_RATING);
-        long imdbVotes = resultSet.getLong(IMDB_VOTES);
+        private final int imdbId;
+        private final int title;
+        private final int runtimeInMinutes;
+        private final int releaseEpochDay;
+        private final int filmRating;
+        private final int genre;
+        private final int director;
+        private final int plot;
+        private final int metascore;
+        private final int imdbRatingInTenths;
+        private final int imdbVotes;
+        private final int version;
+        private final int lastModifiedInMillis;
         
-        Movie movie = new Movie(imdbId, title, runtimeInMinutes, releaseDate, filmRating, genre, director, plot, metascore, imdbRating, imdbVotes);
-        optionalMovie = Optional.of(movie);
+        private ColumnIndexes(ResultSet resultSet) throws SQLException {
+            
+            // Keyed by the upper case label, H2 returns unquoted names in upper case.
+            Map<String, Integer> indexByLabel = new HashMap<String, Integer>();
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            for (int index = 1; index <= metaData.getColumnCount(); index++) {
+                indexByLabel.put(metaData.getColumnLabel(index).toUpperCase(Locale.ROOT), index);
+            }
+            
+            imdbId = findColumn(indexByLabel, IMDB_ID);
+            title = findColumn(indexByLabel, TITLE);
+            runtimeInMinutes = findColumn(indexByLabel, RUNTIME_IN_MINUTES);
+            releaseEpochDay = findColumn(indexByLabel, RELEASE_EPOCH_DAY);
+            filmRating = findColumn(indexByLabel, FILM_RATING);
+            genre = findColumn(indexByLabel, GENRE);
+            director = findColumn(indexByLabel, DIRECTOR);
+            plot = findColumn(indexByLabel, PLOT);
+            metascore = findColumn(indexByLabel, METASCORE);
+            imdbRatingInTenths = findColumn(indexByLabel, IMDB_RATING_IN_TENTHS);
+            imdbVotes = findColumn(indexByLabel, IMDB_VOTES);
+            version = findColumn(indexByLabel, VERSION);
+            lastModifiedInMillis = findColumn(indexByLabel, LAST_MODIFIED_IN_MILLIS);
+        }
         
-        return optionalMovie;
+        private static int findColumn(Map<String, Integer> indexByLabel, String column) {
+            return indexByLabel.getOrDefault(column.toUpperCase(Locale.ROOT), 0);
+        }
+    }
+    
+    private static String getString(ResultSet resultSet, int column) throws SQLException {
+        return (column == 0) ? null : resultSet.getString(column);
+    }
+    
+    private static int getInt(ResultSet resultSet, int column) throws SQLException {
+        return (column == 0) ? 0 : resultSet.getInt(column);
+    }
+    
+    private static long getLong(ResultSet resultSet, int column) throws SQLException {
+        return (column == 0) ? 0 : resultSet.getLong(column);
+    }
+    
+    /**
+     * Returns null for a NULL film rating, which is how the migration from plain
+     * names stores the ones it did not recognise, and for an unknown code, so a
+     * single row can't break the reads of every other one.
+     */
+    private static FilmRating getFilmRating(ResultSet resultSet, int column) throws SQLException {
+        
+        int code = getInt(resultSet, column);
+        if (column == 0 || resultSet.wasNull()) {
+            return null;
+        }
+        try {
+            return FilmRating.createFilmRatingFromCode(code);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    private static Movie getMovieFromResultSet(ResultSet resultSet, ColumnIndexes columns) throws SQLException {
+        
+        String imdbId = getString(resultSet, columns.imdbId);
+        String title = getString(resultSet, columns.title);
+        int runtimeInMinutes = getInt(resultSet, columns.runtimeInMinutes);
+        int releaseEpochDay = getInt(resultSet, columns.releaseEpochDay);
+        if (columns.releaseEpochDay == 0 || resultSet.wasNull()) {
+            releaseEpochDay = Movie.NO_RELEASE_EPOCH_DAY;
+        }
+        FilmRating filmRating = getFilmRating(resultSet, columns.filmRating);
+        String genre = getString(resultSet, columns.genre);
+        String director = getString(resultSet, columns.director);
+        String plot = getString(resultSet, columns.plot);
+        int metascore = getInt(resultSet, columns.metascore);
+        short imdbRatingInTenths = (columns.imdbRatingInTenths == 0) ? 0 : resultSet.getShort(columns.imdbRatingInTenths);
+        if (columns.imdbRatingInTenths == 0 || resultSet.wasNull()) {
+            imdbRatingInTenths = Movie.NO_IMDB_RATING;
+        }
+        long imdbVotes = getLong(resultSet, columns.imdbVotes);
+        long version = getLong(resultSet, columns.version);
+        long lastModifiedInMillis = getLong(resultSet, columns.lastModifiedInMillis);
+        
+        return Movie.createMovieFromCompactFields(imdbId, title, runtimeInMinutes, releaseEpochDay, filmRating, genre, director, plot, metascore,
+                imdbRatingInTenths, imdbVotes, version, lastModifiedInMillis);
     }
     
     public static Optional<Movie> getSingleMovie(ResultSet resultSet) throws SQLException {
         
-        Optional<Movie> optionalMovie = resultSet.next() ? getMovieFromResultSet(resultSet) : Optional.empty();
+        Optional<Movie> optionalMovie = resultSet.next() ? Optional.of(getMovieFromResultSet(resultSet, new ColumnIndexes(resultSet)))
+                : Optional.empty();
         return optionalMovie;
     }
 
     public static List<Movie> getMultipleMovies(ResultSet resultSet) throws SQLException {
         
         List<Movie> movies = new ArrayList<Movie>();
+        forEachMovie(resultSet, movies::add);
+        return movies;
+    }
+
+    public static void forEachMovie(ResultSet resultSet, Consumer<Movie> movieConsumer) throws SQLException {
+        
+        ColumnIndexes columns = new ColumnIndexes(resultSet);
         
         while (resultSet.next()) {
             
-            Optional<Movie> movie = getMovieFromResultSet(resultSet);
-            
-            if (movie.isPresent()) {
-                
-                movies.add(movie.get());
-            }
+            movieConsumer.accept(getMovieFromResultSet(resultSet, columns));
         }
-        
-        return movies;
     }
-}
\ No newline at end of file
+}
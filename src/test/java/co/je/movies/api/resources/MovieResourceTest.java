@@ -1,39 +1,61 @@
 package co.je.movies.api.resources;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.jaxrs.smile.JacksonSmileProvider;
 import io.dropwizard.jersey.validation.ConstraintViolationExceptionMapper;
 import io.dropwizard.testing.junit.ResourceTestRule;
 
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import co.je.movies.domain.business.MovieBusiness;
+import co.je.movies.domain.entities.CreationStatus;
 import co.je.movies.domain.entities.Movie;
+import co.je.movies.domain.entities.MovieChange;
+import co.je.movies.domain.entities.MovieChangePage;
+import co.je.movies.domain.entities.MovieChangeType;
+import co.je.movies.domain.entities.MovieCreationResult;
+import co.je.movies.domain.entities.MovieField;
+import co.je.movies.domain.entities.MovieLookupResult;
+import co.je.movies.domain.entities.MoviePage;
+import co.je.movies.domain.entities.MovieStats;
 import co.je.movies.util.factories.MovieFactoryForTests;
 import co.je.movies.util.factories.ObjectMapperFactoryForTests;
 
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static org.junit.Assert.*;
 
 public class MovieResourceTest {
 
     private static final MovieBusiness movieBusinessMock = Mockito.mock(MovieBusiness.class);
-    private static final MovieResource movieResource = new MovieResource(movieBusinessMock);
+    private static final MovieResource movieResource = new MovieResource(movieBusinessMock,
+            ObjectMapperFactoryForTests.getConfiguredObjectMapper());
 
     @ClassRule
     public static final ResourceTestRule resources = ResourceTestRule.builder().addResource(movieResource)
             .addProvider(ConstraintViolationExceptionMapper.class)
+            .addProvider(new JacksonSmileProvider(ObjectMapperFactoryForTests.getConfiguredSmileObjectMapper()))
             .setMapper(ObjectMapperFactoryForTests.getConfiguredObjectMapper()).build();
 
+    @Before
+    public void setUp() {
+        Mockito.when(movieBusinessMock.getCollectionVersion(Mockito.anyLong())).thenReturn("test-1");
+        Mockito.when(movieBusinessMock.getIndexVersion()).thenReturn("index-1");
+    }
+
     private void createMovie(Movie movie) {
         String createUri = "/movies";
         Mockito.when(movieBusinessMock.createMovie(movie)).thenReturn(movie.getImdbId());
@@ -42,6 +64,7 @@ public class MovieResourceTest {
 
         assertNotNull(createResponse);
         assertEquals(201, createResponse.getStatus());
+        assertNotNull(createResponse.getHeaderString(MovieResource.WRITTEN_AT_HEADER));
     }
 
     @Test
@@ -63,13 +86,102 @@ public class MovieResourceTest {
         assertEquals(422, status);
     }
 
+    @Test
+    public void testCreateMovies_OK_ReportsNotValidMovies() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie notValidMovie = MovieFactoryForTests.getNotValidMovie();
+        List<MovieCreationResult> creationResults = Arrays.asList(
+                new MovieCreationResult(matrixMovie.getImdbId(), CreationStatus.CREATED));
+        Mockito.when(movieBusinessMock.createMovies(Mockito.anyList())).thenReturn(creationResults);
+
+        String uri = "/movies/bulk";
+        List<Movie> movies = Arrays.asList(matrixMovie, notValidMovie);
+        Response response = resources.client().target(uri).request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).post(Entity.entity(movies, MediaType.APPLICATION_JSON));
+
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+
+        MovieCreationResult[] results = response.readEntity(MovieCreationResult[].class);
+        assertEquals(2, results.length);
+        assertEquals(CreationStatus.CREATED, results[0].getStatus());
+        assertEquals(CreationStatus.NOT_VALID, results[1].getStatus());
+        assertEquals(2, results[1].getErrors().size());
+    }
+
+    @Test
+    public void testCreateMovies_OK_ReportsNullMovies() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        List<MovieCreationResult> creationResults = Arrays.asList(
+                new MovieCreationResult(matrixMovie.getImdbId(), CreationStatus.CREATED));
+        Mockito.when(movieBusinessMock.createMovies(Mockito.anyList())).thenReturn(creationResults);
+
+        String uri = "/movies/bulk";
+        List<Movie> movies = Arrays.asList(null, matrixMovie);
+        Response response = resources.client().target(uri).request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).post(Entity.entity(movies, MediaType.APPLICATION_JSON));
+
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+
+        MovieCreationResult[] results = response.readEntity(MovieCreationResult[].class);
+        assertEquals(2, results.length);
+        assertEquals(CreationStatus.NOT_VALID, results[0].getStatus());
+        assertEquals(Arrays.asList("movie may not be null"), results[0].getErrors());
+        assertEquals(CreationStatus.CREATED, results[1].getStatus());
+    }
+
+    @Test
+    public void testCreateMovies_OK_ReadsOneMoviePerLine() throws IOException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        List<MovieCreationResult> creationResults = Arrays.asList(
+                new MovieCreationResult(matrixMovie.getImdbId(), CreationStatus.CREATED));
+        Mockito.when(movieBusinessMock.createMovies(Mockito.anyList())).thenReturn(creationResults);
+
+        String uri = "/movies/bulk";
+        String matrixMovieLine = ObjectMapperFactoryForTests.getConfiguredObjectMapper().writeValueAsString(matrixMovie);
+        String lines = matrixMovieLine + "\n{\"imdbId\": \n\nnull\n";
+        Response response = resources.client().target(uri).request(MovieResource.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_JSON).post(Entity.entity(lines, MovieResource.APPLICATION_NDJSON));
+
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+
+        MovieCreationResult[] results = response.readEntity(MovieCreationResult[].class);
+        assertEquals(3, results.length);
+        assertEquals(CreationStatus.CREATED, results[0].getStatus());
+        assertEquals(CreationStatus.NOT_VALID, results[1].getStatus());
+        assertEquals(1, results[1].getErrors().size());
+        assertEquals(CreationStatus.NOT_VALID, results[2].getStatus());
+        assertEquals(Arrays.asList("movie may not be null"), results[2].getErrors());
+    }
+
+    @Test
+    public void testGetMoviesByImdbIds_OK_ReportsMissingImdbIds() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        List<String> imdbIds = Arrays.asList("tt0000000", matrixMovie.getImdbId());
+        Mockito.when(movieBusinessMock.getMoviesByImdbIds(imdbIds, 0)).thenReturn(Arrays.asList(matrixMovie));
+
+        String uri = "/movies/_mget";
+        Response response = resources.client().target(uri).request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).post(Entity.entity(imdbIds, MediaType.APPLICATION_JSON));
+
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+
+        MovieLookupResult result = response.readEntity(MovieLookupResult.class);
+        assertEquals(1, result.getMovies().size());
+        assertEquals(0, matrixMovie.compareTo(result.getMovies().get(0)));
+        assertEquals(Arrays.asList("tt0000000"), result.getMissingImdbIds());
+    }
+
     @Test
     public void testGetMovieByImdbId_OK() {
         Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
         createMovie(matrixMovie);
 
         Optional<Movie> optionalMovie = Optional.of(matrixMovie);
-        Mockito.when(movieBusinessMock.getMovieByImdbId(matrixMovie.getImdbId())).thenReturn(optionalMovie);
+        Mockito.when(movieBusinessMock.getMovieByImdbId(matrixMovie.getImdbId(), 0)).thenReturn(optionalMovie);
 
         String uri = "/movies/" + matrixMovie.getImdbId();
         Response response = resources.client().target(uri).request(MediaType.APPLICATION_JSON)
@@ -82,6 +194,52 @@ public class MovieResourceTest {
         assertEquals(0, matrixMovie.compareTo(movie));
     }
 
+    @Test
+    public void testGetMovieByImdbId_OK_NotModified() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Mockito.when(movieBusinessMock.getMovieByImdbId(matrixMovie.getImdbId(), 0)).thenReturn(Optional.of(matrixMovie));
+
+        String uri = "/movies/" + matrixMovie.getImdbId();
+        Response response = resources.client().target(uri).request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).get();
+        assertEquals(200, response.getStatus());
+        String eTag = response.getHeaderString(HttpHeaders.ETAG);
+        assertNotNull(eTag);
+        assertNotNull(response.getHeaderString(HttpHeaders.LAST_MODIFIED));
+
+        Response notModifiedResponse = resources.client().target(uri).request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, eTag).get();
+        assertEquals(304, notModifiedResponse.getStatus());
+        assertEquals(eTag, notModifiedResponse.getHeaderString(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testGetMovieByImdbId_OK_ReadsYourWrites() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        long writtenAtInMillis = System.currentTimeMillis();
+        Mockito.when(movieBusinessMock.getMovieByImdbId(matrixMovie.getImdbId(), writtenAtInMillis)).thenReturn(Optional.of(matrixMovie));
+
+        String uri = "/movies/" + matrixMovie.getImdbId();
+        Response response = resources.client().target(uri).request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).header(MovieResource.WRITTEN_AT_HEADER, writtenAtInMillis).get();
+
+        assertEquals(200, response.getStatus());
+        Mockito.verify(movieBusinessMock).getMovieByImdbId(matrixMovie.getImdbId(), writtenAtInMillis);
+    }
+
+    @Test
+    public void testGetMoviesByParams_OK_NotModifiedSkipsSearch() {
+        String uri = "/movies";
+        Response response = resources.client().target(uri)
+                .queryParam("title", "not modified")
+                .request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, "\"test-1\"").get();
+
+        assertEquals(304, response.getStatus());
+        Mockito.verify(movieBusinessMock, Mockito.never()).getMoviesByParams(Mockito.eq("not modified"), Mockito.anyInt(),
+                Mockito.anyInt(), Mockito.any(), Mockito.anyLong(), Mockito.any(), Mockito.anyInt(), Mockito.any(), Mockito.anyLong());
+    }
+
     @Test
     public void testGetMoviesByParams_OK() {
         Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
@@ -95,9 +253,11 @@ public class MovieResourceTest {
         BigDecimal imdbRating = new BigDecimal("7.0");
         long imdbVotes = 10000;
         List<Movie> expectedMovies = Arrays.asList(matrixMovie, matrixReloadedMovie);
+        MoviePage moviePage = new MoviePage(expectedMovies, Optional.of(matrixReloadedMovie.getImdbId()), "test-2");
         Mockito.when(
-                movieBusinessMock.getMoviesByParams(title, runtimeInMinutes, metascore, imdbRating, imdbVotes)
-        ).thenReturn(expectedMovies);
+                movieBusinessMock.getMoviesByParams(title, runtimeInMinutes, metascore, imdbRating, imdbVotes, null,
+                        MovieBusiness.DEFAULT_PAGE_SIZE, EnumSet.allOf(MovieField.class), 0)
+        ).thenReturn(moviePage);
 
         String uri = "/movies";
         Response response = resources.client().target(uri)
@@ -114,6 +274,200 @@ public class MovieResourceTest {
 
         Movie[] movies = response.readEntity(Movie[].class);
         assertEquals(2, movies.length);
+        // The version read with the page, not the one checked before it.
+        assertEquals("\"test-2\"", response.getHeaderString(HttpHeaders.ETAG));
+
+        String nextCursor = response.getHeaderString(MovieResource.NEXT_CURSOR_HEADER);
+        assertNotNull(nextCursor);
+
+        Mockito.when(
+                movieBusinessMock.getMoviesByParams(title, runtimeInMinutes, metascore, imdbRating, imdbVotes,
+                        matrixReloadedMovie.getImdbId(), 1, EnumSet.allOf(MovieField.class), 0)
+        ).thenReturn(new MoviePage(Collections.emptyList(), Optional.empty(), "test-2"));
+
+        Response nextPageResponse = resources.client().target(uri)
+                .queryParam("title", title)
+                .queryParam("runtimeInMinutes", runtimeInMinutes)
+                .queryParam("metascore", metascore)
+                .queryParam("imdbRating", imdbRating)
+                .queryParam("imdbVotes", imdbVotes)
+                .queryParam("cursor", nextCursor)
+                .queryParam("limit", 1)
+                .request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).get();
+
+        assertEquals(200, nextPageResponse.getStatus());
+        assertEquals(0, nextPageResponse.readEntity(Movie[].class).length);
+        assertNull(nextPageResponse.getHeaderString(MovieResource.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStreamMoviesByParams_OK_OneMoviePerLine() throws IOException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        Mockito.doAnswer(invocation -> {
+            Consumer<Movie> movieConsumer = (Consumer<Movie>) invocation.getArguments()[7];
+            movieConsumer.accept(matrixMovie);
+            movieConsumer.accept(matrixReloadedMovie);
+            return null;
+        }).when(movieBusinessMock).streamMoviesByParams(Mockito.eq("matrix"), Mockito.anyInt(), Mockito.anyInt(),
+                Mockito.any(), Mockito.anyLong(), Mockito.eq(EnumSet.allOf(MovieField.class)), Mockito.eq(0L), Mockito.any());
+
+        String uri = "/movies";
+        Response response = resources.client().target(uri)
+                .queryParam("title", "matrix")
+                .request(MovieResource.APPLICATION_NDJSON)
+                .get();
+
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+
+        String[] lines = response.readEntity(String.class).split("\n");
+        assertEquals(2, lines.length);
+
+        ObjectMapper objectMapper = ObjectMapperFactoryForTests.getConfiguredObjectMapper();
+        assertEquals(0, matrixMovie.compareTo(objectMapper.readValue(lines[0], Movie.class)));
+        assertEquals(0, matrixReloadedMovie.compareTo(objectMapper.readValue(lines[1], Movie.class)));
+    }
+
+    @Test
+    public void testGetMoviesByParams_NOK_NotValidCursor() {
+        String uri = "/movies";
+        Response response = resources.client().target(uri)
+                .queryParam("cursor", "not a cursor!")
+                .request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).get();
+
+        assertNotNull(response);
+        assertEquals(400, response.getStatus());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetMoviesByParams_OK_OnlyRequestedFields() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Set<MovieField> movieFields = EnumSet.of(MovieField.IMDB_ID, MovieField.TITLE, MovieField.IMDB_RATING);
+        Mockito.when(
+                movieBusinessMock.getMoviesByParams("fields", 0, 0, null, 0, null, MovieBusiness.DEFAULT_PAGE_SIZE, movieFields, 0)
+        ).thenReturn(new MoviePage(Arrays.asList(matrixMovie), Optional.empty(), "test-2"));
+
+        String uri = "/movies";
+        Response response = resources.client().target(uri)
+                .queryParam("title", "fields")
+                .queryParam("fields", "title,imdbRating")
+                .request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).get();
+
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+
+        List<Map<String, Object>> movies = response.readEntity(List.class);
+        assertEquals(1, movies.size());
+        assertEquals(Arrays.asList("imdbId", "title", "imdbRating"), new ArrayList<String>(movies.get(0).keySet()));
+        assertEquals(matrixMovie.getTitle(), movies.get(0).get("title"));
+    }
+
+    @Test
+    public void testGetMoviesByParams_NOK_ImdbRatingOutOfRange() {
+        Response response = resources.client().target("/movies")
+                .queryParam("imdbRating", "100000")
+                .request(MediaType.APPLICATION_JSON).get();
+
+        assertEquals(400, response.getStatus());
+    }
+
+    @Test
+    public void testGetMoviesByParams_NOK_UnknownField() {
+        String uri = "/movies";
+        Response response = resources.client().target(uri)
+                .queryParam("fields", "title,budget")
+                .request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).get();
+
+        assertNotNull(response);
+        assertEquals(400, response.getStatus());
+    }
+
+    @Test
+    public void testSearchMovies_OK() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Mockito.when(movieBusinessMock.searchMovies("matrix hacker", MovieBusiness.DEFAULT_PAGE_SIZE, 0))
+                .thenReturn(Arrays.asList(matrixMovie));
+
+        String uri = "/movies/search";
+        Response response = resources.client().target(uri)
+                .queryParam("q", "matrix hacker")
+                .request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).get();
+
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+
+        assertEquals("\"index-1\"", response.getHeaderString(HttpHeaders.ETAG));
+        Movie[] movies = response.readEntity(Movie[].class);
+        assertEquals(1, movies.length);
+        assertEquals(0, matrixMovie.compareTo(movies[0]));
+    }
+
+    @Test
+    public void testSearchMovies_OK_SmileWhenAskedFor() throws IOException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Mockito.when(movieBusinessMock.searchMovies("matrix", MovieBusiness.DEFAULT_PAGE_SIZE, 0))
+                .thenReturn(Arrays.asList(matrixMovie));
+
+        String uri = "/movies/search";
+        Response response = resources.client().target(uri)
+                .queryParam("q", "matrix")
+                .request(MovieResource.APPLICATION_SMILE)
+                .get();
+
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+        assertEquals(MovieResource.APPLICATION_SMILE, response.getMediaType().toString());
+
+        byte[] smileMovies = response.readEntity(byte[].class);
+        Movie[] movies = ObjectMapperFactoryForTests.getConfiguredSmileObjectMapper().readValue(smileMovies, Movie[].class);
+        assertEquals(1, movies.length);
+        assertEquals(0, matrixMovie.compareTo(movies[0]));
+    }
+
+    @Test
+    public void testGetChanges_OK() {
+        List<MovieChange> changes = Arrays.asList(new MovieChange(8, "tt0133093", MovieChangeType.UPDATED, 1L));
+        Mockito.when(movieBusinessMock.getChanges(7, MovieResource.DEFAULT_CHANGES_PAGE_SIZE))
+                .thenReturn(Optional.of(new MovieChangePage(changes, 8, false)));
+
+        Response response = resources.client().target("/movies/changes").queryParam("since", 7).request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).get();
+
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+
+        Map<?, ?> changePage = response.readEntity(Map.class);
+        assertEquals(8, ((Number) changePage.get("lastSeq")).intValue());
+        assertEquals(false, changePage.get("hasMoreChanges"));
+        Map<?, ?> change = (Map<?, ?>) ((List<?>) changePage.get("changes")).get(0);
+        assertEquals("tt0133093", change.get("imdbId"));
+        assertEquals("updated", change.get("changeType"));
+
+        // The waiter added before reading is removed once answered, not left for the next write.
+        ArgumentCaptor<Runnable> changeWaiter = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(movieBusinessMock, Mockito.atLeastOnce()).addChangeWaiter(changeWaiter.capture());
+        Mockito.verify(movieBusinessMock, Mockito.timeout(1000)).removeChangeWaiter(changeWaiter.getValue());
+    }
+
+    @Test
+    public void testGetChanges_NOK_PrunedChanges() {
+        Mockito.when(movieBusinessMock.getChanges(1, MovieResource.DEFAULT_CHANGES_PAGE_SIZE)).thenReturn(Optional.empty());
+        Mockito.when(movieBusinessMock.getLastChangeSeq()).thenReturn(42L);
+
+        Response response = resources.client().target("/movies/changes").queryParam("since", 1).request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).get();
+
+        assertNotNull(response);
+        assertEquals(410, response.getStatus());
+        assertEquals(42, ((Number) response.readEntity(Map.class).get("lastSeq")).intValue());
     }
 
     @Test
@@ -142,6 +496,138 @@ public class MovieResourceTest {
         assertEquals(1, matrixReloaded.compareTo(movie));
     }
 
+    @Test
+    public void testUpdateMovie_OK_UpsertCreatesMissingMovie() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        String matrixImdbId = matrixMovie.getImdbId();
+        Movie createdMovie = Movie.createMovieFromCompactFields(matrixImdbId, matrixMovie.getTitle(),
+                matrixMovie.getRuntimeInMinutes(), matrixMovie.getReleaseEpochDay(), matrixMovie.getFilmRating(),
+                matrixMovie.getGenre(), matrixMovie.getDirector(), matrixMovie.getPlot(), matrixMovie.getMetascore(),
+                matrixMovie.getImdbRatingInTenths(), matrixMovie.getImdbVotes(), 1, System.currentTimeMillis());
+        Mockito.when(movieBusinessMock.upsertMovie(Mockito.eq(matrixImdbId), Mockito.any(Movie.class))).thenReturn(createdMovie);
+
+        String uri = "/movies/" + matrixImdbId;
+        Response response = resources.client().target(uri).queryParam("upsert", true).request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).put(Entity.entity(matrixMovie, MediaType.APPLICATION_JSON));
+
+        assertNotNull(response);
+        assertEquals(201, response.getStatus());
+        assertEquals(0, matrixMovie.compareTo(response.readEntity(Movie.class)));
+    }
+
+    @Test
+    public void testCreateMovies_OK_UpsertReportsUpdatedMovies() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        List<MovieCreationResult> upsertResults = Arrays.asList(
+                new MovieCreationResult(matrixMovie.getImdbId(), CreationStatus.UPDATED));
+        Mockito.when(movieBusinessMock.upsertMovies(Mockito.anyList())).thenReturn(upsertResults);
+
+        String uri = "/movies/bulk";
+        List<Movie> movies = Arrays.asList(matrixMovie);
+        Response response = resources.client().target(uri).queryParam("upsert", true).request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).post(Entity.entity(movies, MediaType.APPLICATION_JSON));
+
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+
+        MovieCreationResult[] results = response.readEntity(MovieCreationResult[].class);
+        assertEquals(1, results.length);
+        assertEquals(CreationStatus.UPDATED, results[0].getStatus());
+    }
+
+    @Test
+    public void testPatchMovie_OK() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        String matrixImdbId = matrixMovie.getImdbId();
+        Mockito.when(
+                movieBusinessMock.patchMovie(Mockito.eq(matrixImdbId), Mockito.any(Movie.class),
+                        Mockito.eq(EnumSet.of(MovieField.METASCORE, MovieField.IMDB_VOTES)))
+        ).thenReturn(Optional.of(matrixMovie));
+
+        Map<String, Object> changes = new HashMap<String, Object>();
+        changes.put("metascore", 74);
+        changes.put("imdbVotes", 1023700);
+        String uri = "/movies/" + matrixImdbId;
+        Response response = resources.client().target(uri).request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).method("PATCH", Entity.entity(changes, MediaType.APPLICATION_JSON));
+
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+        assertEquals(0, matrixMovie.compareTo(response.readEntity(Movie.class)));
+    }
+
+    @Test
+    public void testPatchMovie_NOK_ImdbIdCantChange() {
+        Map<String, Object> changes = new HashMap<String, Object>();
+        changes.put("imdbId", "tt0000000");
+        String uri = "/movies/tt0133093";
+        Response response = resources.client().target(uri).request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).method("PATCH", Entity.entity(changes, MediaType.APPLICATION_JSON));
+
+        assertNotNull(response);
+        assertEquals(400, response.getStatus());
+    }
+
+    @Test
+    public void testPatchMovie_NOK_NotValidField() {
+        Map<String, Object> changes = new HashMap<String, Object>();
+        changes.put("title", "");
+        String uri = "/movies/tt0133093";
+        Response response = resources.client().target(uri).request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).method("PATCH", Entity.entity(changes, MediaType.APPLICATION_JSON));
+
+        assertNotNull(response);
+        assertEquals(422, response.getStatus());
+    }
+
+    @Test
+    public void testPatchMovie_NOK_NullPrimitiveField() {
+        Map<String, Object> changes = new HashMap<String, Object>();
+        changes.put("metascore", null);
+        String uri = "/movies/tt0133093";
+        Response response = resources.client().target(uri).request(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).method("PATCH", Entity.entity(changes, MediaType.APPLICATION_JSON));
+
+        assertNotNull(response);
+        assertEquals(422, response.getStatus());
+    }
+
+    @Test
+    public void testUpdateMoviesStats_OK_Accepted() {
+        List<MovieStats> moviesStats = Arrays.asList(new MovieStats("tt0133093", 74, new BigDecimal("8.8"), 1023700L));
+
+        String uri = "/movies/_stats";
+        Response response = resources.client().target(uri).request(MediaType.APPLICATION_JSON)
+                .post(Entity.entity(moviesStats, MediaType.APPLICATION_JSON));
+
+        assertNotNull(response);
+        assertEquals(202, response.getStatus());
+        Mockito.verify(movieBusinessMock).updateMoviesStats(Mockito.anyList());
+    }
+
+    @Test
+    public void testUpdateMoviesStats_NOK_NotValidStats() {
+        List<MovieStats> moviesStats = Arrays.asList(new MovieStats("", 74, null, -1L));
+
+        String uri = "/movies/_stats";
+        Response response = resources.client().target(uri).request(MediaType.APPLICATION_JSON)
+                .post(Entity.entity(moviesStats, MediaType.APPLICATION_JSON));
+
+        assertNotNull(response);
+        assertEquals(422, response.getStatus());
+    }
+
+    @Test
+    public void testUpdateMoviesStats_NOK_ImdbRatingOutOfRange() {
+        List<MovieStats> moviesStats = Arrays.asList(new MovieStats("tt0133093", 74, new BigDecimal("100000"), 1023700L));
+
+        String uri = "/movies/_stats";
+        Response response = resources.client().target(uri).request(MediaType.APPLICATION_JSON)
+                .post(Entity.entity(moviesStats, MediaType.APPLICATION_JSON));
+
+        assertEquals(422, response.getStatus());
+    }
+
     @Test
     public void testDeleteMovie_OK() {
         Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
@@ -1,20 +1,41 @@
 package co.je.movies.domain.business;
 
+import co.je.movies.domain.entities.CreationStatus;
 import co.je.movies.domain.entities.Movie;
+import co.je.movies.domain.entities.MovieChange;
+import co.je.movies.domain.entities.MovieChangePage;
+import co.je.movies.domain.entities.MovieChangeType;
+import co.je.movies.domain.entities.MovieCreationResult;
+import co.je.movies.domain.entities.MovieField;
+import co.je.movies.domain.entities.MoviePage;
+import co.je.movies.domain.search.MovieColumnIndex;
+import co.je.movies.domain.search.MovieSearchIndex;
+import co.je.movies.infrastructure.cache.MovieCache;
+import co.je.movies.infrastructure.datasource.ReplicaRouter;
 import co.je.movies.persistence.daos.MovieDAO;
 import co.je.movies.util.factories.MovieFactoryForTests;
 import org.apache.commons.dbcp2.BasicDataSource;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static org.junit.Assert.*;
 
@@ -23,6 +44,7 @@ public class MovieBusinessTest {
     private Connection dbConnectionMock;
     private BasicDataSource dataSourceMock;
     private MovieDAO movieDAOMock;
+    private MovieSearchIndex movieSearchIndex;
     private MovieBusiness movieBusiness;
     
     @Before
@@ -33,7 +55,8 @@ public class MovieBusinessTest {
             Mockito.when(dataSourceMock.getConnection()).thenReturn(dbConnectionMock);
             
             movieDAOMock = Mockito.mock(MovieDAO.class);
-            movieBusiness = new MovieBusiness(dataSourceMock, movieDAOMock);
+            movieSearchIndex = new MovieSearchIndex();
+            movieBusiness = new MovieBusiness(dataSourceMock, movieDAOMock, new MovieCache(100, 60), movieSearchIndex);
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -44,6 +67,7 @@ public class MovieBusinessTest {
         dbConnectionMock = null;
         dataSourceMock = null;
         movieDAOMock = null;
+        movieSearchIndex = null;
         movieBusiness = null;
     }
     
@@ -76,6 +100,46 @@ public class MovieBusinessTest {
         }
     }
 
+    @Test
+    public void testCreateMovies_OK_CommitsTransaction() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        List<Movie> movies = Arrays.asList(matrixMovie);
+        List<MovieCreationResult> expectedResults = Arrays.asList(
+                new MovieCreationResult(matrixMovie.getImdbId(), CreationStatus.CREATED));
+        Mockito.when(movieDAOMock.createMovies(dbConnectionMock, movies)).thenReturn(expectedResults);
+
+        List<MovieCreationResult> results = movieBusiness.createMovies(movies);
+        assertEquals(expectedResults, results);
+        Mockito.verify(dbConnectionMock).setAutoCommit(false);
+        Mockito.verify(dbConnectionMock).commit();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCreateMovies_NOK_RollsBackAndThrowsIllegalStateException() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        List<Movie> movies = Arrays.asList(matrixMovie);
+        Mockito.doThrow(SQLException.class).when(movieDAOMock).createMovies(dbConnectionMock, movies);
+        try {
+            movieBusiness.createMovies(movies);
+        } finally {
+            Mockito.verify(dbConnectionMock).rollback();
+        }
+    }
+
+    @Test
+    public void testUpsertMovies_OK_CommitsTransaction() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        List<Movie> movies = Arrays.asList(matrixMovie);
+        List<MovieCreationResult> expectedResults = Arrays.asList(
+                new MovieCreationResult(matrixMovie.getImdbId(), CreationStatus.UPDATED));
+        Mockito.when(movieDAOMock.upsertMovies(dbConnectionMock, movies)).thenReturn(expectedResults);
+
+        List<MovieCreationResult> results = movieBusiness.upsertMovies(movies);
+        assertEquals(expectedResults, results);
+        Mockito.verify(movieDAOMock, Mockito.never()).createMovies(dbConnectionMock, movies);
+        Mockito.verify(dbConnectionMock).commit();
+    }
+
     @Test
     public void testGetMovieByImdbId_OK() throws SQLException {
         Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
@@ -89,6 +153,55 @@ public class MovieBusinessTest {
         assertEquals(0, matrixMovie.compareTo(movieByImdbId.get()));
     }
 
+    @Test
+    public void testGetMovieByImdbId_OK_SecondLookupIsCached() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        String imdbId = matrixMovie.getImdbId();
+        Mockito.when(movieDAOMock.getMovieByImdbId(dbConnectionMock, imdbId)).thenReturn(Optional.of(matrixMovie));
+
+        movieBusiness.getMovieByImdbId(imdbId);
+        Optional<Movie> movieByImdbId = movieBusiness.getMovieByImdbId(imdbId);
+        assertEquals(0, matrixMovie.compareTo(movieByImdbId.get()));
+        Mockito.verify(movieDAOMock, Mockito.times(1)).getMovieByImdbId(dbConnectionMock, imdbId);
+    }
+
+    @Test
+    public void testGetMovieByImdbId_OK_NotFoundIsCachedUntilCreate() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        String imdbId = matrixMovie.getImdbId();
+        Mockito.when(movieDAOMock.getMovieByImdbId(dbConnectionMock, imdbId)).thenReturn(Optional.empty());
+
+        assertFalse(movieBusiness.getMovieByImdbId(imdbId).isPresent());
+        assertFalse(movieBusiness.getMovieByImdbId(imdbId).isPresent());
+        Mockito.verify(movieDAOMock, Mockito.times(1)).getMovieByImdbId(dbConnectionMock, imdbId);
+
+        Mockito.when(movieDAOMock.createMovie(dbConnectionMock, matrixMovie)).thenReturn(imdbId);
+        Mockito.when(movieDAOMock.getMovieByImdbId(dbConnectionMock, imdbId)).thenReturn(Optional.of(matrixMovie));
+        movieBusiness.createMovie(matrixMovie);
+
+        assertTrue(movieBusiness.getMovieByImdbId(imdbId).isPresent());
+        Mockito.verify(movieDAOMock, Mockito.times(2)).getMovieByImdbId(dbConnectionMock, imdbId);
+    }
+
+    @Test
+    public void testUpdateMovie_OK_InvalidatesCachedMovie() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        String imdbId = matrixMovie.getImdbId();
+        Movie expectedMovie = MovieFactoryForTests.getUpdatedMovie(imdbId, matrixReloadedMovie);
+        Mockito.when(movieDAOMock.getMovieByImdbId(dbConnectionMock, imdbId)).thenReturn(Optional.of(matrixMovie));
+        movieBusiness.getMovieByImdbId(imdbId);
+
+        Mockito.when(
+                movieDAOMock.updateMovie(dbConnectionMock, imdbId, matrixReloadedMovie)
+        ).thenReturn(Optional.of(expectedMovie));
+        Mockito.when(movieDAOMock.getMovieByImdbId(dbConnectionMock, imdbId)).thenReturn(Optional.of(expectedMovie));
+        movieBusiness.updateMovie(imdbId, matrixReloadedMovie);
+
+        Movie movie = movieBusiness.getMovieByImdbId(imdbId).get();
+        assertEquals(0, expectedMovie.compareTo(movie));
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testGetMovieByImdbId_NOK_ThrowsIllegalStateException() throws SQLException {
         Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
@@ -112,19 +225,61 @@ public class MovieBusinessTest {
                         100,
                         6,
                         imdbRating,
-                        10000
+                        10000,
+                        null,
+                        11,
+                        EnumSet.allOf(MovieField.class)
                 )
         ).thenReturn(expectedMovies);
 
-        List<Movie> movies = movieBusiness.getMoviesByParams(
+        MoviePage moviePage = movieBusiness.getMoviesByParams(
                 "matrix",
                 100,
                 6,
                 imdbRating,
-                10000
+                10000,
+                null,
+                10
         );
-        assertNotNull(movies);
-        assertEquals(2, movies.size());
+        assertNotNull(moviePage);
+        assertEquals(2, moviePage.getMovies().size());
+        assertFalse(moviePage.getLastImdbId().isPresent());
+    }
+
+    @Test
+    public void testGetMoviesByParams_OK_HasNextPage() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        List<Movie> expectedMovies = Arrays.asList(matrixMovie, matrixReloadedMovie);
+
+        Mockito.when(
+                movieDAOMock.getMoviesByParams(dbConnectionMock, "matrix", 0, 0, null, 0, null, 2,
+                        EnumSet.allOf(MovieField.class))
+        ).thenReturn(expectedMovies);
+
+        MoviePage moviePage = movieBusiness.getMoviesByParams("matrix", 0, 0, null, 0, null, 1);
+        assertEquals(1, moviePage.getMovies().size());
+        assertEquals(matrixMovie.getImdbId(), moviePage.getLastImdbId().get());
+    }
+
+    @Test
+    public void testGetMoviesByParams_OK_ReadsCollectionVersionBeforeMovies() throws SQLException {
+        Mockito.when(movieDAOMock.getLastChangeSeq(dbConnectionMock)).thenReturn(42L);
+
+        MoviePage moviePage = movieBusiness.getMoviesByParams("matrix", 0, 0, null, 0, null, 1);
+        assertEquals("42", moviePage.getCollectionVersion());
+        assertEquals("42", movieBusiness.getCollectionVersion(0));
+        InOrder inOrder = Mockito.inOrder(movieDAOMock);
+        inOrder.verify(movieDAOMock).getLastChangeSeq(dbConnectionMock);
+        inOrder.verify(movieDAOMock).getMoviesByParams(dbConnectionMock, "matrix", 0, 0, null, 0, null, 2,
+                EnumSet.allOf(MovieField.class));
+    }
+
+    @Test
+    public void testGetMoviesByParams_OK_LimitIsBounded() throws SQLException {
+        movieBusiness.getMoviesByParams("matrix", 0, 0, null, 0, null, Integer.MAX_VALUE);
+        Mockito.verify(movieDAOMock).getMoviesByParams(dbConnectionMock, "matrix", 0, 0, null, 0, null,
+                MovieBusiness.MAX_PAGE_SIZE + 1, EnumSet.allOf(MovieField.class));
     }
 
     @Test(expected = IllegalStateException.class)
@@ -142,7 +297,10 @@ public class MovieBusinessTest {
                 100,
                 6,
                 imdbRating,
-                10000
+                10000,
+                null,
+                11,
+                EnumSet.allOf(MovieField.class)
         );
 
         movieBusiness.getMoviesByParams(
@@ -150,10 +308,131 @@ public class MovieBusinessTest {
                 100,
                 6,
                 imdbRating,
-                10000
+                10000,
+                null,
+                10
         );
     }
 
+    @Test
+    public void testGetMoviesByParams_OK_UsesColumnIndexInsteadOfDB() throws SQLException {
+        MovieColumnIndex movieColumnIndex = new MovieColumnIndex();
+        movieBusiness = new MovieBusiness(dataSourceMock, movieDAOMock, new MovieCache(100, 60), movieSearchIndex, movieColumnIndex);
+
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        movieColumnIndex.put(matrixMovie);
+        movieColumnIndex.put(matrixReloadedMovie);
+        Mockito.when(movieDAOMock.getMoviesByImdbIds(dbConnectionMock, Arrays.asList(matrixMovie.getImdbId())))
+                .thenReturn(Arrays.asList(matrixMovie));
+
+        MoviePage moviePage = movieBusiness.getMoviesByParams("matrix", 100, 6, new BigDecimal("8.0"), 10000, null, 10);
+        assertEquals(1, moviePage.getMovies().size());
+        assertEquals(0, matrixMovie.compareTo(moviePage.getMovies().get(0)));
+        Mockito.verify(movieDAOMock, Mockito.never()).getMoviesByParams(Mockito.any(), Mockito.any(), Mockito.anyInt(),
+                Mockito.anyInt(), Mockito.any(), Mockito.anyLong(), Mockito.any(), Mockito.anyInt(), Mockito.any());
+    }
+
+    @Test
+    public void testGetMoviesByParams_OK_ColumnIndexPagesByHitsEvenIfMissingFromDB() throws SQLException {
+        MovieColumnIndex movieColumnIndex = new MovieColumnIndex();
+        movieBusiness = new MovieBusiness(dataSourceMock, movieDAOMock, new MovieCache(100, 60), movieSearchIndex, movieColumnIndex);
+
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        movieColumnIndex.put(matrixMovie);
+        movieColumnIndex.put(matrixReloadedMovie);
+        // The first hit was deleted from the DB.
+        Mockito.when(movieDAOMock.getMoviesByImdbIds(dbConnectionMock, Arrays.asList(matrixMovie.getImdbId())))
+                .thenReturn(Collections.emptyList());
+
+        MoviePage moviePage = movieBusiness.getMoviesByParams("matrix", 0, 0, BigDecimal.ZERO, 0, null, 1);
+        assertTrue(moviePage.getMovies().isEmpty());
+        assertEquals(Optional.of(matrixMovie.getImdbId()), moviePage.getLastImdbId());
+        Mockito.verify(movieDAOMock).getMoviesByImdbIds(dbConnectionMock, Arrays.asList(matrixMovie.getImdbId()));
+    }
+
+    @Test
+    public void testGetMoviesByParams_OK_ColumnIndexVersionChangesOnlyOnceIndexed() throws SQLException {
+        MovieColumnIndex movieColumnIndex = new MovieColumnIndex();
+        movieBusiness = new MovieBusiness(dataSourceMock, movieDAOMock, new MovieCache(100, 60), movieSearchIndex, movieColumnIndex);
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        String versionBeforeWrite = movieBusiness.getCollectionVersion(0);
+        Mockito.when(movieDAOMock.createMovie(dbConnectionMock, matrixMovie)).thenAnswer(invocation -> {
+            // Committed, but not in the index yet.
+            assertEquals(versionBeforeWrite, movieBusiness.getCollectionVersion(0));
+            return matrixMovie.getImdbId();
+        });
+
+        movieBusiness.createMovie(matrixMovie);
+        String versionAfterWrite = movieBusiness.getCollectionVersion(0);
+        assertNotEquals(versionBeforeWrite, versionAfterWrite);
+        assertEquals(versionAfterWrite, movieBusiness.getIndexVersion());
+        Mockito.when(movieDAOMock.getMoviesByImdbIds(dbConnectionMock, Arrays.asList(matrixMovie.getImdbId())))
+                .thenReturn(Arrays.asList(matrixMovie));
+        assertEquals(versionAfterWrite, movieBusiness.getMoviesByParams("matrix", 0, 0, null, 0, null, 10).getCollectionVersion());
+        Mockito.verify(movieDAOMock, Mockito.never()).getLastChangeSeq(Mockito.any());
+    }
+
+    @Test
+    public void testGetMoviesByImdbIds_OK_KeepsRequestOrderAndReadsOnlyNotCachedMovies() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        Mockito.when(movieDAOMock.getMovieByImdbId(dbConnectionMock, matrixMovie.getImdbId())).thenReturn(Optional.of(matrixMovie));
+        movieBusiness.getMovieByImdbId(matrixMovie.getImdbId());
+
+        List<String> notCachedImdbIds = Arrays.asList(matrixReloadedMovie.getImdbId(), "tt0000000");
+        Mockito.when(movieDAOMock.getMoviesByImdbIds(dbConnectionMock, notCachedImdbIds)).thenReturn(Arrays.asList(matrixReloadedMovie));
+
+        List<Movie> movies = movieBusiness.getMoviesByImdbIds(Arrays.asList(matrixReloadedMovie.getImdbId(), "tt0000000",
+                matrixMovie.getImdbId(), matrixReloadedMovie.getImdbId()));
+        assertEquals(2, movies.size());
+        assertEquals(matrixReloadedMovie.getImdbId(), movies.get(0).getImdbId());
+        assertEquals(matrixMovie.getImdbId(), movies.get(1).getImdbId());
+        Mockito.verify(movieDAOMock, Mockito.times(1)).getMoviesByImdbIds(dbConnectionMock, notCachedImdbIds);
+
+        // Found and not found movies are cached by now.
+        movieBusiness.getMoviesByImdbIds(notCachedImdbIds);
+        Mockito.verify(movieDAOMock, Mockito.times(1)).getMoviesByImdbIds(Mockito.any(), Mockito.anyList());
+    }
+
+    @Test
+    public void testSearchMovies_OK_IndexFollowsCreateAndDelete() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        String imdbId = matrixMovie.getImdbId();
+        Mockito.when(movieDAOMock.createMovie(dbConnectionMock, matrixMovie)).thenReturn(imdbId);
+        Mockito.when(movieDAOMock.getMoviesByImdbIds(dbConnectionMock, Arrays.asList(imdbId))).thenReturn(Arrays.asList(matrixMovie));
+        Mockito.when(movieDAOMock.deleteMovie(dbConnectionMock, imdbId)).thenReturn(true);
+
+        movieBusiness.createMovie(matrixMovie);
+        List<Movie> movies = movieBusiness.searchMovies("matrix", 10);
+        assertEquals(1, movies.size());
+        assertEquals(0, matrixMovie.compareTo(movies.get(0)));
+
+        movieBusiness.deleteMovie(imdbId);
+        assertTrue(movieBusiness.searchMovies("matrix", 10).isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBuildSearchIndex_OK_IndexesMoviesWithoutRating() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie unratedMovie = new Movie(matrixMovie.getImdbId(), matrixMovie.getTitle(), matrixMovie.getRuntimeInMinutes(),
+                matrixMovie.getReleaseDate(), matrixMovie.getFilmRating(), matrixMovie.getGenre(), matrixMovie.getDirector(),
+                matrixMovie.getPlot(), -1, null, matrixMovie.getImdbVotes());
+        Mockito.doAnswer(invocation -> {
+            ((Consumer<Movie>) invocation.getArguments()[1]).accept(unratedMovie);
+            return null;
+        }).when(movieDAOMock).streamAllMovies(Mockito.eq(dbConnectionMock), Mockito.any());
+        MovieColumnIndex movieColumnIndex = new MovieColumnIndex();
+        movieBusiness = new MovieBusiness(dataSourceMock, movieDAOMock, new MovieCache(100, 60), movieSearchIndex, movieColumnIndex);
+
+        movieBusiness.buildSearchIndex();
+        assertEquals(1, movieSearchIndex.size());
+        assertEquals(1, movieColumnIndex.size());
+        assertEquals(Arrays.asList(unratedMovie.getImdbId()), movieSearchIndex.search("matrix", 10));
+    }
+
     @Test
     public void testUpdateMovie_OK() throws SQLException {
         Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
@@ -174,6 +453,60 @@ public class MovieBusinessTest {
         assertEquals(1, matrixReloadedMovie.compareTo(expectedMovie));
     }
 
+    @Test
+    public void testPatchMovie_OK_MergesChangesIntoStoredMovie() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        String imdbId = matrixMovie.getImdbId();
+        Movie changes = MovieFactoryForTests.getMatrixReloadedMovie();
+        Set<MovieField> changedFields = EnumSet.of(MovieField.IMDB_VOTES);
+        Mockito.when(movieDAOMock.getMovieByImdbIdForUpdate(dbConnectionMock, imdbId)).thenReturn(Optional.of(matrixMovie));
+        Mockito.when(movieDAOMock.patchMovie(Mockito.eq(dbConnectionMock), Mockito.eq(imdbId), Mockito.any(), Mockito.eq(changedFields)))
+                .thenAnswer(invocation -> Optional.of(invocation.getArguments()[2]));
+
+        Movie patchedMovie = movieBusiness.patchMovie(imdbId, changes, changedFields).get();
+        assertEquals(matrixMovie.getTitle(), patchedMovie.getTitle());
+        assertEquals(matrixMovie.getMetascore(), patchedMovie.getMetascore());
+        assertEquals(changes.getImdbVotes(), patchedMovie.getImdbVotes());
+
+        // The patched movie is cached: it is not read again.
+        assertEquals(changes.getImdbVotes(), movieBusiness.getMovieByImdbId(imdbId).get().getImdbVotes());
+        Mockito.verify(movieDAOMock, Mockito.never()).getMovieByImdbId(dbConnectionMock, imdbId);
+    }
+
+    @Test
+    public void testPatchMovie_OK_PatchesTheRowReadInTheTransaction() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        String imdbId = matrixMovie.getImdbId();
+        Set<MovieField> changedFields = EnumSet.of(MovieField.IMDB_VOTES);
+        Mockito.when(movieDAOMock.getMovieByImdbIdForUpdate(dbConnectionMock, imdbId)).thenReturn(Optional.of(matrixMovie));
+        Mockito.when(movieDAOMock.patchMovie(Mockito.eq(dbConnectionMock), Mockito.eq(imdbId), Mockito.any(), Mockito.eq(changedFields)))
+                .thenAnswer(invocation -> Optional.of(invocation.getArguments()[2]));
+        MovieCache movieCache = new MovieCache(100, 60);
+        movieBusiness = new MovieBusiness(dataSourceMock, movieDAOMock, movieCache, movieSearchIndex);
+        // A stale copy, as if another instance patched the movie after it was cached here.
+        movieCache.put(imdbId, Optional.of(MovieFactoryForTests.getUpdatedMovie(imdbId, MovieFactoryForTests.getMatrixReloadedMovie())));
+
+        Movie patchedMovie = movieBusiness.patchMovie(imdbId, MovieFactoryForTests.getMatrixReloadedMovie(), changedFields).get();
+        assertEquals(matrixMovie.getTitle(), patchedMovie.getTitle());
+
+        InOrder inOrder = Mockito.inOrder(dbConnectionMock, movieDAOMock);
+        inOrder.verify(dbConnectionMock).setAutoCommit(false);
+        inOrder.verify(movieDAOMock).getMovieByImdbIdForUpdate(dbConnectionMock, imdbId);
+        inOrder.verify(movieDAOMock).patchMovie(Mockito.eq(dbConnectionMock), Mockito.eq(imdbId), Mockito.any(),
+                Mockito.eq(changedFields));
+        inOrder.verify(dbConnectionMock).commit();
+    }
+
+    @Test
+    public void testPatchMovie_OK_MovieDoesNotExist() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        String imdbId = matrixMovie.getImdbId();
+        Mockito.when(movieDAOMock.getMovieByImdbIdForUpdate(dbConnectionMock, imdbId)).thenReturn(Optional.empty());
+
+        assertFalse(movieBusiness.patchMovie(imdbId, matrixMovie, EnumSet.of(MovieField.IMDB_VOTES)).isPresent());
+        Mockito.verify(movieDAOMock, Mockito.never()).patchMovie(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testUpdateMovie_NOK_ThrowsIllegalStateException() throws SQLException {
         Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
@@ -203,4 +536,170 @@ public class MovieBusinessTest {
         Mockito.doThrow(SQLException.class).when(movieDAOMock).deleteMovie(dbConnectionMock, imdbId);
         movieBusiness.deleteMovie(imdbId);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDeleteMovie_OK_CommitsAndRunsChangeWaitersOnce() throws SQLException {
+        String imdbId = MovieFactoryForTests.getMatrixMovie().getImdbId();
+        Mockito.when(movieDAOMock.deleteMovie(dbConnectionMock, imdbId)).thenReturn(true);
+
+        AtomicInteger runs = new AtomicInteger();
+        Runnable changeWaiter = runs::incrementAndGet;
+        movieBusiness.addChangeWaiter(changeWaiter);
+        movieBusiness.addChangeWaiter(changeWaiter);
+        assertEquals(1, movieBusiness.getChangeWaiters());
+
+        assertTrue(movieBusiness.deleteMovie(imdbId));
+        Mockito.verify(dbConnectionMock).commit();
+        assertEquals(1, runs.get());
+        assertEquals(0, movieBusiness.getChangeWaiters());
+
+        movieBusiness.deleteMovie(imdbId);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testCreateMovie_OK_ConcurrentWritersTakeEverySeqOnce() throws Exception {
+        BasicDataSource dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:concurrentWriters");
+        MovieDAO movieDAO = new MovieDAO();
+        try (Connection dbConnection = dataSource.getConnection()) {
+            movieDAO.createTableIfNotExists(dbConnection);
+        }
+        movieBusiness = new MovieBusiness(dataSource, movieDAO, new MovieCache(100, 60), movieSearchIndex);
+
+        // Every write locks the change seq row: the writers of an instance wait for it in turn.
+        int writers = 8;
+        int moviesPerWriter = 25;
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        ExecutorService executorService = Executors.newFixedThreadPool(writers);
+        List<Future<?>> writes = new ArrayList<Future<?>>();
+        for (int writer = 0; writer < writers; writer++) {
+            int writerNumber = writer;
+            writes.add(executorService.submit(() -> {
+                for (int i = 0; i < moviesPerWriter; i++) {
+                    movieBusiness.createMovie(MovieFactoryForTests.getUpdatedMovie(String.format("tt%02d%05d", writerNumber, i), matrixMovie));
+                }
+            }));
+        }
+        for (Future<?> write : writes) {
+            write.get();
+        }
+        executorService.shutdown();
+
+        List<MovieChange> changes = movieBusiness.getChanges(0, MovieBusiness.MAX_CHANGES_PAGE_SIZE).get().getChanges();
+        assertEquals(writers * moviesPerWriter, changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            assertEquals(i + 1, changes.get(i).getSeq());
+        }
+        dataSource.close();
+    }
+
+    @Test
+    public void testRemoveChangeWaiter_OK_RemovedWaiterIsNotRun() throws SQLException {
+        AtomicInteger runs = new AtomicInteger();
+        Runnable changeWaiter = runs::incrementAndGet;
+        movieBusiness.addChangeWaiter(changeWaiter);
+        movieBusiness.removeChangeWaiter(changeWaiter);
+        assertEquals(0, movieBusiness.getChangeWaiters());
+
+        movieBusiness.deleteMovie(MovieFactoryForTests.getMatrixMovie().getImdbId());
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void testGetChanges_OK_ReportsMoreChanges() throws SQLException {
+        List<MovieChange> changes = Arrays.asList(new MovieChange(8, "tt0133093", MovieChangeType.UPDATED, 1L),
+                new MovieChange(9, "tt0234215", MovieChangeType.CREATED, 2L));
+        Mockito.when(movieDAOMock.getChanges(dbConnectionMock, 7, 2)).thenReturn(changes);
+        Mockito.when(movieDAOMock.getPrunedChangeSeq(dbConnectionMock)).thenReturn(7L);
+
+        MovieChangePage changePage = movieBusiness.getChanges(7, 1).get();
+        assertEquals(1, changePage.getChanges().size());
+        assertEquals(8, changePage.getLastSeq());
+        assertTrue(changePage.hasMoreChanges());
+    }
+
+    @Test
+    public void testGetChanges_OK_EmptyWhenPruned() throws SQLException {
+        Mockito.when(movieDAOMock.getChanges(dbConnectionMock, 5, 11)).thenReturn(Arrays.asList());
+        Mockito.when(movieDAOMock.getPrunedChangeSeq(dbConnectionMock)).thenReturn(7L);
+
+        assertFalse(movieBusiness.getChanges(5, 10).isPresent());
+    }
+
+    @Test
+    public void testGetMovieByImdbId_OK_ReadsFromReplicaUnlessRecentlyWritten() throws SQLException {
+        Connection replicaConnectionMock = Mockito.mock(Connection.class);
+        BasicDataSource replicaMock = Mockito.mock(BasicDataSource.class);
+        Mockito.when(replicaMock.getConnection()).thenReturn(replicaConnectionMock);
+        ReplicaRouter replicaRouter = new ReplicaRouter(dataSourceMock, Arrays.asList(replicaMock), 60000, 60000);
+        MovieBusiness replicatedMovieBusiness = new MovieBusiness(dataSourceMock, movieDAOMock, new MovieCache(100, 60),
+                movieSearchIndex, null, replicaRouter);
+
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        String imdbId = matrixMovie.getImdbId();
+        // The replica has not caught up with the creation yet.
+        Mockito.when(movieDAOMock.getMovieByImdbId(replicaConnectionMock, imdbId)).thenReturn(Optional.empty());
+        Mockito.when(movieDAOMock.getMovieByImdbId(dbConnectionMock, imdbId)).thenReturn(Optional.of(matrixMovie));
+        Mockito.when(movieDAOMock.createMovie(dbConnectionMock, matrixMovie)).thenReturn(imdbId);
+
+        assertFalse(replicatedMovieBusiness.getMovieByImdbId(imdbId).isPresent());
+        replicatedMovieBusiness.createMovie(matrixMovie);
+        assertTrue(replicatedMovieBusiness.getMovieByImdbId(imdbId).isPresent());
+        Mockito.verify(movieDAOMock).getMovieByImdbId(replicaConnectionMock, imdbId);
+        Mockito.verify(movieDAOMock).getMovieByImdbId(dbConnectionMock, imdbId);
+    }
+
+    @Test
+    public void testGetMoviesByImdbIds_OK_ReadsFromReplicaUnlessRecentlyWritten() throws SQLException {
+        Connection replicaConnectionMock = Mockito.mock(Connection.class);
+        BasicDataSource replicaMock = Mockito.mock(BasicDataSource.class);
+        Mockito.when(replicaMock.getConnection()).thenReturn(replicaConnectionMock);
+        ReplicaRouter replicaRouter = new ReplicaRouter(dataSourceMock, Arrays.asList(replicaMock), 60000, 60000);
+        MovieBusiness replicatedMovieBusiness = new MovieBusiness(dataSourceMock, movieDAOMock, new MovieCache(100, 60),
+                movieSearchIndex, null, replicaRouter);
+
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        List<String> imdbIds = Arrays.asList(matrixMovie.getImdbId());
+        // The replica has not caught up with the creation yet.
+        Mockito.when(movieDAOMock.getMoviesByImdbIds(replicaConnectionMock, imdbIds)).thenReturn(Collections.emptyList());
+        Mockito.when(movieDAOMock.getMoviesByImdbIds(dbConnectionMock, imdbIds)).thenReturn(Arrays.asList(matrixMovie));
+        Mockito.when(movieDAOMock.createMovie(dbConnectionMock, matrixMovie)).thenReturn(matrixMovie.getImdbId());
+
+        assertTrue(replicatedMovieBusiness.getMoviesByImdbIds(imdbIds).isEmpty());
+        replicatedMovieBusiness.createMovie(matrixMovie);
+        assertEquals(1, replicatedMovieBusiness.getMoviesByImdbIds(imdbIds).size());
+        Mockito.verify(movieDAOMock).getMoviesByImdbIds(replicaConnectionMock, imdbIds);
+        Mockito.verify(movieDAOMock).getMoviesByImdbIds(dbConnectionMock, imdbIds);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testStreamMoviesByParams_NOK_NotMovedToPrimaryOnceStreaming() throws SQLException {
+        Connection replicaConnectionMock = Mockito.mock(Connection.class);
+        BasicDataSource replicaMock = Mockito.mock(BasicDataSource.class);
+        Mockito.when(replicaMock.getConnection()).thenReturn(replicaConnectionMock);
+        ReplicaRouter replicaRouter = new ReplicaRouter(dataSourceMock, Arrays.asList(replicaMock), 60000, 60000);
+        MovieBusiness replicatedMovieBusiness = new MovieBusiness(dataSourceMock, movieDAOMock, new MovieCache(100, 60),
+                movieSearchIndex, null, replicaRouter);
+
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        // The replica connection breaks after the first movie.
+        Mockito.doAnswer(invocation -> {
+            ((Consumer<Movie>) invocation.getArguments()[7]).accept(matrixMovie);
+            throw new SQLException("Connection is broken");
+        }).when(movieDAOMock).streamMoviesByParams(Mockito.eq(replicaConnectionMock), Mockito.any(), Mockito.anyInt(),
+                Mockito.anyInt(), Mockito.any(), Mockito.anyLong(), Mockito.any(), Mockito.any());
+
+        List<Movie> streamedMovies = new ArrayList<Movie>();
+        try {
+            replicatedMovieBusiness.streamMoviesByParams("matrix", 0, 0, null, 0, streamedMovies::add);
+            fail("A stream broken after its first movie must fail.");
+        } catch (IllegalStateException e) {
+            assertEquals(1, streamedMovies.size());
+            Mockito.verify(movieDAOMock, Mockito.never()).streamMoviesByParams(Mockito.eq(dbConnectionMock), Mockito.any(),
+                    Mockito.anyInt(), Mockito.anyInt(), Mockito.any(), Mockito.anyLong(), Mockito.any(), Mockito.any());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package co.je.movies.domain.business;
+
+import co.je.movies.domain.entities.MovieStats;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MovieStatsBufferTest {
+
+    private MovieBusiness movieBusinessMock;
+    private MovieStatsBuffer movieStatsBuffer;
+
+    @Before
+    public void setUp() {
+        movieBusinessMock = Mockito.mock(MovieBusiness.class);
+        movieStatsBuffer = new MovieStatsBuffer(movieBusinessMock, 60000, 10, 10);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFlush_OK_CoalescesUpdatesOfTheSameMovie() {
+        assertTrue(movieStatsBuffer.offer(new MovieStats("tt0133093", 73, null, 1000L)));
+        assertTrue(movieStatsBuffer.offer(new MovieStats("tt0133093", null, new BigDecimal("8.7"), 1001L)));
+        assertTrue(movieStatsBuffer.offer(new MovieStats("tt0234215", null, null, 500L)));
+        assertEquals(2, movieStatsBuffer.getPendingMovies());
+
+        movieStatsBuffer.flush();
+        assertEquals(0, movieStatsBuffer.getPendingMovies());
+
+        ArgumentCaptor<List> chunkCaptor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(movieBusinessMock, Mockito.times(1)).updateMoviesStats(chunkCaptor.capture());
+        List<MovieStats> chunk = chunkCaptor.getValue();
+        assertEquals(2, chunk.size());
+        MovieStats matrixStats = chunk.stream().filter(stats -> stats.getImdbId().equals("tt0133093")).findFirst().get();
+        assertEquals(Integer.valueOf(73), matrixStats.getMetascore());
+        assertEquals(new BigDecimal("8.7"), matrixStats.getImdbRating());
+        assertEquals(Long.valueOf(1001L), matrixStats.getImdbVotes());
+    }
+
+    @Test
+    public void testFlush_OK_KeepsStatsOfFailedFlushUnderNewerOnes() {
+        Mockito.when(movieBusinessMock.updateMoviesStats(Mockito.anyList())).thenThrow(new IllegalStateException());
+        movieStatsBuffer.offer(new MovieStats("tt0133093", 73, null, 1000L));
+
+        movieStatsBuffer.flush();
+        assertEquals(1, movieStatsBuffer.getPendingMovies());
+
+        Mockito.reset(movieBusinessMock);
+        movieStatsBuffer.offer(new MovieStats("tt0133093", null, null, 1001L));
+        movieStatsBuffer.flush();
+        assertEquals(0, movieStatsBuffer.getPendingMovies());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFlush_OK_DropsStatsFailingAloneWhileOthersAreWritten() {
+        MovieStats badStats = new MovieStats("tt0000000", 73, null, 1000L);
+        MovieStats goodStats = new MovieStats("tt0133093", 73, null, 1000L);
+        Mockito.when(movieBusinessMock.updateMoviesStats(Mockito.anyList())).thenAnswer(invocation -> {
+            List<MovieStats> chunk = (List<MovieStats>) invocation.getArguments()[0];
+            if (chunk.stream().anyMatch(stats -> stats.getImdbId().equals(badStats.getImdbId()))) {
+                throw new IllegalStateException();
+            }
+            return chunk.size();
+        });
+
+        // The bad stats fail every chunk they are in, until they are written alone.
+        for (int i = 0; i < MovieStatsBuffer.ONE_BY_ONE_AFTER_FAILURES; i++) {
+            movieStatsBuffer.offer(badStats);
+            movieStatsBuffer.flush();
+            assertEquals(1, movieStatsBuffer.getPendingMovies());
+        }
+        movieStatsBuffer.offer(goodStats);
+        movieStatsBuffer.flush();
+        assertEquals(0, movieStatsBuffer.getPendingMovies());
+
+        ArgumentCaptor<List> chunkCaptor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(movieBusinessMock, Mockito.times(MovieStatsBuffer.ONE_BY_ONE_AFTER_FAILURES + 2))
+                .updateMoviesStats(chunkCaptor.capture());
+        List<List> chunks = chunkCaptor.getAllValues();
+        assertEquals(1, chunks.get(chunks.size() - 2).size());
+        assertEquals(1, chunks.get(chunks.size() - 1).size());
+    }
+
+    @Test
+    public void testFlush_OK_KeepsStatsFailingAloneWhenNothingIsWritten() {
+        Mockito.when(movieBusinessMock.updateMoviesStats(Mockito.anyList())).thenThrow(new IllegalStateException());
+
+        // As when the DB is down: the stats are retried, alone, but never dropped.
+        for (int i = 0; i < MovieStatsBuffer.ONE_BY_ONE_AFTER_FAILURES + 2; i++) {
+            movieStatsBuffer.offer(new MovieStats("tt0133093", 73, null, 1000L));
+            movieStatsBuffer.flush();
+            assertEquals(1, movieStatsBuffer.getPendingMovies());
+        }
+    }
+
+    @Test
+    public void testStop_OK_FlushesPendingStatsAndRejectsNewOnes() throws Exception {
+        movieStatsBuffer.start();
+        movieStatsBuffer.offer(new MovieStats("tt0133093", 73, null, 1000L));
+
+        movieStatsBuffer.stop();
+        assertEquals(0, movieStatsBuffer.getPendingMovies());
+        Mockito.verify(movieBusinessMock, Mockito.times(1)).updateMoviesStats(Mockito.anyList());
+        assertFalse(movieStatsBuffer.offer(new MovieStats("tt0133093", 74, null, 1001L)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStop_OK_WritesEveryAcceptedStatsOfferedWhileStopping() throws Exception {
+        AtomicInteger writtenStats = new AtomicInteger();
+        Mockito.when(movieBusinessMock.updateMoviesStats(Mockito.anyList())).thenAnswer(invocation -> {
+            int chunkSize = ((List<MovieStats>) invocation.getArguments()[0]).size();
+            writtenStats.addAndGet(chunkSize);
+            return chunkSize;
+        });
+        MovieStatsBuffer largeMovieStatsBuffer = new MovieStatsBuffer(movieBusinessMock, 60000, 100, 100_000);
+        largeMovieStatsBuffer.start();
+
+        // Every thread offers stats of new movies until they are refused.
+        AtomicInteger nextImdbId = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> acceptedStats = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 4; i++) {
+            acceptedStats.add(executor.submit(() -> {
+                int accepted = 0;
+                while (largeMovieStatsBuffer.offer(new MovieStats(String.format("tt%07d", nextImdbId.incrementAndGet()), 73, null, 1L))) {
+                    accepted++;
+                }
+                return accepted;
+            }));
+        }
+        Thread.sleep(50);
+        largeMovieStatsBuffer.stop();
+
+        int totalAcceptedStats = 0;
+        for (Future<Integer> accepted : acceptedStats) {
+            totalAcceptedStats += accepted.get();
+        }
+        executor.shutdown();
+        assertEquals(totalAcceptedStats, writtenStats.get());
+        assertEquals(0, largeMovieStatsBuffer.getPendingMovies());
+    }
+}
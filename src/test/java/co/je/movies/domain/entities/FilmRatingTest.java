@@ -0,0 +1,33 @@
+package co.je.movies.domain.entities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class FilmRatingTest {
+
+    @Test
+    public void testCreateFilmRatingFromPlainName_OK_IgnoresCase() {
+        assertEquals(FilmRating.PG_13, FilmRating.createFilmRatingFromPlainName("PG-13"));
+        assertEquals(FilmRating.NC_17, FilmRating.createFilmRatingFromPlainName("nc-17"));
+        assertNull(FilmRating.createFilmRatingFromPlainName(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateFilmRatingFromPlainName_NOK_UnknownRating() {
+        FilmRating.createFilmRatingFromPlainName("X");
+    }
+
+    @Test
+    public void testCreateFilmRatingFromCode_OK_EveryRating() {
+        for (FilmRating filmRating : FilmRating.values()) {
+            assertEquals(filmRating, FilmRating.createFilmRatingFromCode(filmRating.getCode()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateFilmRatingFromCode_NOK_UnknownCode() {
+        FilmRating.createFilmRatingFromCode(0);
+    }
+}
@@ -0,0 +1,27 @@
+package co.je.movies.domain.entities;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+public class MovieFieldTest {
+
+    @Test
+    public void testCreateMovieFieldsFromPlainNames_OK_AlwaysHasImdbId() {
+        assertEquals(EnumSet.of(MovieField.IMDB_ID, MovieField.TITLE, MovieField.IMDB_VOTES),
+                MovieField.createMovieFieldsFromPlainNames("imdbVotes, title,"));
+    }
+
+    @Test
+    public void testCreateMovieFieldsFromPlainNames_OK_AllFieldsWhenBlank() {
+        assertEquals(EnumSet.allOf(MovieField.class), MovieField.createMovieFieldsFromPlainNames(null));
+        assertEquals(EnumSet.allOf(MovieField.class), MovieField.createMovieFieldsFromPlainNames(" "));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateMovieFieldsFromPlainNames_NOK_UnknownField() {
+        MovieField.createMovieFieldsFromPlainNames("title,budget");
+    }
+}
@@ -1,10 +1,18 @@
 package co.je.movies.domain.entities;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import io.dropwizard.testing.FixtureHelpers;
 
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -50,5 +58,43 @@ public class MovieTest {
             fail("Unexpected exception");
         }
     }
+    
+    @Test
+    public void keepsCompactNumericFields() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        assertEquals(87, matrixMovie.getImdbRatingInTenths());
+        assertEquals(new BigDecimal("8.7"), matrixMovie.getImdbRating());
+        assertEquals(LocalDateTime.of(1999, 3, 31, 0, 0), matrixMovie.getReleaseDate());
+        
+        Movie emptyMovie = new Movie();
+        assertNull(emptyMovie.getImdbRating());
+        assertNull(emptyMovie.getReleaseDate());
+        
+        assertEquals(73, Movie.toImdbRatingInTenths(new BigDecimal("7.25"), RoundingMode.CEILING));
+        assertEquals(Movie.NO_IMDB_RATING, Movie.toImdbRatingInTenths(null, RoundingMode.CEILING));
+        assertEquals(Short.MAX_VALUE, Movie.toImdbRatingInTenths(new BigDecimal("100000"), RoundingMode.CEILING));
+    }
+    
+    @Test
+    public void keepsOnlyTheDayOfTheReleaseDate() throws IOException {
+        String json = "{\"imdbId\": \"tt0133093\", \"releaseDate\": \"1999-03-31T21:30\"}";
+        Movie movie = objectMapper.readValue(json, Movie.class);
+        assertEquals(LocalDateTime.of(1999, 3, 31, 0, 0), movie.getReleaseDate());
+        assertTrue(objectMapper.writeValueAsString(movie).contains("\"releaseDate\":\"1999-03-31T00:00\""));
+    }
+    
+    @Test
+    public void rejectsImdbRatingOutOfRange() throws IOException {
+        Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        assertTrue(validator.validate(matrixMovie).isEmpty());
+        
+        // Too large even for the rating in tenths: it must fail validation, not throw.
+        String json = objectMapper.writeValueAsString(matrixMovie).replace("8.7", "100000");
+        Movie outOfRangeMovie = objectMapper.readValue(json, Movie.class);
+        assertEquals(1, validator.validateProperty(outOfRangeMovie, "imdbRating").size());
+        assertEquals(1, validator.validate(new Movie(matrixMovie.getImdbId(), matrixMovie.getTitle(), 136, LocalDateTime.of(1999, 3, 31, 0, 0),
+                matrixMovie.getFilmRating(), matrixMovie.getGenre(), matrixMovie.getDirector(), matrixMovie.getPlot(), 73,
+                new BigDecimal("-0.1"), 10)).size());
+    }
 }
-
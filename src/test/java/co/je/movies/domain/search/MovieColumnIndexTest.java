@@ -0,0 +1,132 @@
+package co.je.movies.domain.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import co.je.movies.domain.entities.Movie;
+import co.je.movies.util.factories.MovieFactoryForTests;
+
+public class MovieColumnIndexTest {
+
+    private MovieColumnIndex movieColumnIndex;
+
+    @Before
+    public void setUp() {
+        movieColumnIndex = new MovieColumnIndex();
+        movieColumnIndex.put(MovieFactoryForTests.getMatrixReloadedMovie());
+        movieColumnIndex.put(MovieFactoryForTests.getMatrixMovie());
+    }
+
+    @Test
+    public void testSearch_OK_OrdersByImdbId() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        List<String> imdbIds = movieColumnIndex.search(null, 0, 0, null, 0, null, 10);
+        assertEquals(Arrays.asList(matrixMovie.getImdbId(), matrixReloadedMovie.getImdbId()), imdbIds);
+    }
+
+    @Test
+    public void testSearch_OK_FiltersByTitleAndNumericRanges() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        List<String> imdbIds = movieColumnIndex.search("MATRIX", 100, 0, new BigDecimal("8.0"), 10000, null, 10);
+        assertEquals(Arrays.asList(matrixMovie.getImdbId()), imdbIds);
+        assertTrue(movieColumnIndex.search("inception", 0, 0, null, 0, null, 10).isEmpty());
+    }
+
+    @Test
+    public void testSearch_OK_StartsAfterImdbIdAndRespectsLimit() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        assertEquals(Arrays.asList(matrixMovie.getImdbId()), movieColumnIndex.search(null, 0, 0, null, 0, null, 1));
+        assertEquals(Arrays.asList(matrixReloadedMovie.getImdbId()),
+                movieColumnIndex.search(null, 0, 0, null, 0, matrixMovie.getImdbId(), 10));
+    }
+
+    @Test
+    public void testPutAndRemove_OK_KeepIndexInSync() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+
+        // Re-indexing Matrix with the Reloaded data replaces its previous row.
+        movieColumnIndex.put(MovieFactoryForTests.getUpdatedMovie(matrixMovie.getImdbId(), matrixReloadedMovie));
+        assertEquals(2, movieColumnIndex.size());
+        assertTrue(movieColumnIndex.search(null, 0, 0, new BigDecimal("8.0"), 0, null, 10).isEmpty());
+
+        movieColumnIndex.remove(matrixMovie.getImdbId());
+        assertEquals(1, movieColumnIndex.size());
+        assertEquals(Arrays.asList(matrixReloadedMovie.getImdbId()), movieColumnIndex.search(null, 0, 0, null, 0, null, 10));
+    }
+
+    @Test
+    public void testPutAll_OK_MergesWithExistingRows() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        List<Movie> movies = new ArrayList<Movie>();
+        // Unordered, around and between the existing rows, replacing Matrix twice: the last version wins.
+        movies.add(MovieFactoryForTests.getUpdatedMovie("tt9999999", matrixMovie));
+        movies.add(MovieFactoryForTests.getUpdatedMovie(matrixMovie.getImdbId(), matrixMovie));
+        movies.add(MovieFactoryForTests.getUpdatedMovie("tt0000001", matrixMovie));
+        movies.add(MovieFactoryForTests.getUpdatedMovie(matrixMovie.getImdbId(), matrixReloadedMovie));
+        movies.add(MovieFactoryForTests.getUpdatedMovie("tt0200000", matrixMovie));
+        movieColumnIndex.putAll(movies);
+
+        assertEquals(5, movieColumnIndex.size());
+        assertEquals(Arrays.asList("tt0000001", matrixMovie.getImdbId(), "tt0200000", matrixReloadedMovie.getImdbId(), "tt9999999"),
+                movieColumnIndex.search(null, 0, 0, null, 0, null, 10));
+        assertEquals(Arrays.asList("tt0000001", "tt0200000", "tt9999999"),
+                movieColumnIndex.search(null, 0, 0, new BigDecimal("8.0"), 0, null, 10));
+    }
+
+    @Test
+    public void testPutAll_OK_MatchesPutOneByOne() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        MovieColumnIndex bulkColumnIndex = new MovieColumnIndex();
+        MovieColumnIndex oneByOneColumnIndex = new MovieColumnIndex();
+        for (int batch = 0; batch < 3; batch++) {
+            List<Movie> movies = new ArrayList<Movie>();
+            for (int i = batch; i < 3000; i += 2) {
+                Movie movie = MovieFactoryForTests.getUpdatedMovie(String.format("tt%07d", i), (i % 3 == 0) ? matrixMovie : matrixReloadedMovie);
+                movies.add(movie);
+                oneByOneColumnIndex.put(movie);
+            }
+            bulkColumnIndex.putAll(movies);
+        }
+
+        assertEquals(oneByOneColumnIndex.size(), bulkColumnIndex.size());
+        assertEquals(oneByOneColumnIndex.search(null, 0, 0, null, 0, null, 5000), bulkColumnIndex.search(null, 0, 0, null, 0, null, 5000));
+        BigDecimal imdbRating = new BigDecimal("8.0");
+        assertEquals(oneByOneColumnIndex.search(null, 0, 0, imdbRating, 0, null, 5000),
+                bulkColumnIndex.search(null, 0, 0, imdbRating, 0, null, 5000));
+    }
+
+    @Test
+    public void testSearch_OK_ParallelScanMatchesSequentialScan() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        MovieColumnIndex parallelColumnIndex = new MovieColumnIndex(4, 1);
+        MovieColumnIndex sequentialColumnIndex = new MovieColumnIndex();
+        for (int i = 0; i < 5000; i++) {
+            Movie movie = MovieFactoryForTests.getUpdatedMovie(String.format("tt%07d", i), (i % 3 == 0) ? matrixMovie : matrixReloadedMovie);
+            parallelColumnIndex.put(movie);
+            sequentialColumnIndex.put(movie);
+        }
+
+        BigDecimal imdbRating = new BigDecimal("8.0");
+        List<String> imdbIds = parallelColumnIndex.search("matrix", 0, 0, imdbRating, 0, null, 10000);
+        assertEquals(1667, imdbIds.size());
+        assertEquals(sequentialColumnIndex.search("matrix", 0, 0, imdbRating, 0, null, 10000), imdbIds);
+
+        List<String> pageImdbIds = new ArrayList<String>(parallelColumnIndex.search(null, 0, 0, null, 0, "tt0002500", 10));
+        assertEquals(sequentialColumnIndex.search(null, 0, 0, null, 0, "tt0002500", 10), pageImdbIds);
+        assertEquals("tt0002501", pageImdbIds.get(0));
+    }
+}
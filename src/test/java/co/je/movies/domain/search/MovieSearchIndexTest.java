@@ -0,0 +1,129 @@
+package co.je.movies.domain.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import co.je.movies.domain.entities.FilmRating;
+import co.je.movies.domain.entities.Movie;
+import co.je.movies.util.factories.MovieFactoryForTests;
+
+public class MovieSearchIndexTest {
+
+    private MovieSearchIndex movieSearchIndex;
+
+    @Before
+    public void setUp() {
+        movieSearchIndex = new MovieSearchIndex();
+        movieSearchIndex.put(MovieFactoryForTests.getMatrixMovie());
+        movieSearchIndex.put(MovieFactoryForTests.getMatrixReloadedMovie());
+    }
+
+    @Test
+    public void testTokenize_OK_LowerCasesAndSplitsOnPunctuation() {
+        List<String> tokens = MovieSearchIndex.tokenize("Action, Sci-Fi");
+        assertEquals(Arrays.asList("action", "sci", "fi"), tokens);
+    }
+
+    @Test
+    public void testSearch_OK_RanksByRelevance() {
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        List<String> imdbIds = movieSearchIndex.search("matrix reloaded", 10);
+        assertEquals(2, imdbIds.size());
+        assertEquals(matrixReloadedMovie.getImdbId(), imdbIds.get(0));
+    }
+
+    @Test
+    public void testSearch_OK_MatchesPrefixesInPlot() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        List<String> imdbIds = movieSearchIndex.search("hack", 10);
+        assertEquals(Arrays.asList(matrixMovie.getImdbId()), imdbIds);
+    }
+
+    @Test
+    public void testSearch_OK_RespectsLimit() {
+        assertEquals(1, movieSearchIndex.search("wachowski", 1).size());
+    }
+
+    @Test
+    public void testSearch_OK_KeepsMostCommonPrefixExpansions() {
+        // More terms starting with "maz" than a token expands to, all of them before "mazurka".
+        for (int i = 0; i < 100; i++) {
+            movieSearchIndex.put(new Movie(String.format("tt90%05d", i), "maza" + i, 90, null, FilmRating.G, "Drama", "Nobody",
+                    "Nothing", 50, null, 10));
+        }
+        Movie mazurkaMovie = new Movie("tt8000001", "Mazurka", 90, null, FilmRating.G, "Mazurka", "Nobody", "Nothing", 50, null, 10);
+        Movie otherMazurkaMovie = new Movie("tt8000002", "Mazurka", 90, null, FilmRating.G, "Drama", "Nobody", "Nothing", 50, null, 10);
+        Movie mazMovie = new Movie("tt8000003", "Maz", 90, null, FilmRating.G, "Drama", "Nobody", "Nothing", 50, null, 10);
+        movieSearchIndex.put(mazurkaMovie);
+        movieSearchIndex.put(otherMazurkaMovie);
+        movieSearchIndex.put(mazMovie);
+
+        List<String> imdbIds = movieSearchIndex.search("maz", 200);
+        assertTrue(imdbIds.contains(mazurkaMovie.getImdbId()));
+        assertTrue(imdbIds.contains(otherMazurkaMovie.getImdbId()));
+        // The token itself is always kept, however rare.
+        assertTrue(imdbIds.contains(mazMovie.getImdbId()));
+    }
+
+    @Test
+    public void testSearch_OK_ShortTokensOnlyMatchThemselves() {
+        assertTrue(movieSearchIndex.search("ma", 10).isEmpty());
+
+        Movie maMovie = new Movie("tt8000003", "Ma", 90, null, FilmRating.G, "Drama", "Nobody", "Nothing", 50, null, 10);
+        movieSearchIndex.put(maMovie);
+        assertEquals(Arrays.asList(maMovie.getImdbId()), movieSearchIndex.search("ma", 10));
+    }
+
+    @Test
+    public void testPutAndRemove_OK_ChurnRanksLikeAFreshIndex() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        MovieSearchIndex freshMovieSearchIndex = new MovieSearchIndex();
+        // Enough replaced and removed movies for the postings to be compacted and the movies numbered again.
+        for (int i = 0; i < 5000; i++) {
+            String imdbId = String.format("tt70%05d", i % 300);
+            if (i % 7 == 0) {
+                movieSearchIndex.remove(imdbId);
+            } else {
+                movieSearchIndex.put(MovieFactoryForTests.getUpdatedMovie(imdbId, i % 2 == 0 ? matrixMovie
+                        : MovieFactoryForTests.getMatrixReloadedMovie()));
+            }
+        }
+        for (int i = 0; i < 300; i++) {
+            String imdbId = String.format("tt70%05d", i);
+            movieSearchIndex.remove(imdbId);
+            if (i % 3 != 0) {
+                Movie movie = MovieFactoryForTests.getUpdatedMovie(imdbId, matrixMovie);
+                movieSearchIndex.put(movie);
+                freshMovieSearchIndex.put(movie);
+            }
+        }
+        freshMovieSearchIndex.put(matrixMovie);
+        freshMovieSearchIndex.put(MovieFactoryForTests.getMatrixReloadedMovie());
+
+        assertEquals(freshMovieSearchIndex.size(), movieSearchIndex.size());
+        for (String query : Arrays.asList("matrix", "hack", "reloaded zion", "wachowski")) {
+            assertEquals(freshMovieSearchIndex.search(query, 500), movieSearchIndex.search(query, 500));
+        }
+    }
+
+    @Test
+    public void testPutAndRemove_OK_KeepIndexInSync() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+
+        // Re-indexing Matrix with the Reloaded data replaces its previous terms.
+        movieSearchIndex.put(MovieFactoryForTests.getUpdatedMovie(matrixMovie.getImdbId(), matrixReloadedMovie));
+        assertEquals(2, movieSearchIndex.size());
+        assertTrue(movieSearchIndex.search("hacker", 10).isEmpty());
+
+        movieSearchIndex.remove(matrixReloadedMovie.getImdbId());
+        assertEquals(1, movieSearchIndex.size());
+        assertEquals(Arrays.asList(matrixMovie.getImdbId()), movieSearchIndex.search("zion", 10));
+    }
+}
@@ -0,0 +1,71 @@
+package co.je.movies.infrastructure.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import co.je.movies.domain.entities.Movie;
+import co.je.movies.util.factories.MovieFactoryForTests;
+
+public class MovieCacheTest {
+
+    private MovieCache movieCache;
+
+    @Before
+    public void setUp() {
+        movieCache = new MovieCache(100, 60);
+    }
+
+    @Test
+    public void testGet_OK_CachesLoadedMovie() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        AtomicInteger loads = new AtomicInteger();
+
+        movieCache.get(matrixMovie.getImdbId(), () -> {
+            loads.incrementAndGet();
+            return Optional.of(matrixMovie);
+        });
+        Optional<Movie> optionalMovie = movieCache.get(matrixMovie.getImdbId(), () -> {
+            loads.incrementAndGet();
+            return Optional.empty();
+        });
+
+        assertTrue(optionalMovie.isPresent());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testGet_OK_DropsNotFoundLoadedDuringWrite() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        String imdbId = matrixMovie.getImdbId();
+
+        // The movie is created, and invalidated, after the load read the DB but before it ends.
+        Optional<Movie> loadedMovie = movieCache.get(imdbId, () -> {
+            movieCache.invalidate(imdbId);
+            return Optional.empty();
+        });
+        assertFalse(loadedMovie.isPresent());
+
+        Optional<Movie> optionalMovie = movieCache.get(imdbId, () -> Optional.of(matrixMovie));
+        assertTrue(optionalMovie.isPresent());
+    }
+
+    @Test
+    public void testPutLoaded_OK_DropsMovieReadBeforeWrite() {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        String imdbId = matrixMovie.getImdbId();
+
+        long generation = movieCache.getGeneration(imdbId);
+        movieCache.invalidate(imdbId);
+        movieCache.putLoaded(imdbId, Optional.of(matrixMovie), generation);
+        assertTrue(movieCache.getAllPresent(Collections.singleton(imdbId)).isEmpty());
+
+        movieCache.putLoaded(imdbId, Optional.of(matrixMovie), movieCache.getGeneration(imdbId));
+        assertEquals(1, movieCache.getAllPresent(Collections.singleton(imdbId)).size());
+    }
+}
@@ -0,0 +1,91 @@
+package co.je.movies.infrastructure.datasource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import co.je.movies.infrastructure.config.SQLConfig;
+
+import com.codahale.metrics.MetricRegistry;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class InstrumentedDataSourceTest {
+
+    private static final String PREFIX = MetricRegistry.name(InstrumentedDataSource.class, "test");
+
+    private InstrumentedDataSource dataSource;
+    private MetricRegistry metricRegistry;
+
+    @Before
+    public void setUp() {
+        SQLConfig sqlConfigMock = Mockito.mock(SQLConfig.class);
+        Mockito.when(sqlConfigMock.getDriverClass()).thenReturn("org.h2.Driver");
+        Mockito.when(sqlConfigMock.getUsername()).thenReturn("sa");
+        Mockito.when(sqlConfigMock.getPassword()).thenReturn("");
+        Mockito.when(sqlConfigMock.getMaxTotal()).thenReturn(1);
+        Mockito.when(sqlConfigMock.getMaxIdle()).thenReturn(1);
+        Mockito.when(sqlConfigMock.getMaxWaitInMillis()).thenReturn(5000L);
+
+        dataSource = new InstrumentedDataSource(sqlConfigMock, "jdbc:h2:mem:instrumented", "test");
+        metricRegistry = new MetricRegistry();
+        dataSource.registerMetrics(metricRegistry);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        dataSource.close();
+    }
+
+    private int getGaugeValue(String name) {
+        return (Integer) metricRegistry.getGauges().get(MetricRegistry.name(PREFIX, name)).getValue();
+    }
+
+    @Test
+    public void testGetConnection_OK_TimesBorrowsAndPublishesPoolState() throws SQLException {
+        try (Connection dbConnection = dataSource.getConnection()) {
+            assertTrue(dbConnection.isValid(1));
+            assertEquals(1, getGaugeValue("active"));
+            assertEquals(1, getGaugeValue("maxTotal"));
+            assertEquals(0, getGaugeValue("connectionRequestsInFlight"));
+        }
+
+        assertEquals(0, getGaugeValue("active"));
+        assertEquals(1, getGaugeValue("idle"));
+        assertEquals(1, metricRegistry.getTimers().get(MetricRegistry.name(PREFIX, "borrow")).getCount());
+    }
+
+    @Test
+    public void testGetConnection_OK_CountsRequestsWaitingForAConnection() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> borrowed;
+            try (Connection dbConnection = dataSource.getConnection()) {
+                // The only connection is taken, so this borrow waits for it.
+                borrowed = executor.submit(() -> {
+                    try (Connection waitedConnection = dataSource.getConnection()) {
+                        return waitedConnection.isValid(1);
+                    }
+                });
+                long deadlineInMillis = System.currentTimeMillis() + 5000;
+                while (getGaugeValue("connectionRequestsInFlight") == 0 && System.currentTimeMillis() < deadlineInMillis) {
+                    Thread.sleep(10);
+                }
+                assertEquals(1, getGaugeValue("connectionRequestsInFlight"));
+            }
+
+            assertTrue(borrowed.get(5, TimeUnit.SECONDS));
+            assertEquals(0, getGaugeValue("connectionRequestsInFlight"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package co.je.movies.infrastructure.datasource;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ReplicaRouterTest {
+
+    private Connection primaryConnectionMock;
+    private BasicDataSource primaryMock;
+    private Connection firstReplicaConnectionMock;
+    private BasicDataSource firstReplicaMock;
+    private Connection secondReplicaConnectionMock;
+    private BasicDataSource secondReplicaMock;
+
+    @Before
+    public void setUp() throws SQLException {
+        primaryConnectionMock = Mockito.mock(Connection.class);
+        primaryMock = Mockito.mock(BasicDataSource.class);
+        Mockito.when(primaryMock.getConnection()).thenReturn(primaryConnectionMock);
+
+        firstReplicaConnectionMock = Mockito.mock(Connection.class);
+        firstReplicaMock = Mockito.mock(BasicDataSource.class);
+        Mockito.when(firstReplicaMock.getConnection()).thenReturn(firstReplicaConnectionMock);
+
+        secondReplicaConnectionMock = Mockito.mock(Connection.class);
+        secondReplicaMock = Mockito.mock(BasicDataSource.class);
+        Mockito.when(secondReplicaMock.getConnection()).thenReturn(secondReplicaConnectionMock);
+    }
+
+    @Test
+    public void testRead_OK_ReplicasTakeTurns() throws SQLException {
+        ReplicaRouter replicaRouter = new ReplicaRouter(primaryMock, Arrays.asList(firstReplicaMock, secondReplicaMock), 60000, 5000);
+
+        assertSame(firstReplicaConnectionMock, replicaRouter.read(dbConnection -> dbConnection));
+        assertSame(secondReplicaConnectionMock, replicaRouter.read(dbConnection -> dbConnection));
+        assertSame(firstReplicaConnectionMock, replicaRouter.read(dbConnection -> dbConnection));
+        Mockito.verify(firstReplicaConnectionMock, Mockito.times(2)).close();
+        Mockito.verifyZeroInteractions(primaryMock);
+    }
+
+    @Test
+    public void testRead_OK_SkipsFailedReplica() throws SQLException {
+        Mockito.when(firstReplicaMock.getConnection()).thenThrow(new SQLException("down"));
+        ReplicaRouter replicaRouter = new ReplicaRouter(primaryMock, Arrays.asList(firstReplicaMock, secondReplicaMock), 60000, 5000);
+
+        assertSame(secondReplicaConnectionMock, replicaRouter.read(dbConnection -> dbConnection));
+        assertSame(secondReplicaConnectionMock, replicaRouter.read(dbConnection -> dbConnection));
+        assertEquals(1, replicaRouter.getHealthyReplicas());
+        Mockito.verify(firstReplicaMock, Mockito.times(1)).getConnection();
+    }
+
+    @Test
+    public void testRead_OK_FallsBackToPrimaryWhenConnectionBreaks() throws SQLException {
+        Mockito.when(firstReplicaConnectionMock.isValid(Mockito.anyInt())).thenReturn(false);
+        ReplicaRouter replicaRouter = new ReplicaRouter(primaryMock, Arrays.asList(firstReplicaMock), 60000, 5000);
+
+        Connection readConnection = replicaRouter.read(dbConnection -> {
+            if (dbConnection == firstReplicaConnectionMock) {
+                throw new SQLException("broken");
+            }
+            return dbConnection;
+        });
+        assertSame(primaryConnectionMock, readConnection);
+        assertEquals(0, replicaRouter.getHealthyReplicas());
+    }
+
+    @Test(expected = SQLException.class)
+    public void testRead_NOK_ThrowsErrorOfTheRead() throws SQLException {
+        Mockito.when(firstReplicaConnectionMock.isValid(Mockito.anyInt())).thenReturn(true);
+        ReplicaRouter replicaRouter = new ReplicaRouter(primaryMock, Arrays.asList(firstReplicaMock), 60000, 5000);
+
+        try {
+            replicaRouter.read(dbConnection -> {
+                throw new SQLException("bad query");
+            });
+        } finally {
+            assertEquals(1, replicaRouter.getHealthyReplicas());
+            Mockito.verifyZeroInteractions(primaryMock);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReplicaRouter_NOK_ReplicasWithoutReadYourWritesWindow() {
+        new ReplicaRouter(primaryMock, Arrays.asList(firstReplicaMock), 60000, 0);
+    }
+
+    @Test
+    public void testReplicaRouter_OK_NoReplicasWithoutReadYourWritesWindow() throws SQLException {
+        ReplicaRouter replicaRouter = new ReplicaRouter(primaryMock, Arrays.asList(), 60000, 0);
+
+        assertSame(primaryConnectionMock, replicaRouter.read(dbConnection -> dbConnection));
+    }
+
+    @Test
+    public void testIsInReadYourWritesWindow_OK() {
+        ReplicaRouter replicaRouter = new ReplicaRouter(primaryMock, Arrays.asList(firstReplicaMock), 60000, 5000);
+
+        assertTrue(replicaRouter.isInReadYourWritesWindow(System.currentTimeMillis() - 1000));
+        assertFalse(replicaRouter.isInReadYourWritesWindow(System.currentTimeMillis() - 10000));
+        assertFalse(replicaRouter.isInReadYourWritesWindow(0));
+    }
+}
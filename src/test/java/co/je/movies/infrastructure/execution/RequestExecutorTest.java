@@ -0,0 +1,60 @@
+package co.je.movies.infrastructure.execution;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class RequestExecutorTest {
+
+    private RequestExecutor requestExecutor;
+    private AsyncResponse asyncResponseMock;
+
+    @Before
+    public void setUp() {
+        requestExecutor = new RequestExecutor("test", 1, 1, 1000);
+        asyncResponseMock = Mockito.mock(AsyncResponse.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        requestExecutor.stop();
+    }
+
+    @Test
+    public void testExecute_OK_ReadsTimeOut() {
+        requestExecutor.execute(asyncResponseMock, () -> Response.ok().build());
+
+        Mockito.verify(asyncResponseMock).setTimeout(1000, TimeUnit.MILLISECONDS);
+        Mockito.verify(asyncResponseMock, Mockito.timeout(1000)).resume(Mockito.any(Response.class));
+    }
+
+    @Test
+    public void testExecuteWrite_OK_WritesNeverTimeOut() {
+        requestExecutor.executeWrite(asyncResponseMock, () -> Response.ok().build());
+
+        Mockito.verify(asyncResponseMock, Mockito.timeout(1000)).resume(Mockito.any(Response.class));
+        Mockito.verify(asyncResponseMock, Mockito.never()).setTimeout(Mockito.anyLong(), Mockito.any());
+        Mockito.verify(asyncResponseMock, Mockito.never()).setTimeoutHandler(Mockito.any());
+    }
+
+    @Test
+    public void testExecute_NOK_ErrorIsAnswered() {
+        requestExecutor.execute(asyncResponseMock, () -> {
+            throw new AssertionError("not a RuntimeException");
+        });
+
+        ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        Mockito.verify(asyncResponseMock, Mockito.timeout(1000)).resume(response.capture());
+        assertEquals(Status.INTERNAL_SERVER_ERROR.getStatusCode(), response.getValue().getStatus());
+    }
+}
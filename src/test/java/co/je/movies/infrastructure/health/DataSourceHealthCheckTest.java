@@ -0,0 +1,54 @@
+package co.je.movies.infrastructure.health;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.codahale.metrics.health.HealthCheck.Result;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.Assert.*;
+
+public class DataSourceHealthCheckTest {
+
+    private BasicDataSource dataSourceMock;
+    private Connection dbConnectionMock;
+    private DataSourceHealthCheck dataSourceHealthCheck;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSourceMock = Mockito.mock(BasicDataSource.class);
+        dbConnectionMock = Mockito.mock(Connection.class);
+        Mockito.when(dataSourceMock.getConnection()).thenReturn(dbConnectionMock);
+        dataSourceHealthCheck = new DataSourceHealthCheck(dataSourceMock);
+    }
+
+    @Test
+    public void testCheck_OK_ValidConnection() throws SQLException {
+        Mockito.when(dbConnectionMock.isValid(Mockito.anyInt())).thenReturn(true);
+
+        Result result = dataSourceHealthCheck.execute();
+        assertTrue(result.isHealthy());
+        Mockito.verify(dbConnectionMock).close();
+    }
+
+    @Test
+    public void testCheck_NOK_InvalidConnection() throws SQLException {
+        Mockito.when(dbConnectionMock.isValid(Mockito.anyInt())).thenReturn(false);
+
+        Result result = dataSourceHealthCheck.execute();
+        assertFalse(result.isHealthy());
+        Mockito.verify(dbConnectionMock).close();
+    }
+
+    @Test
+    public void testCheck_NOK_NoConnection() throws SQLException {
+        Mockito.when(dataSourceMock.getConnection()).thenThrow(new SQLException("Cannot get a connection"));
+
+        Result result = dataSourceHealthCheck.execute();
+        assertFalse(result.isHealthy());
+    }
+}
@@ -0,0 +1,100 @@
+package co.je.movies.infrastructure.logging;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import co.je.movies.infrastructure.config.QueryLogConfig;
+
+public class QueryLoggerTest {
+
+    private QueryLogger queryLogger;
+
+    private void setUpQueryLogger(double sampleRate, long slowQueryThresholdInMillis, boolean redactParameters) {
+
+        QueryLogConfig queryLogConfigMock = Mockito.mock(QueryLogConfig.class);
+        Mockito.when(queryLogConfigMock.getOperations()).thenReturn(Arrays.asList("getMovieByImdbId"));
+        Mockito.when(queryLogConfigMock.getSampleRate()).thenReturn(sampleRate);
+        Mockito.when(queryLogConfigMock.getSlowQueryThresholdInMillis()).thenReturn(slowQueryThresholdInMillis);
+        Mockito.when(queryLogConfigMock.isRedactParameters()).thenReturn(redactParameters);
+        Mockito.when(queryLogConfigMock.getQueueSize()).thenReturn(16);
+
+        queryLogger = Mockito.spy(new QueryLogger(queryLogConfigMock));
+        Mockito.doReturn(true).when(queryLogger).isDebugEnabled();
+    }
+
+    private static long startedMillisAgo(long millis) {
+        return System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (queryLogger != null) {
+            queryLogger.stop();
+        }
+    }
+
+    @Test
+    public void testLog_OK_SlowQueriesAreLoggedRedacted() throws Exception {
+        setUpQueryLogger(0, 10, true);
+        queryLogger.log("getMoviesByParams", startedMillisAgo(20), "tt0133093");
+        queryLogger.stop();
+
+        Mockito.verify(queryLogger).write(Mockito.eq(true), Mockito.eq("getMoviesByParams"), Mockito.anyLong(),
+                Mockito.eq("<redacted>"));
+    }
+
+    @Test
+    public void testLog_OK_ParametersAreKeptIfNotRedacted() throws Exception {
+        setUpQueryLogger(0, 10, false);
+        queryLogger.log("getMoviesByParams", startedMillisAgo(20), "tt0133093");
+        queryLogger.stop();
+
+        Mockito.verify(queryLogger).write(Mockito.eq(true), Mockito.eq("getMoviesByParams"), Mockito.anyLong(),
+                Mockito.eq("tt0133093"));
+    }
+
+    @Test
+    public void testLog_OK_FastQueriesAreOnlyLoggedIfSampled() throws Exception {
+        setUpQueryLogger(0, 10_000, false);
+        queryLogger.log("getMovieByImdbId", System.nanoTime(), "tt0133093");
+        queryLogger.stop();
+
+        Mockito.verify(queryLogger, Mockito.never()).write(Mockito.anyBoolean(), Mockito.any(), Mockito.anyLong(), Mockito.any());
+    }
+
+    @Test
+    public void testLog_OK_SampledQueriesOfEnabledOperationsAreLogged() throws Exception {
+        setUpQueryLogger(1, 10_000, false);
+        queryLogger.log("getMovieByImdbId", System.nanoTime(), "tt0133093");
+        queryLogger.log("getMoviesByParams", System.nanoTime(), "tt0133093");
+        queryLogger.stop();
+
+        Mockito.verify(queryLogger).write(Mockito.eq(false), Mockito.eq("getMovieByImdbId"), Mockito.anyLong(),
+                Mockito.eq("tt0133093"));
+        Mockito.verify(queryLogger, Mockito.never()).write(Mockito.anyBoolean(), Mockito.eq("getMoviesByParams"), Mockito.anyLong(),
+                Mockito.any());
+    }
+
+    @Test
+    public void testLog_OK_NoThresholdLogsNothingSlow() throws Exception {
+        setUpQueryLogger(0, 0, false);
+        queryLogger.log("getMoviesByParams", startedMillisAgo(60_000), "tt0133093");
+        queryLogger.stop();
+
+        Mockito.verify(queryLogger, Mockito.never()).write(Mockito.anyBoolean(), Mockito.any(), Mockito.anyLong(), Mockito.any());
+    }
+
+    @Test
+    public void testDisabled_OK_LogsNothing() throws Exception {
+        QueryLogger disabledQueryLogger = Mockito.spy(QueryLogger.disabled());
+        disabledQueryLogger.log("getMoviesByParams", startedMillisAgo(60_000), "tt0133093");
+        disabledQueryLogger.stop();
+
+        Mockito.verify(disabledQueryLogger, Mockito.never()).write(Mockito.anyBoolean(), Mockito.any(), Mockito.anyLong(),
+                Mockito.any());
+    }
+}
@@ -2,14 +2,26 @@ package co.je.movies.persistence.daos;
 
 import static org.junit.Assert.*;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.dbutils.DbUtils;
 import org.junit.After;
@@ -18,7 +30,15 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import co.je.movies.domain.entities.CreationStatus;
+import co.je.movies.domain.entities.FilmRating;
 import co.je.movies.domain.entities.Movie;
+import co.je.movies.domain.entities.MovieChange;
+import co.je.movies.domain.entities.MovieChangeType;
+import co.je.movies.domain.entities.MovieCreationResult;
+import co.je.movies.domain.entities.MovieField;
+import co.je.movies.domain.entities.MovieStats;
+import co.je.movies.infrastructure.logging.QueryLogger;
 import co.je.movies.util.factories.MovieFactoryForTests;
 
 public class MovieDAOTest {
@@ -59,7 +79,7 @@ public class MovieDAOTest {
     public void tearDown() {
         movieDAO = null;
         try {
-            String dropTableSQL = "DROP TABLE movies";
+            String dropTableSQL = "DROP ALL OBJECTS";
             PreparedStatement prepareStatement = dbConnection.prepareStatement(dropTableSQL);
             prepareStatement.executeUpdate();
             prepareStatement.close();
@@ -119,6 +139,83 @@ public class MovieDAOTest {
         }
     }
 
+    @Test
+    public void testCreateMovies_OK_ReportsDuplicates() throws SQLException {
+        assertEquals(0, countMovieTableRows(dbConnection));
+
+        MovieDAO smallBatchMovieDAO = new MovieDAO(1, MovieDAO.DEFAULT_FETCH_SIZE, QueryLogger.disabled());
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        smallBatchMovieDAO.createMovie(dbConnection, matrixMovie);
+
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        List<Movie> movies = Arrays.asList(matrixMovie, matrixReloadedMovie, matrixReloadedMovie);
+        List<MovieCreationResult> results = smallBatchMovieDAO.createMovies(dbConnection, movies);
+
+        assertEquals(3, results.size());
+        assertEquals(CreationStatus.DUPLICATED, results.get(0).getStatus());
+        assertEquals(CreationStatus.CREATED, results.get(1).getStatus());
+        assertEquals(matrixReloadedMovie.getImdbId(), results.get(1).getImdbId());
+        assertEquals(CreationStatus.DUPLICATED, results.get(2).getStatus());
+        assertEquals(2, countMovieTableRows(dbConnection));
+    }
+
+    @Test
+    public void testCreateTableIfNotExists_OK_CreatesSearchIndexes() throws SQLException {
+        // Running it twice must not apply the migrations again.
+        movieDAO.createTableIfNotExists(dbConnection);
+
+        String countIndexesSQL = "SELECT COUNT(DISTINCT INDEX_NAME) FROM INFORMATION_SCHEMA.INDEXES "
+                + "WHERE TABLE_NAME = 'MOVIES' AND INDEX_NAME LIKE 'MOVIES_%_IDX';";
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(countIndexesSQL);
+                ResultSet resultSet = prepareStatement.executeQuery()) {
+            assertTrue(resultSet.next());
+            assertEquals(5, resultSet.getInt(1));
+        }
+
+        String getSchemaVersionSQL = "SELECT COUNT(*), MAX(version) FROM schema_version;";
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement(getSchemaVersionSQL);
+                ResultSet resultSet = prepareStatement.executeQuery()) {
+            assertTrue(resultSet.next());
+            assertEquals(resultSet.getInt(1), resultSet.getInt(2));
+        }
+    }
+
+    @Test
+    public void testCreateTableIfNotExists_OK_MigratesUnknownLegacyFilmRatingToNull() throws SQLException {
+        // A movies table as the first version of the service created it.
+        try (PreparedStatement prepareStatement = dbConnection.prepareStatement("DROP ALL OBJECTS")) {
+            prepareStatement.executeUpdate();
+        }
+        String createLegacyTableSQL = "CREATE TABLE movies (imdbId VARCHAR(128) PRIMARY KEY, title VARCHAR(512), "
+                + "runtimeInMinutes SMALLINT, releaseDate TIMESTAMP, filmRating VARCHAR(32), genre VARCHAR(128), director VARCHAR(256), "
+                + "plot VARCHAR(1024), metascore SMALLINT, imdbRating DECIMAL(2,1), imdbVotes BIGINT);";
+        String insertLegacyMoviesSQL = "INSERT INTO movies VALUES ('tt0000001', 'Known', 90, TIMESTAMP '1999-03-31 00:00:00', "
+                + "'pg-13', 'Drama', 'Someone', 'Something', 50, 7.5, 10), ('tt0000002', 'Unknown', 90, "
+                + "TIMESTAMP '1999-03-31 00:00:00', 'TV-MA', 'Drama', 'Someone', 'Something', 50, 7.5, 10);";
+        for (String legacySQL : Arrays.asList(createLegacyTableSQL, insertLegacyMoviesSQL)) {
+            try (PreparedStatement prepareStatement = dbConnection.prepareStatement(legacySQL)) {
+                prepareStatement.executeUpdate();
+            }
+        }
+
+        long beforeMigrationInMillis = System.currentTimeMillis();
+        movieDAO.createTableIfNotExists(dbConnection);
+        long afterMigrationInMillis = System.currentTimeMillis();
+
+        Movie knownRatingMovie = movieDAO.getMovieByImdbId(dbConnection, "tt0000001").get();
+        assertEquals(FilmRating.PG_13, knownRatingMovie.getFilmRating());
+        // The time of the migration, whatever the time zone of the DB.
+        assertTrue(knownRatingMovie.getLastModifiedInMillis() >= beforeMigrationInMillis);
+        assertTrue(knownRatingMovie.getLastModifiedInMillis() <= afterMigrationInMillis);
+        Movie unknownRatingMovie = movieDAO.getMovieByImdbId(dbConnection, "tt0000002").get();
+        assertNull(unknownRatingMovie.getFilmRating());
+        List<Movie> streamedMovies = new ArrayList<Movie>();
+        movieDAO.streamAllMovies(dbConnection, streamedMovies::add);
+        assertEquals(2, streamedMovies.size());
+        // Written back as it was read.
+        assertTrue(movieDAO.updateMovie(dbConnection, "tt0000002", unknownRatingMovie).isPresent());
+    }
+
     @Test
     public void testGetMovieByImdbId_OK() {
         try {
@@ -177,10 +274,109 @@ public class MovieDAOTest {
         assertEquals(2, countMovieTableRows(dbConnection));
 
         BigDecimal imdbRating = new BigDecimal("7.0");
-        List<Movie> moviesByParams = movieDAO.getMoviesByParams(dbConnection, "matrix", 100, 6, imdbRating, 10000);
+        List<Movie> moviesByParams = movieDAO.getMoviesByParams(dbConnection, "matrix", 100, 6, imdbRating, 10000, null, 10);
         assertEquals(2, moviesByParams.size());
     }
 
+    @Test
+    public void testGetMoviesByParams_OK_PagesByImdbId() throws SQLException {
+        assertEquals(0, countMovieTableRows(dbConnection));
+
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        movieDAO.createMovie(dbConnection, matrixReloadedMovie);
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        movieDAO.createMovie(dbConnection, matrixMovie);
+        assertEquals(2, countMovieTableRows(dbConnection));
+
+        List<Movie> firstPage = movieDAO.getMoviesByParams(dbConnection, "", 0, 0, null, 0, null, 1);
+        assertEquals(1, firstPage.size());
+        assertEquals(matrixMovie.getImdbId(), firstPage.get(0).getImdbId());
+
+        List<Movie> secondPage = movieDAO.getMoviesByParams(dbConnection, "", 0, 0, null, 0, matrixMovie.getImdbId(), 1);
+        assertEquals(1, secondPage.size());
+        assertEquals(matrixReloadedMovie.getImdbId(), secondPage.get(0).getImdbId());
+
+        List<Movie> thirdPage = movieDAO.getMoviesByParams(dbConnection, "", 0, 0, null, 0, matrixReloadedMovie.getImdbId(), 1);
+        assertTrue(thirdPage.isEmpty());
+    }
+
+    @Test
+    public void testGetMoviesByParams_OK_ReadsOnlyRequestedFields() throws SQLException {
+        assertEquals(0, countMovieTableRows(dbConnection));
+
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        movieDAO.createMovie(dbConnection, matrixMovie);
+        assertEquals(1, countMovieTableRows(dbConnection));
+
+        Set<MovieField> movieFields = MovieField.createMovieFieldsFromPlainNames("title,imdbRating");
+        List<Movie> movies = movieDAO.getMoviesByParams(dbConnection, "matrix", 0, 0, null, 0, null, 10, movieFields);
+        assertEquals(1, movies.size());
+
+        Movie movie = movies.get(0);
+        assertEquals(matrixMovie.getImdbId(), movie.getImdbId());
+        assertEquals(matrixMovie.getTitle(), movie.getTitle());
+        assertEquals(0, matrixMovie.getImdbRating().compareTo(movie.getImdbRating()));
+        assertEquals(1, movie.getVersion());
+        assertNull(movie.getPlot());
+        assertNull(movie.getFilmRating());
+        assertNull(movie.getReleaseDate());
+        assertEquals(0, movie.getImdbVotes());
+    }
+
+    @Test
+    public void testGetMoviesByImdbIds_OK_ReadsEveryChunk() throws SQLException {
+        assertEquals(0, countMovieTableRows(dbConnection));
+
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        movieDAO.createMovie(dbConnection, matrixMovie);
+        movieDAO.createMovie(dbConnection, matrixReloadedMovie);
+        assertEquals(2, countMovieTableRows(dbConnection));
+
+        MovieDAO smallBatchMovieDAO = new MovieDAO(2, MovieDAO.DEFAULT_FETCH_SIZE, QueryLogger.disabled());
+        List<String> imdbIds = Arrays.asList(matrixReloadedMovie.getImdbId(), "tt0000000", matrixMovie.getImdbId());
+        List<Movie> movies = smallBatchMovieDAO.getMoviesByImdbIds(dbConnection, imdbIds);
+        assertEquals(2, movies.size());
+        assertTrue(movies.stream().anyMatch(movie -> matrixMovie.compareTo(movie) == 0));
+        assertTrue(movies.stream().anyMatch(movie -> matrixReloadedMovie.compareTo(movie) == 0));
+    }
+
+    @Test
+    public void testStreamMoviesByParams_OK_ConsumesEveryMovie() throws SQLException {
+        assertEquals(0, countMovieTableRows(dbConnection));
+
+        movieDAO.createMovie(dbConnection, MovieFactoryForTests.getMatrixMovie());
+        movieDAO.createMovie(dbConnection, MovieFactoryForTests.getMatrixReloadedMovie());
+        assertEquals(2, countMovieTableRows(dbConnection));
+
+        List<Movie> streamedMovies = new ArrayList<Movie>();
+        movieDAO.streamMoviesByParams(dbConnection, "reloaded", 0, 0, null, 0, streamedMovies::add);
+        assertEquals(1, streamedMovies.size());
+        assertEquals(MovieFactoryForTests.getMatrixReloadedMovie().getImdbId(), streamedMovies.get(0).getImdbId());
+    }
+
+    @Test
+    public void testStreamAllMovies_OK_IncludesMoviesSearchesLeaveOut() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloaded = MovieFactoryForTests.getMatrixReloadedMovie();
+        Movie unratedMovie = new Movie(matrixMovie.getImdbId(), matrixMovie.getTitle(), matrixMovie.getRuntimeInMinutes(),
+                matrixMovie.getReleaseDate(), matrixMovie.getFilmRating(), matrixMovie.getGenre(), matrixMovie.getDirector(),
+                matrixMovie.getPlot(), -1, null, matrixMovie.getImdbVotes());
+        movieDAO.createMovie(dbConnection, matrixReloaded);
+        movieDAO.createMovie(dbConnection, unratedMovie);
+
+        List<Movie> searchedMovies = new ArrayList<Movie>();
+        movieDAO.streamMoviesByParams(dbConnection, null, 0, 0, null, 0, searchedMovies::add);
+        assertEquals(1, searchedMovies.size());
+
+        List<Movie> streamedMovies = new ArrayList<Movie>();
+        movieDAO.streamAllMovies(dbConnection, streamedMovies::add);
+        assertEquals(2, streamedMovies.size());
+        assertEquals(unratedMovie.getImdbId(), streamedMovies.get(0).getImdbId());
+        assertNull(streamedMovies.get(0).getImdbRating());
+        assertEquals(matrixReloaded.getImdbId(), streamedMovies.get(1).getImdbId());
+    }
+
     @Test
     public void testUpdateMovie_OK_MovieWasUpdated() throws SQLException {
         assertEquals(0, countMovieTableRows(dbConnection));
@@ -190,6 +386,10 @@ public class MovieDAOTest {
         assertEquals(matrixMovie.getImdbId(), imdbId);
         assertEquals(1, countMovieTableRows(dbConnection));
 
+        Movie createdMovie = movieDAO.getMovieByImdbId(dbConnection, imdbId).get();
+        assertEquals(1, createdMovie.getVersion());
+        assertTrue(createdMovie.getLastModifiedInMillis() > 0);
+
         Movie matrixReloaded = MovieFactoryForTests.getMatrixReloadedMovie();
         Optional<Movie> optionalMovie = movieDAO.updateMovie(dbConnection, imdbId, matrixReloaded);
         assertEquals(1, countMovieTableRows(dbConnection));
@@ -199,6 +399,136 @@ public class MovieDAOTest {
         assertEquals(imdbId, updatedMovie.getImdbId());
         // The only attribute that doesn't match is the imdbID.
         assertEquals(1, matrixReloaded.compareTo(updatedMovie));
+        assertEquals(2, updatedMovie.getVersion());
+        assertTrue(updatedMovie.getLastModifiedInMillis() >= createdMovie.getLastModifiedInMillis());
+    }
+
+    @Test
+    public void testUpsertMovie_OK_CreatesThenUpdates() throws SQLException {
+        assertEquals(0, countMovieTableRows(dbConnection));
+
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        String imdbId = matrixMovie.getImdbId();
+        Movie createdMovie = movieDAO.upsertMovie(dbConnection, imdbId, matrixMovie);
+        assertEquals(1, countMovieTableRows(dbConnection));
+        assertEquals(1, createdMovie.getVersion());
+
+        Movie matrixReloaded = MovieFactoryForTests.getMatrixReloadedMovie();
+        Movie updatedMovie = movieDAO.upsertMovie(dbConnection, imdbId, matrixReloaded);
+        assertEquals(1, countMovieTableRows(dbConnection));
+        assertEquals(2, updatedMovie.getVersion());
+        assertEquals(imdbId, updatedMovie.getImdbId());
+
+        Movie storedMovie = movieDAO.getMovieByImdbId(dbConnection, imdbId).get();
+        assertEquals(matrixReloaded.getTitle(), storedMovie.getTitle());
+        assertEquals(updatedMovie.getVersion(), storedMovie.getVersion());
+        assertEquals(updatedMovie.getLastModifiedInMillis(), storedMovie.getLastModifiedInMillis());
+    }
+
+    @Test
+    public void testUpsertMovies_OK_ReportsCreatedAndUpdated() throws SQLException {
+        assertEquals(0, countMovieTableRows(dbConnection));
+
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        movieDAO.createMovie(dbConnection, matrixMovie);
+
+        Movie matrixReloaded = MovieFactoryForTests.getMatrixReloadedMovie();
+        List<MovieCreationResult> results = movieDAO.upsertMovies(dbConnection,
+                Arrays.asList(matrixMovie, matrixReloaded, matrixReloaded));
+        assertEquals(2, countMovieTableRows(dbConnection));
+        assertEquals(CreationStatus.UPDATED, results.get(0).getStatus());
+        assertEquals(CreationStatus.CREATED, results.get(1).getStatus());
+        assertEquals(CreationStatus.UPDATED, results.get(2).getStatus());
+
+        assertEquals(2, movieDAO.getMovieByImdbId(dbConnection, matrixMovie.getImdbId()).get().getVersion());
+        assertEquals(2, movieDAO.getMovieByImdbId(dbConnection, matrixReloaded.getImdbId()).get().getVersion());
+    }
+
+    @Test
+    public void testPatchMovie_OK_WritesOnlyChangedColumns() throws SQLException {
+        assertEquals(0, countMovieTableRows(dbConnection));
+
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        String imdbId = movieDAO.createMovie(dbConnection, matrixMovie);
+        assertEquals(1, countMovieTableRows(dbConnection));
+
+        // Every field differs, but only imdbVotes and metascore must be written.
+        Movie patchedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        Set<MovieField> changedFields = EnumSet.of(MovieField.IMDB_VOTES, MovieField.METASCORE);
+        Movie returnedMovie = movieDAO.patchMovie(dbConnection, imdbId, patchedMovie, changedFields).get();
+        assertEquals(imdbId, returnedMovie.getImdbId());
+        assertEquals(patchedMovie.getImdbVotes(), returnedMovie.getImdbVotes());
+        assertEquals(2, returnedMovie.getVersion());
+
+        Movie storedMovie = movieDAO.getMovieByImdbId(dbConnection, imdbId).get();
+        assertEquals(matrixMovie.getTitle(), storedMovie.getTitle());
+        assertEquals(matrixMovie.getPlot(), storedMovie.getPlot());
+        assertEquals(patchedMovie.getImdbVotes(), storedMovie.getImdbVotes());
+        assertEquals(patchedMovie.getMetascore(), storedMovie.getMetascore());
+        assertEquals(returnedMovie.getVersion(), storedMovie.getVersion());
+        assertEquals(returnedMovie.getLastModifiedInMillis(), storedMovie.getLastModifiedInMillis());
+    }
+
+    // A connection counting the statements prepared through it.
+    private static Connection countingStatements(Connection connection, AtomicInteger preparedStatements) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("prepareStatement")) {
+                        preparedStatements.incrementAndGet();
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    @Test
+    public void testPatchMovie_OK_ReadsBackOnlyTheVersion() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        String imdbId = movieDAO.createMovie(dbConnection, matrixMovie);
+        movieDAO.createMovie(dbConnection, MovieFactoryForTests.getMatrixReloadedMovie());
+
+        // The UPDATE, reading its version, advancing the change seq and appending the change.
+        AtomicInteger preparedStatements = new AtomicInteger();
+        Movie returnedMovie = movieDAO.patchMovie(countingStatements(dbConnection, preparedStatements), imdbId, matrixMovie,
+                EnumSet.of(MovieField.IMDB_VOTES)).get();
+        assertEquals(4, preparedStatements.get());
+        assertEquals(2, returnedMovie.getVersion());
+
+        List<MovieChange> changes = movieDAO.getChanges(dbConnection, 0, 10);
+        assertEquals(3, changes.size());
+        assertEquals(3, changes.get(2).getSeq());
+        assertEquals(imdbId, changes.get(2).getImdbId());
+        assertEquals(MovieChangeType.UPDATED, changes.get(2).getChangeType());
+    }
+
+    @Test
+    public void testPatchMovie_OK_MovieDoesNotExist() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Optional<Movie> optionalMovie = movieDAO.patchMovie(dbConnection, matrixMovie.getImdbId(), matrixMovie,
+                EnumSet.of(MovieField.IMDB_VOTES));
+        assertFalse(optionalMovie.isPresent());
+    }
+
+    @Test
+    public void testUpdateMoviesStats_OK_WritesOnlyNotNullStats() throws SQLException {
+        assertEquals(0, countMovieTableRows(dbConnection));
+
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        movieDAO.createMovie(dbConnection, matrixMovie);
+        assertEquals(1, countMovieTableRows(dbConnection));
+
+        List<MovieStats> moviesStats = Arrays.asList(new MovieStats(matrixMovie.getImdbId(), null, new BigDecimal("8.8"), 1023700L),
+                new MovieStats("tt0000000", 50, null, null));
+        assertEquals(1, movieDAO.updateMoviesStats(dbConnection, moviesStats));
+
+        Movie storedMovie = movieDAO.getMovieByImdbId(dbConnection, matrixMovie.getImdbId()).get();
+        assertEquals(matrixMovie.getMetascore(), storedMovie.getMetascore());
+        assertEquals(new BigDecimal("8.8"), storedMovie.getImdbRating());
+        assertEquals(1023700L, storedMovie.getImdbVotes());
+        assertEquals(2, storedMovie.getVersion());
     }
 
     @Test
@@ -214,4 +544,86 @@ public class MovieDAOTest {
         assertTrue(movieWasDeleted);
         assertEquals(0, countMovieTableRows(dbConnection));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCreateMovie_OK_WaitsForTheChangeSeqHeldByAnotherTransaction() throws Exception {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloadedMovie = MovieFactoryForTests.getMatrixReloadedMovie();
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try (Connection otherConnection = DriverManager.getConnection("jdbc:h2:mem:test")) {
+            dbConnection.setAutoCommit(false);
+            movieDAO.createMovie(dbConnection, matrixMovie);
+
+            Future<String> otherWrite = executorService.submit(() -> {
+                otherConnection.setAutoCommit(false);
+                try {
+                    String imdbId = movieDAO.createMovie(otherConnection, matrixReloadedMovie);
+                    otherConnection.commit();
+                    return imdbId;
+                } finally {
+                    movieDAO.releaseChangeSeq();
+                    otherConnection.setAutoCommit(true);
+                }
+            });
+            try {
+                otherWrite.get(200, TimeUnit.MILLISECONDS);
+                fail("The other write must wait until the first one ends.");
+            } catch (TimeoutException e) {
+                // Waiting, instead of failing on the locked seq row.
+            }
+
+            dbConnection.commit();
+            movieDAO.releaseChangeSeq();
+            assertEquals(matrixReloadedMovie.getImdbId(), otherWrite.get(5, TimeUnit.SECONDS));
+        } finally {
+            dbConnection.setAutoCommit(true);
+            executorService.shutdown();
+        }
+
+        List<MovieChange> changes = movieDAO.getChanges(dbConnection, 0, 10);
+        assertEquals(2, changes.size());
+        assertEquals(matrixMovie.getImdbId(), changes.get(0).getImdbId());
+        assertEquals(2, changes.get(1).getSeq());
+    }
+
+    @Test
+    public void testGetChanges_OK_LogsEveryWriteInOrder() throws SQLException {
+        Movie matrixMovie = MovieFactoryForTests.getMatrixMovie();
+        Movie matrixReloaded = MovieFactoryForTests.getMatrixReloadedMovie();
+        String imdbId = movieDAO.createMovie(dbConnection, matrixMovie);
+        movieDAO.upsertMovies(dbConnection, Arrays.asList(matrixMovie, matrixReloaded));
+        movieDAO.updateMoviesStats(dbConnection, Arrays.asList(new MovieStats("tt0000000", 50, null, null)));
+        movieDAO.deleteMovie(dbConnection, imdbId);
+
+        List<MovieChange> changes = movieDAO.getChanges(dbConnection, 0, 10);
+        assertEquals(4, changes.size());
+        assertEquals(MovieChangeType.CREATED, changes.get(0).getChangeType());
+        assertEquals(MovieChangeType.UPDATED, changes.get(1).getChangeType());
+        assertEquals(matrixReloaded.getImdbId(), changes.get(2).getImdbId());
+        assertEquals(MovieChangeType.CREATED, changes.get(2).getChangeType());
+        assertEquals(MovieChangeType.DELETED, changes.get(3).getChangeType());
+        for (int i = 0; i < changes.size(); i++) {
+            assertEquals(i + 1, changes.get(i).getSeq());
+        }
+        assertEquals(4, movieDAO.getLastChangeSeq(dbConnection));
+
+        List<MovieChange> laterChanges = movieDAO.getChanges(dbConnection, 2, 1);
+        assertEquals(1, laterChanges.size());
+        assertEquals(3, laterChanges.get(0).getSeq());
+    }
+
+    @Test
+    public void testPruneChanges_OK_RecordsPrunedSeq() throws SQLException {
+        movieDAO.createMovie(dbConnection, MovieFactoryForTests.getMatrixMovie());
+        movieDAO.createMovie(dbConnection, MovieFactoryForTests.getMatrixReloadedMovie());
+        assertEquals(0, movieDAO.getPrunedChangeSeq(dbConnection));
+
+        assertEquals(2, movieDAO.pruneChanges(dbConnection, System.currentTimeMillis() + 1));
+        assertEquals(2, movieDAO.getPrunedChangeSeq(dbConnection));
+        assertTrue(movieDAO.getChanges(dbConnection, 0, 10).isEmpty());
+
+        // Seqs keep growing after a prune.
+        movieDAO.deleteMovie(dbConnection, MovieFactoryForTests.getMatrixMovie().getImdbId());
+        assertEquals(3, movieDAO.getChanges(dbConnection, 2, 10).get(0).getSeq());
+    }
+}
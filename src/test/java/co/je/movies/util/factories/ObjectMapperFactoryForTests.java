@@ -3,6 +3,7 @@ package co.je.movies.util.factories;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.datatype.jsr310.JSR310Module;
 import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
@@ -10,7 +11,14 @@ import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
 public class ObjectMapperFactoryForTests {
 
     public static ObjectMapper getConfiguredObjectMapper() {
-        ObjectMapper objectMapper = new ObjectMapper();
+        return configure(new ObjectMapper());
+    }
+
+    public static ObjectMapper getConfiguredSmileObjectMapper() {
+        return configure(new ObjectMapper(new SmileFactory()));
+    }
+
+    private static ObjectMapper configure(ObjectMapper objectMapper) {
         objectMapper.registerModule(new ParameterNamesModule());
         objectMapper.registerModule(new JSR310Module());
         objectMapper.registerModule(new Jdk8Module());